@@ -0,0 +1,810 @@
+package ch02;
+
+import ch02.crawl.RankedPageColumns;
+import ch02.crawl.RankedPageColumns.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of primitive columns, for summary statistics over millions of rows
+ * without boxing every value like a Joinery DataFrame.  A column is an
+ * {@code int[]}, a {@code double[]}, a {@code boolean[]} or dictionary
+ * encoded strings: the sorted distinct values, and the code of the value of
+ * each row, -1 for null.  Aggregations are plain loops over the arrays.
+ * <p>
+ * Frames are immutable.  Their column arrays are shared, not copied, by the
+ * builder, the getters and the frames derived from them, so they must not be
+ * modified.
+ */
+public class ColumnFrame {
+
+    private static final String[] DESCRIBE = {"count", "mean", "std", "min",
+            "25%", "50%", "75%", "max"};
+    private static final int MAX_PRINTED_ROWS = 20;
+    private static final long MAX_HISTOGRAM_SIZE = 1 << 22;
+
+    private final int rows;
+    // int[], double[], boolean[] or Strings, in column order
+    private final Map<String, Object> columns;
+
+    private ColumnFrame(int rows, Map<String, Object> columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Return a frame with a column per bean property, in the order of the
+     * properties of {@link BeanToJoinery#convert(List, Class)}.  int, double
+     * and boolean properties are stored as such, the others as strings.
+     *
+     * @param beans     rows of the frame.
+     * @param beanClass class of the beans.
+     * @param <E>
+     * @return ColumnFrame
+     */
+    public static <E> ColumnFrame fromBeans(List<E> beans,
+                                            Class<E> beanClass) {
+        return fromBeans(beans, beanClass, false);
+    }
+
+    /**
+     * Return a frame with a column per bean property, like
+     * {@link #fromBeans(List, Class)}.
+     *
+     * @param beans     rows of the frame.
+     * @param beanClass class of the beans.
+     * @param parallel  true to read the properties in parallel, on the
+     *                  common fork-join pool.
+     * @param <E>
+     * @return ColumnFrame
+     */
+    public static <E> ColumnFrame fromBeans(List<E> beans, Class<E> beanClass,
+                                            boolean parallel) {
+        return BeanToJoinery.toColumnFrame(beans, beanClass, parallel);
+    }
+
+    /**
+     * Return a frame with the columns of a ranked page columns file.  Numbers
+     * and booleans are read into the heap; strings keep their codes.
+     *
+     * @param file columns file.
+     * @return ColumnFrame
+     */
+    public static ColumnFrame from(RankedPageColumns file) {
+        Builder builder = new Builder(file.getRowCount());
+        for (String name : file.getColumnNames()) {
+            switch (file.getType(name)) {
+                case INT:
+                    builder.addInts(name, file.getInts(name));
+                    break;
+                case DOUBLE:
+                    builder.addDoubles(name, file.getDoubles(name));
+                    break;
+                case BOOLEAN:
+                    builder.addBooleans(name, file.getBooleans(name));
+                    break;
+                default:
+                    builder.addStrings(name, file.getDictionary(name),
+                            file.getCodes(name));
+            }
+        }
+        return builder.build();
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(new ArrayList<>(columns.keySet()));
+    }
+
+    /**
+     * @param name column name.
+     * @return type of the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    public Type getType(String name) {
+        return typeOf(column(name));
+    }
+
+    /**
+     * @param name INT column.
+     * @return values of the column.
+     */
+    public int[] getInts(String name) {
+        return (int[]) column(name, Type.INT);
+    }
+
+    /**
+     * @param name INT, DOUBLE or BOOLEAN column; booleans are 1.0 or 0.0.
+     * @return values of the column, converted to new array unless DOUBLE.
+     */
+    public double[] getDoubles(String name) {
+        Object column = column(name);
+        if (column instanceof double[]) {
+            return (double[]) column;
+        }
+        double[] values = new double[rows];
+        if (column instanceof int[]) {
+            int[] ints = (int[]) column;
+            for (int i = 0; i < rows; i++) {
+                values[i] = ints[i];
+            }
+        } else if (column instanceof boolean[]) {
+            boolean[] booleans = (boolean[]) column;
+            for (int i = 0; i < rows; i++) {
+                values[i] = booleans[i] ? 1.0 : 0.0;
+            }
+        } else {
+            throw new IllegalArgumentException(name + " is not numeric");
+        }
+        return values;
+    }
+
+    /**
+     * @param name BOOLEAN column.
+     * @return values of the column.
+     */
+    public boolean[] getBooleans(String name) {
+        return (boolean[]) column(name, Type.BOOLEAN);
+    }
+
+    /**
+     * @param name STRING column.
+     * @return sorted distinct values of the column, without null.
+     */
+    public String[] getDictionary(String name) {
+        return ((Strings) column(name, Type.STRING)).dictionary;
+    }
+
+    /**
+     * @param name STRING column.
+     * @return dictionary code of each row, -1 for null.
+     */
+    public int[] getCodes(String name) {
+        return ((Strings) column(name, Type.STRING)).codes;
+    }
+
+    /**
+     * @param name STRING column.
+     * @return decoded values of the column.
+     */
+    public String[] getStrings(String name) {
+        Strings strings = (Strings) column(name, Type.STRING);
+        String[] values = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            int code = strings.codes[i];
+            values[i] = code < 0 ? null : strings.dictionary[code];
+        }
+        return values;
+    }
+
+    /**
+     * @param names columns to keep.
+     * @return frame with these columns only, in the given order.
+     */
+    public ColumnFrame retain(String... names) {
+        Map<String, Object> retained = new LinkedHashMap<>();
+        for (String name : names) {
+            retained.put(name, column(name));
+        }
+        return new ColumnFrame(rows, retained);
+    }
+
+    /**
+     * @param names columns to remove; missing columns are ignored.
+     * @return frame without these columns.
+     */
+    public ColumnFrame drop(String... names) {
+        Map<String, Object> kept = new LinkedHashMap<>(columns);
+        kept.keySet().removeAll(Arrays.asList(names));
+        return new ColumnFrame(rows, kept);
+    }
+
+    /**
+     * Summary statistics of the INT and DOUBLE columns: count, mean,
+     * sample standard deviation, min, quartiles and max.  Quartiles are
+     * interpolated between the closest ranks, as by
+     * {@link Grouping#percentile(double)}.
+     *
+     * @return frame with a row per statistic, named in the first column,
+     * "statistic".
+     */
+    public ColumnFrame describe() {
+        Builder builder = new Builder(DESCRIBE.length)
+                .addStrings("statistic", DESCRIBE);
+        for (Map.Entry<String, Object> e : columns.entrySet()) {
+            Type type = typeOf(e.getValue());
+            if (type != Type.INT && type != Type.DOUBLE) {
+                continue;
+            }
+            double[] values = getDoubles(e.getKey());
+            double sum = 0;
+            for (double v : values) {
+                sum += v;
+            }
+            double mean = sum / rows;
+            double squares = 0;
+            for (double v : values) {
+                squares += (v - mean) * (v - mean);
+            }
+            double[][] percentiles = percentiles(e.getKey(), null, 1,
+                    new int[]{rows}, 0, 25, 50, 75, 100);
+            builder.addDoubles(e.getKey(), new double[]{
+                    rows, mean, Math.sqrt(squares / (rows - 1)),
+                    percentiles[0][0], percentiles[1][0], percentiles[2][0],
+                    percentiles[3][0], percentiles[4][0]});
+        }
+        return builder.build();
+    }
+
+    /**
+     * Group the rows by the values of a column.
+     *
+     * @param key INT, BOOLEAN or STRING column.
+     * @return the groups, ordered by key; null strings come first.
+     */
+    public Grouping groupBy(String key) {
+        return new Grouping(key);
+    }
+
+    /**
+     * Percentiles of a numeric column by group, interpolated between the
+     * closest ranks; NaN for an empty group.  Ints of a small range are
+     * counted in a histogram per group instead of being sorted.
+     *
+     * @param groupOf  group of each row; null for a single group.
+     * @param counts   number of rows of each group.
+     * @param percents percentiles, from 0 to 100.
+     * @return value of each percentile for each group.
+     */
+    private double[][] percentiles(String name, int[] groupOf, int groups,
+                                   int[] counts, double... percents) {
+        double[][] result = new double[percents.length][groups];
+        Object column = column(name);
+        if (column instanceof int[]) {
+            int[] values = (int[]) column;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int v : values) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            long span = rows == 0 ? 1 : (long) max - min + 1;
+            if (span * groups <= MAX_HISTOGRAM_SIZE) {
+                int size = (int) span;
+                int[] histogram = new int[size * groups];
+                for (int i = 0; i < rows; i++) {
+                    int group = groupOf == null ? 0 : groupOf[i];
+                    histogram[group * size + values[i] - min]++;
+                }
+                for (int p = 0; p < percents.length; p++) {
+                    for (int g = 0; g < groups; g++) {
+                        result[p][g] = percentile(histogram, g * size, min,
+                                counts[g], percents[p]);
+                    }
+                }
+                return result;
+            }
+        }
+
+        // Rows ordered by group: group g is from start[g] to start[g + 1]
+        double[] values = getDoubles(name);
+        double[] ordered;
+        int[] start = new int[groups + 1];
+        for (int g = 0; g < groups; g++) {
+            start[g + 1] = start[g] + counts[g];
+        }
+        if (groupOf == null) {
+            ordered = values.clone();
+        } else {
+            ordered = new double[rows];
+            int[] next = Arrays.copyOf(start, groups);
+            for (int i = 0; i < rows; i++) {
+                ordered[next[groupOf[i]]++] = values[i];
+            }
+        }
+        for (int g = 0; g < groups; g++) {
+            if (percents.length == 1) {
+                result[0][g] = select(ordered, start[g], start[g + 1],
+                        percents[0]);
+                continue;
+            }
+            Arrays.sort(ordered, start[g], start[g + 1]);
+            for (int p = 0; p < percents.length; p++) {
+                result[p][g] = percentile(ordered, start[g], start[g + 1],
+                        percents[p]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Value of a percentile of a range, partially reordering the range with
+     * quickselect, which is linear instead of sorting it.
+     */
+    private static double select(double[] values, int from, int to,
+                                 double percent) {
+        int n = to - from;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double rank = percent / 100 * (n - 1);
+        int lower = (int) rank;
+        double fraction = rank - lower;
+        int k = from + lower;
+        int left = from;
+        int right = to - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (Double.compare(values[i], pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(values[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        double value = values[k];
+        if (fraction > 0) {
+            // The next rank is the smallest value after k
+            double next = values[k + 1];
+            for (int i = k + 2; i < to; i++) {
+                if (Double.compare(values[i], next) < 0) {
+                    next = values[i];
+                }
+            }
+            value += fraction * (next - value);
+        }
+        return value;
+    }
+
+    /**
+     * Value of a percentile of a sorted range.
+     */
+    private static double percentile(double[] sorted, int from, int to,
+                                     double percent) {
+        int n = to - from;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double rank = percent / 100 * (n - 1);
+        int lower = (int) rank;
+        double fraction = rank - lower;
+        double value = sorted[from + lower];
+        if (fraction > 0) {
+            value += fraction * (sorted[from + lower + 1] - value);
+        }
+        return value;
+    }
+
+    /**
+     * Value of a percentile of the n ints counted in a histogram, starting
+     * at offset with the count of min.
+     */
+    private static double percentile(int[] histogram, int offset, int min,
+                                     int n, double percent) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double rank = percent / 100 * (n - 1);
+        int lower = (int) rank;
+        double fraction = rank - lower;
+        // seen is the number of values up to the one at i
+        int i = offset;
+        int seen = histogram[i];
+        while (seen <= lower) {
+            seen += histogram[++i];
+        }
+        double value = min + i - offset;
+        if (fraction > 0 && seen <= lower + 1) {
+            int j = i;
+            while (seen <= lower + 1) {
+                seen += histogram[++j];
+            }
+            value += fraction * (j - i);
+        }
+        return value;
+    }
+
+    private Object column(String name) {
+        Object column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No column " + name);
+        }
+        return column;
+    }
+
+    private Object column(String name, Type type) {
+        Object column = column(name);
+        if (typeOf(column) != type) {
+            throw new IllegalArgumentException(name + " is "
+                    + typeOf(column) + ", not " + type);
+        }
+        return column;
+    }
+
+    private static Type typeOf(Object column) {
+        if (column instanceof int[]) {
+            return Type.INT;
+        } else if (column instanceof double[]) {
+            return Type.DOUBLE;
+        } else if (column instanceof boolean[]) {
+            return Type.BOOLEAN;
+        }
+        return Type.STRING;
+    }
+
+    /**
+     * Print the column names and up to 20 rows, tab separated.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.join("\t",
+                columns.keySet())).append('\n');
+        List<String> names = new ArrayList<>(columns.keySet());
+        for (int i = 0; i < Math.min(rows, MAX_PRINTED_ROWS); i++) {
+            for (int j = 0; j < names.size(); j++) {
+                if (j > 0) {
+                    sb.append('\t');
+                }
+                Object column = columns.get(names.get(j));
+                if (column instanceof int[]) {
+                    sb.append(((int[]) column)[i]);
+                } else if (column instanceof double[]) {
+                    sb.append(String.format("%.3f", ((double[]) column)[i]));
+                } else if (column instanceof boolean[]) {
+                    sb.append(((boolean[]) column)[i]);
+                } else {
+                    Strings strings = (Strings) column;
+                    int code = strings.codes[i];
+                    sb.append(code < 0 ? null : strings.dictionary[code]);
+                }
+            }
+            sb.append('\n');
+        }
+        if (rows > MAX_PRINTED_ROWS) {
+            sb.append("... ").append(rows - MAX_PRINTED_ROWS)
+                    .append(" more rows\n");
+        }
+        return sb.toString();
+    }
+
+    private static class Strings {
+        private final String[] dictionary;
+        private final int[] codes;
+
+        Strings(String[] dictionary, int[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+    }
+
+    /**
+     * Rows of a frame grouped by the values of a key column.  Each row is
+     * given the number of its group, and the aggregations add up the values
+     * of a column by group number in one pass.  The results have a row per
+     * group, ordered by key, with the key in the first column.
+     */
+    public class Grouping {
+        private final String key;
+        private final int[] groupOf;
+        private final int groups;
+        private final Object keys;
+
+        private Grouping(String key) {
+            this.key = key;
+            Object column = column(key);
+            int[] values;
+            if (column instanceof int[]) {
+                values = (int[]) column;
+            } else if (column instanceof boolean[]) {
+                boolean[] booleans = (boolean[]) column;
+                values = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    values[i] = booleans[i] ? 1 : 0;
+                }
+            } else if (column instanceof Strings) {
+                values = ((Strings) column).codes;
+            } else {
+                throw new IllegalArgumentException(
+                        "Cannot group by DOUBLE column " + key);
+            }
+
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int v : values) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            long span = rows == 0 ? 0 : (long) max - min + 1;
+            int[] distinct;
+            groupOf = new int[rows];
+            if (span <= rows + 1024L) {
+                // Dense keys, such as pages, positions and codes: the group
+                // of each value is found in an array instead of sorting
+                int[] group = new int[(int) span];
+                for (int v : values) {
+                    group[v - min] = 1;
+                }
+                int n = 0;
+                for (int k = 0; k < span; k++) {
+                    if (group[k] != 0) {
+                        group[k] = n++;
+                    } else {
+                        group[k] = -1;
+                    }
+                }
+                distinct = new int[n];
+                for (int k = 0; k < span; k++) {
+                    if (group[k] >= 0) {
+                        distinct[group[k]] = min + k;
+                    }
+                }
+                for (int i = 0; i < rows; i++) {
+                    groupOf[i] = group[values[i] - min];
+                }
+            } else {
+                distinct = sortedDistinct(values);
+                for (int i = 0; i < rows; i++) {
+                    groupOf[i] = Arrays.binarySearch(distinct, values[i]);
+                }
+            }
+            groups = distinct.length;
+
+            if (column instanceof int[]) {
+                keys = distinct;
+            } else if (column instanceof boolean[]) {
+                boolean[] booleans = new boolean[groups];
+                for (int g = 0; g < groups; g++) {
+                    booleans[g] = distinct[g] == 1;
+                }
+                keys = booleans;
+            } else {
+                String[] dictionary = ((Strings) column).dictionary;
+                String[] strings = new String[groups];
+                for (int g = 0; g < groups; g++) {
+                    strings[g] = distinct[g] < 0 ? null
+                            : dictionary[distinct[g]];
+                }
+                keys = strings;
+            }
+        }
+
+        private int[] sortedDistinct(int[] values) {
+            int[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, n);
+        }
+
+        /**
+         * @return number of groups.
+         */
+        public int size() {
+            return groups;
+        }
+
+        /**
+         * @return number of rows of each group, in column "count".
+         */
+        public ColumnFrame count() {
+            int[] counts = counts();
+            return result().addInts("count", counts).build();
+        }
+
+        /**
+         * Mean of every INT, DOUBLE and BOOLEAN column but the key; the
+         * mean of booleans is the fraction of true.
+         *
+         * @return means by group.
+         */
+        public ColumnFrame mean() {
+            int[] counts = counts();
+            Builder builder = result();
+            for (String name : numericColumns()) {
+                double[] sums = new double[groups];
+                Object column = columns.get(name);
+                if (column instanceof int[]) {
+                    int[] values = (int[]) column;
+                    for (int i = 0; i < rows; i++) {
+                        sums[groupOf[i]] += values[i];
+                    }
+                } else if (column instanceof double[]) {
+                    double[] values = (double[]) column;
+                    for (int i = 0; i < rows; i++) {
+                        sums[groupOf[i]] += values[i];
+                    }
+                } else {
+                    boolean[] values = (boolean[]) column;
+                    for (int i = 0; i < rows; i++) {
+                        if (values[i]) {
+                            sums[groupOf[i]]++;
+                        }
+                    }
+                }
+                for (int g = 0; g < groups; g++) {
+                    sums[g] /= counts[g];
+                }
+                builder.addDoubles(name, sums);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Percentile of every INT and DOUBLE column but the key,
+         * interpolated between the closest ranks of each group.
+         *
+         * @param percent percentile, from 0 to 100.
+         * @return percentiles by group.
+         */
+        public ColumnFrame percentile(double percent) {
+            if (percent < 0 || percent > 100) {
+                throw new IllegalArgumentException(
+                        "Percentile out of range: " + percent);
+            }
+            int[] counts = counts();
+            Builder builder = result();
+            for (String name : numericColumns()) {
+                if (!(columns.get(name) instanceof boolean[])) {
+                    builder.addDoubles(name, percentiles(name, groupOf,
+                            groups, counts, percent)[0]);
+                }
+            }
+            return builder.build();
+        }
+
+        private int[] counts() {
+            int[] counts = new int[groups];
+            for (int i = 0; i < rows; i++) {
+                counts[groupOf[i]]++;
+            }
+            return counts;
+        }
+
+        private List<String> numericColumns() {
+            List<String> names = new ArrayList<>();
+            for (Map.Entry<String, Object> e : columns.entrySet()) {
+                if (!e.getKey().equals(key)
+                        && !(e.getValue() instanceof Strings)) {
+                    names.add(e.getKey());
+                }
+            }
+            return names;
+        }
+
+        /**
+         * @return builder of a result, with the key column.
+         */
+        private Builder result() {
+            Builder builder = new Builder(groups);
+            if (keys instanceof int[]) {
+                return builder.addInts(key, (int[]) keys);
+            } else if (keys instanceof boolean[]) {
+                return builder.addBooleans(key, (boolean[]) keys);
+            }
+            return builder.addStrings(key, (String[]) keys);
+        }
+    }
+
+    /**
+     * Builder of a frame, column by column.
+     */
+    public static class Builder {
+        private final int rows;
+        private final Map<String, Object> columns = new LinkedHashMap<>();
+
+        /**
+         * @param rows number of rows of every column.
+         */
+        public Builder(int rows) {
+            this.rows = rows;
+        }
+
+        public Builder addInts(String name, int[] values) {
+            return add(name, values, values.length);
+        }
+
+        public Builder addDoubles(String name, double[] values) {
+            return add(name, values, values.length);
+        }
+
+        public Builder addBooleans(String name, boolean[] values) {
+            return add(name, values, values.length);
+        }
+
+        /**
+         * Add a column of strings, dictionary encoded.
+         *
+         * @param name   column name.
+         * @param values values of the column, with nulls.
+         * @return this builder.
+         */
+        public Builder addStrings(String name, String[] values) {
+            List<String> dictionary = new ArrayList<>();
+            int[] codes = RankedPageColumns.encode(values, dictionary);
+            return addStrings(name, dictionary.toArray(new String[0]), codes);
+        }
+
+        /**
+         * Add a column of dictionary encoded strings.  Unless the dictionary
+         * is sorted, it is sorted and the codes are recoded into a new array.
+         *
+         * @param name       column name.
+         * @param dictionary distinct values of the column, without null.
+         * @param codes      dictionary code of each row, -1 for null.
+         * @return this builder.
+         */
+        public Builder addStrings(String name, String[] dictionary,
+                                  int[] codes) {
+            boolean sorted = true;
+            for (int i = 1; i < dictionary.length && sorted; i++) {
+                sorted = dictionary[i - 1].compareTo(dictionary[i]) < 0;
+            }
+            if (!sorted) {
+                Integer[] order = new Integer[dictionary.length];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> dictionary[a].compareTo(
+                        dictionary[b]));
+                String[] sortedDictionary = new String[dictionary.length];
+                int[] recode = new int[dictionary.length];
+                for (int i = 0; i < order.length; i++) {
+                    sortedDictionary[i] = dictionary[order[i]];
+                    recode[order[i]] = i;
+                }
+                int[] recoded = new int[codes.length];
+                for (int i = 0; i < codes.length; i++) {
+                    recoded[i] = codes[i] < 0 ? -1 : recode[codes[i]];
+                }
+                return add(name, new Strings(sortedDictionary, recoded),
+                        codes.length);
+            }
+            return add(name, new Strings(dictionary, codes), codes.length);
+        }
+
+        private Builder add(String name, Object column, int length) {
+            if (length != rows) {
+                throw new IllegalArgumentException("Column " + name
+                        + " has " + length + " rows instead of " + rows);
+            }
+            if (columns.putIfAbsent(name, column) != null) {
+                throw new IllegalArgumentException("Duplicate column "
+                        + name);
+            }
+            return this;
+        }
+
+        public ColumnFrame build() {
+            return new ColumnFrame(rows, new LinkedHashMap<>(columns));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ch02;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Downloads the body of a URL.  Every request of {@link UrlUtils} goes
+ * through the current fetcher, {@link UrlUtils#LIVE} unless another was set,
+ * so crawlers and scrapers can be run against a recorded
+ * {@link ResponseArchive} instead of the network.
+ */
+public interface Fetcher {
+
+    /**
+     * Download the body of the URL.
+     *
+     * @param url       to download.
+     * @param userAgent whether to present the request as a browser.
+     * @param maxBytes  maximum size of the decompressed body in bytes.
+     * @return the downloaded response.
+     * @throws IOException if the download failed or the body is too large.
+     */
+    UrlUtils.Response fetch(String url, boolean userAgent, int maxBytes)
+            throws IOException;
+
+    /**
+     * Download the body of the URL without blocking the caller.  By default
+     * the blocking {@link #fetch} runs on the executor, and is interrupted if
+     * the returned future completes first, e.g. on a timeout; non-blocking
+     * fetchers ignore the executor.
+     *
+     * @param url      to download.
+     * @param maxBytes maximum size of the decompressed body in bytes.
+     * @param executor runs the blocking download; should be bounded.
+     * @return future response; completes exceptionally if the download
+     * failed.
+     */
+    default CompletableFuture<UrlUtils.Response> fetchAsync(String url,
+            int maxBytes, Executor executor) {
+        CompletableFuture<UrlUtils.Response> result =
+                new CompletableFuture<>();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                result.complete(fetch(url, false, maxBytes));
+            } catch (IOException e) {
+                result.completeExceptionally(new UncheckedIOException(e));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return null;
+        });
+        result.whenComplete((response, e) -> {
+            if (e != null) {
+                task.cancel(true);
+            }
+        });
+        executor.execute(task);
+        return result;
+    }
+
+    /**
+     * Create the fetcher selected by the system properties, so any example
+     * can be recorded or replayed without changing its code:
+     * <ul>
+     * <li>{@code fetcher.mode}: {@code live} (default), {@code record} or
+     * {@code replay};</li>
+     * <li>{@code fetcher.archive}: archive file, {@code responses.warc} by
+     * default;</li>
+     * <li>{@code fetcher.latency}: milliseconds added to every replayed
+     * response, 0 by default;</li>
+     * <li>{@code fetcher.throughput}: bytes per second of a replayed
+     * response, 0 (unlimited) by default.</li>
+     * </ul>
+     *
+     * @return the fetcher.
+     * @throws IOException if the archive can't be opened.
+     */
+    static Fetcher fromSystemProperties() throws IOException {
+        String mode = System.getProperty("fetcher.mode", "live")
+                .toLowerCase(Locale.ROOT);
+        File archive = new File(System.getProperty("fetcher.archive",
+                "responses.warc"));
+        switch (mode) {
+            case "live":
+                return UrlUtils.LIVE;
+            case "record":
+                return new RecordingFetcher(UrlUtils.LIVE,
+                        ResponseArchive.open(archive));
+            case "replay":
+                return new ReplayFetcher(ResponseArchive.open(archive),
+                        Long.getLong("fetcher.latency", 0),
+                        Long.getLong("fetcher.throughput", 0));
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown fetcher mode " + mode);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch02;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Fetcher that downloads with another fetcher and stores every successful
+ * response in a {@link ResponseArchive}, to be replayed later by a
+ * {@link ReplayFetcher}.  Failed downloads aren't recorded, so they fail on
+ * replay too.
+ */
+public class RecordingFetcher implements Fetcher {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(RecordingFetcher.class);
+
+    private final Fetcher delegate;
+    private final ResponseArchive archive;
+
+    /**
+     * @param delegate downloads the responses, usually {@link UrlUtils#LIVE}.
+     * @param archive  where the responses are recorded.
+     */
+    public RecordingFetcher(Fetcher delegate, ResponseArchive archive) {
+        this.delegate = delegate;
+        this.archive = archive;
+    }
+
+    @Override
+    public UrlUtils.Response fetch(String url, boolean userAgent,
+                                   int maxBytes) throws IOException {
+        return record(url, delegate.fetch(url, userAgent, maxBytes));
+    }
+
+    /**
+     * Record the response of a URL downloaded by another client, such as the
+     * HTTP client of a non-blocking crawler.  Failures are logged.
+     *
+     * @param url      of the response.
+     * @param response to record.
+     * @return the response.
+     */
+    public UrlUtils.Response record(String url, UrlUtils.Response response) {
+        try {
+            archive.put(url, response);
+        } catch (IOException e) {
+            LOGGER.error("Could not record response of {}", url, e);
+        }
+        return response;
+    }
+
+    /**
+     * @return fetcher that downloads the responses.
+     */
+    public Fetcher getDelegate() {
+        return delegate;
+    }
+
+    public ResponseArchive getArchive() {
+        return archive;
+    }
+}
@@ -0,0 +1,150 @@
+package ch02;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetcher that serves the responses recorded in a {@link ResponseArchive}
+ * instead of downloading them, so crawls can be repeated offline and timed
+ * against the same pages.  Network conditions are simulated: every response
+ * is delayed by a fixed latency plus its size divided by the throughput of
+ * a single connection.  URLs that weren't recorded fail like missing pages.
+ * <p>
+ * {@link #fetch} sleeps for the simulated delay, like a blocking download;
+ * {@link #fetchAsync} completes after the delay on a timer thread, without
+ * holding a thread of the executor, like a non-blocking HTTP client.
+ * <p>
+ * The fetcher owns the archive: {@link #close()} closes it and stops the
+ * timer thread once the responses already scheduled are delivered.
+ */
+public class ReplayFetcher implements Fetcher, AutoCloseable {
+
+    private final ResponseArchive archive;
+    private final long latency;
+    private final long bytesPerSecond;
+    private final ScheduledExecutorService timer;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param archive        recorded responses, closed with the fetcher.
+     * @param latency        milliseconds added to every response.
+     * @param bytesPerSecond throughput of a response; 0 for unlimited.
+     */
+    public ReplayFetcher(ResponseArchive archive, long latency,
+                         long bytesPerSecond) {
+        this.archive = archive;
+        this.latency = latency;
+        this.bytesPerSecond = bytesPerSecond;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replay-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public UrlUtils.Response fetch(String url, boolean userAgent,
+                                   int maxBytes) throws IOException {
+        UrlUtils.Response response = replay(url, maxBytes);
+        try {
+            TimeUnit.MICROSECONDS.sleep(delay(response));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted replaying " + url, e);
+        }
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<UrlUtils.Response> fetchAsync(String url,
+            int maxBytes, Executor executor) {
+        UrlUtils.Response response;
+        try {
+            response = replay(url, maxBytes);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+        CompletableFuture<UrlUtils.Response> result =
+                new CompletableFuture<>();
+        try {
+            timer.schedule(() -> result.complete(response), delay(response),
+                    TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException(
+                    "Replay fetcher is closed", e));
+        }
+        return result;
+    }
+
+    private UrlUtils.Response replay(String url, int maxBytes)
+            throws IOException {
+        Optional<UrlUtils.Response> response = archive.get(url);
+        if (!response.isPresent()) {
+            misses.increment();
+            throw new FileNotFoundException("Not in archive: " + url);
+        }
+        hits.increment();
+        if (response.get().getBytes().length > maxBytes) {
+            throw new IOException("Response body exceeds " + maxBytes
+                    + " bytes");
+        }
+        return response.get();
+    }
+
+    /**
+     * @return simulated download time of the response in microseconds.
+     */
+    private long delay(UrlUtils.Response response) {
+        long delay = TimeUnit.MILLISECONDS.toMicros(latency);
+        if (bytesPerSecond > 0) {
+            delay += response.getBytes().length * 1_000_000L / bytesPerSecond;
+        }
+        return delay;
+    }
+
+    /**
+     * @return number of URLs served from the archive.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of URLs missing from the archive.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Close the archive and stop the timer thread.  Responses already
+     * scheduled by {@link #fetchAsync} are still delivered after their
+     * delay; later fetches fail.
+     *
+     * @throws IOException if the archive can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        // Delayed tasks still run after shutdown, unlike with shutdownNow
+        timer.shutdown();
+        archive.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayFetcher [latency=" + latency + ", bytesPerSecond="
+                + bytesPerSecond + ", hits=" + getHits() + ", misses="
+                + getMisses() + "]";
+    }
+}
@@ -0,0 +1,251 @@
+package ch02;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local archive of downloaded responses, in the layout of a WARC file: each
+ * response is a {@code resource} record whose headers give the URL and the
+ * content type, followed by the decompressed body.  The archive is
+ * append-only; recording a URL again replaces the previous response on
+ * replay.  Records are indexed by URL when the archive is opened, and bodies
+ * are read from the file on demand, so large archives aren't held in the
+ * heap.  A torn record at the end, left by a crashed recording, is
+ * truncated.  Safe to use from several threads.
+ */
+public class ResponseArchive implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ResponseArchive.class);
+
+    private static final String VERSION = "WARC/1.0";
+    private static final byte[] RECORD_END =
+            "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Position of a body in the file.
+     */
+    private static class Entry {
+        private final long offset;
+        private final int length;
+        private final String contentType;
+
+        Entry(long offset, int length, String contentType) {
+            this.offset = offset;
+            this.length = length;
+            this.contentType = contentType;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Map<String, Entry> index;
+
+    private ResponseArchive(FileChannel channel, Map<String, Entry> index) {
+        this.channel = channel;
+        this.index = index;
+    }
+
+    /**
+     * Open the archive, creating it if it doesn't exist.
+     *
+     * @param file of the archive.
+     * @return the archive.
+     * @throws IOException if the archive can't be read or opened.
+     */
+    public static ResponseArchive open(File file) throws IOException {
+        Map<String, Entry> index = new ConcurrentHashMap<>();
+        long valid = file.exists() ? load(file, index) : 0;
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() > valid) {
+            LOGGER.warn("Truncating {} bytes of torn records from {}",
+                    channel.size() - valid, file);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        LOGGER.info("Opened response archive {} with {} urls", file,
+                index.size());
+        return new ResponseArchive(channel, index);
+    }
+
+    /**
+     * Index the complete records.
+     *
+     * @return length of the valid prefix of the archive.
+     */
+    private static long load(File file, Map<String, Entry> index)
+            throws IOException {
+        long valid = 0;
+        try (CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                String version = readLine(in);
+                if (version == null) {
+                    return valid;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                String length = headers.get("Content-Length");
+                String url = headers.get("WARC-Target-URI");
+                if (line == null || !VERSION.equals(version) || length == null
+                        || url == null) {
+                    return valid;
+                }
+                long offset = in.getByteCount();
+                int size = Integer.parseInt(length);
+                if (IOUtils.skip(in, size) != size || !skipRecordEnd(in)) {
+                    return valid;
+                }
+                if ("resource".equals(headers.get("WARC-Type"))) {
+                    index.put(url, new Entry(offset, size,
+                            headers.get("Content-Type")));
+                }
+                valid = in.getByteCount();
+            }
+        } catch (NumberFormatException | EOFException e) {
+            LOGGER.warn("Corrupt record in {}", file, e);
+        }
+        return valid;
+    }
+
+    /**
+     * Read a line ending with CRLF.
+     *
+     * @return the line, or null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r'
+                ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean skipRecordEnd(InputStream in) throws IOException {
+        for (byte expected : RECORD_END) {
+            if (in.read() != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append the response of the URL.
+     *
+     * @param url      downloaded URL.
+     * @param response its response.
+     * @throws IOException if the record could not be written.
+     */
+    public void put(String url, UrlUtils.Response response)
+            throws IOException {
+        StringBuilder header = new StringBuilder(256);
+        header.append(VERSION).append("\r\n")
+                .append("WARC-Type: resource\r\n")
+                .append("WARC-Target-URI: ").append(url).append("\r\n")
+                .append("WARC-Date: ")
+                .append(Instant.now().truncatedTo(ChronoUnit.SECONDS))
+                .append("\r\n")
+                .append("WARC-Record-ID: <urn:uuid:")
+                .append(UUID.randomUUID()).append(">\r\n");
+        if (response.getContentType() != null) {
+            header.append("Content-Type: ").append(response.getContentType())
+                    .append("\r\n");
+        }
+        byte[] body = response.getBytes();
+        header.append("Content-Length: ").append(body.length)
+                .append("\r\n\r\n");
+        ByteBuffer[] record = {
+                ByteBuffer.wrap(header.toString()
+                        .getBytes(StandardCharsets.UTF_8)),
+                ByteBuffer.wrap(body),
+                ByteBuffer.wrap(RECORD_END)};
+        synchronized (this) {
+            long offset = channel.position() + record[0].remaining();
+            while (record[2].hasRemaining()) {
+                channel.write(record);
+            }
+            index.put(url, new Entry(offset, body.length,
+                    response.getContentType()));
+        }
+    }
+
+    /**
+     * Read the last recorded response of the URL.
+     *
+     * @param url downloaded URL.
+     * @return its response, if it was recorded.
+     * @throws IOException if the body could not be read.
+     */
+    public Optional<UrlUtils.Response> get(String url) throws IOException {
+        Entry entry = index.get(url);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        ByteBuffer body = ByteBuffer.allocate(entry.length);
+        while (body.hasRemaining()) {
+            int read = channel.read(body, entry.offset + body.position());
+            if (read < 0) {
+                throw new EOFException("Truncated record of " + url);
+            }
+        }
+        return Optional.of(new UrlUtils.Response(body.array(),
+                entry.contentType));
+    }
+
+    /**
+     * @param url downloaded URL.
+     * @return True if a response of the URL was recorded.
+     */
+    public boolean contains(String url) {
+        return index.containsKey(url);
+    }
+
+    /**
+     * @return number of recorded URLs.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
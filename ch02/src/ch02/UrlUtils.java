@@ -1,34 +1,336 @@
 package ch02;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class UrlUtils {
 
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(UrlUtils.class);
+
+    /**
+     * Default maximum size of a (decompressed) response body in bytes.
+     */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // Number of leading bytes searched for a <meta> charset declaration
+    private static final int SNIFF_BYTES = 1024;
+
+    private static final Pattern CHARSET = Pattern.compile(
+            "charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Fetcher that downloads from the network.
+     */
+    public static final Fetcher LIVE = (url, userAgent, maxBytes) ->
+            read(userAgent ? userAgentConnection(url) : openConnection(url),
+                    maxBytes);
+
+    private static volatile Fetcher fetcher = initialFetcher();
+
+    /**
+     * Replace the fetcher of all the requests, e.g. with a
+     * {@link ReplayFetcher} to crawl offline.  The initial fetcher is selected
+     * by the system properties of {@link Fetcher#fromSystemProperties()}.
+     *
+     * @param fetcher new fetcher.
+     */
+    public static void setFetcher(Fetcher fetcher) {
+        UrlUtils.fetcher = fetcher;
+    }
+
+    public static Fetcher getFetcher() {
+        return fetcher;
+    }
+
+    /**
+     * Select the fetcher of the system properties.  If it can't be created,
+     * e.g. because the archive is corrupt, the error is logged and every
+     * request fails with it, instead of the class failing to initialize.
+     * A fetcher that holds resources, like a {@link ReplayFetcher}, is
+     * closed when the JVM exits, as it is used until then.
+     */
+    private static Fetcher initialFetcher() {
+        try {
+            Fetcher fetcher = Fetcher.fromSystemProperties();
+            if (fetcher instanceof AutoCloseable) {
+                AutoCloseable resource = (AutoCloseable) fetcher;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        resource.close();
+                    } catch (Exception e) {
+                        LOGGER.warn("Could not close the fetcher", e);
+                    }
+                }, "fetcher-close"));
+            }
+            return fetcher;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not create the fetcher", e);
+            return (url, userAgent, maxBytes) -> {
+                throw new IOException("Could not create the fetcher", e);
+            };
+        }
+    }
+
     // Return HTML string response from specified URL
     public static String request(String url) throws IOException {
-        try (InputStream is = new URL(url).openStream()) {
-            return IOUtils.toString(is, StandardCharsets.UTF_8);
-        }
+        return fetch(url, DEFAULT_MAX_BYTES).text();
     }
 
     public static String userAgentRequest(String address) throws IOException {
-        URL url = new URL(address);
-        URLConnection con = url.openConnection();
+        return userAgentFetch(address, DEFAULT_MAX_BYTES).text();
+    }
+
+    /**
+     * Download the body of the URL, decompressing it if the server used gzip
+     * or deflate, and detect its charset.
+     *
+     * @param url      to download.
+     * @param maxBytes maximum size of the decompressed body in bytes.
+     * @return the downloaded response.
+     * @throws IOException if the download failed or the body is too large.
+     */
+    public static Response fetch(String url, int maxBytes) throws IOException {
+        return fetcher.fetch(url, false, maxBytes);
+    }
+
+    /**
+     * Same as {@link #fetch(String, int)}, but presents itself as a browser.
+     *
+     * @param address  URL to download.
+     * @param maxBytes maximum size of the decompressed body in bytes.
+     * @return the downloaded response.
+     * @throws IOException if the download failed or the body is too large.
+     */
+    public static Response userAgentFetch(String address, int maxBytes)
+            throws IOException {
+        return fetcher.fetch(address, true, maxBytes);
+    }
+
+    /**
+     * Open the decompressed body of the URL as a stream that fails once more
+     * than maxBytes bytes were read.  The caller must close the stream.
+     * Only the live fetcher streams; the body of any other fetcher, e.g. one
+     * that records or replays, is fetched whole first.
+     *
+     * @param url      to download.
+     * @param maxBytes maximum size of the decompressed body in bytes.
+     * @return stream of the response body.
+     * @throws IOException if the download failed.
+     */
+    public static InputStream openStream(String url, long maxBytes)
+            throws IOException {
+        Fetcher current = fetcher;
+        if (current != LIVE) {
+            // Byte arrays can't be quite as long as Integer.MAX_VALUE
+            int max = (int) Math.min(maxBytes, Integer.MAX_VALUE - 8);
+            return new ByteArrayInputStream(
+                    current.fetch(url, false, max).getBytes());
+        }
+        URLConnection con = openConnection(url);
+        return limit(decompress(con.getInputStream(),
+                con.getContentEncoding()), maxBytes);
+    }
+
+    /**
+     * Decode a raw response body downloaded by another HTTP client.
+     *
+     * @param body            raw (possibly compressed) body.
+     * @param contentEncoding Content-Encoding header, may be null.
+     * @param contentType     Content-Type header, may be null.
+     * @param maxBytes        maximum size of the decompressed body in bytes.
+     * @return the decoded response.
+     * @throws IOException if the body can't be decompressed or is too large.
+     */
+    public static Response decode(byte[] body, String contentEncoding,
+                                  String contentType, int maxBytes)
+            throws IOException {
+        if (contentEncoding == null || "identity".equals(contentEncoding)) {
+            if (body.length > maxBytes) {
+                throw tooLarge(maxBytes);
+            }
+            return new Response(body, contentType);
+        }
+        try (InputStream is = decompress(new ByteArrayInputStream(body),
+                contentEncoding)) {
+            return new Response(readFully(is, maxBytes), contentType);
+        }
+    }
+
+    private static URLConnection openConnection(String url)
+            throws IOException {
+        URLConnection con = new URL(url).openConnection();
+        con.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        return con;
+    }
+
+    private static URLConnection userAgentConnection(String address)
+            throws IOException {
+        URLConnection con = openConnection(address);
         con.setRequestProperty("User-Agent",
                 "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:47.0) Gecko/20100101 Firefox/47.0");
         con.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
         con.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
+        return con;
+    }
+
+    private static Response read(URLConnection con, int maxBytes)
+            throws IOException {
+        long length = con.getContentLengthLong();
+        try (InputStream is = decompress(con.getInputStream(),
+                con.getContentEncoding())) {
+            if (length > maxBytes && con.getContentEncoding() == null) {
+                throw tooLarge(maxBytes);
+            }
+            return new Response(readFully(is, maxBytes),
+                    con.getContentType());
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int maxBytes)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        // Read one byte past the limit to tell a full body from a cut one
+        long copied = IOUtils.copyLarge(
+                new BoundedInputStream(is, maxBytes + 1L), os);
+        if (copied > maxBytes) {
+            throw tooLarge(maxBytes);
+        }
+        return os.toByteArray();
+    }
 
-        try (InputStream is = con.getInputStream()) {
-            return IOUtils.toString(is, StandardCharsets.UTF_8);
+    private static InputStream decompress(InputStream is,
+                                          String contentEncoding)
+            throws IOException {
+        if (contentEncoding == null) {
+            return is;
+        }
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(is);
+            case "deflate":
+                // Servers send both zlib wrapped and raw deflate data
+                BufferedInputStream bis = new BufferedInputStream(is);
+                bis.mark(1);
+                int first = bis.read();
+                bis.reset();
+                boolean zlib = (first & 0x0F) == 8;
+                return new InflaterInputStream(bis, new Inflater(!zlib));
+            default:
+                return is;
+        }
+    }
+
+    private static InputStream limit(InputStream is, long maxBytes) {
+        return new FilterInputStream(is) {
+            private long read;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    count(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    count(n);
+                }
+                return n;
+            }
+
+            private void count(int n) throws IOException {
+                read += n;
+                if (read > maxBytes) {
+                    throw tooLarge(maxBytes);
+                }
+            }
+        };
+    }
+
+    private static IOException tooLarge(long maxBytes) {
+        return new IOException("Response body exceeds " + maxBytes + " bytes");
+    }
+
+    /**
+     * Detect the charset of an HTML body: a byte order mark, then the charset
+     * of the Content-Type header, then a {@code <meta>} declaration near the
+     * beginning of the document, falling back to UTF-8.
+     *
+     * @param body        HTML bytes.
+     * @param contentType Content-Type header, may be null.
+     * @return charset of the body.
+     */
+    public static Charset detectCharset(byte[] body, String contentType) {
+        if (body.length >= 3 && (body[0] & 0xFF) == 0xEF
+                && (body[1] & 0xFF) == 0xBB && (body[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (body.length >= 2 && (body[0] & 0xFF) == 0xFE
+                && (body[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (body.length >= 2 && (body[0] & 0xFF) == 0xFF
+                && (body[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+
+        if (contentType != null) {
+            Matcher matcher = CHARSET.matcher(contentType);
+            if (matcher.find()) {
+                Charset charset = forName(matcher.group(1));
+                if (charset != null) {
+                    return charset;
+                }
+            }
+        }
+
+        String head = new String(body, 0, Math.min(body.length, SNIFF_BYTES),
+                StandardCharsets.ISO_8859_1);
+        Matcher matcher = META_CHARSET.matcher(head);
+        if (matcher.find()) {
+            Charset charset = forName(matcher.group(1));
+            if (charset != null) {
+                return charset;
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset forName(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
@@ -39,4 +341,45 @@ public class UrlUtils {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Downloaded response body with its content type and detected charset.
+     */
+    public static class Response {
+        private final byte[] bytes;
+        private final String contentType;
+        private final Charset charset;
+
+        public Response(byte[] bytes, String contentType) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            this.charset = detectCharset(bytes, contentType);
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * Return the body decoded with its detected charset.
+         *
+         * @return body text.
+         */
+        public String text() {
+            String text = new String(bytes, charset);
+            // Drop the byte order mark, if any
+            if (!text.isEmpty() && text.charAt(0) == '\uFEFF') {
+                return text.substring(1);
+            }
+            return text;
+        }
+    }
 }
@@ -0,0 +1,343 @@
+package ch02.crawl;
+
+import ch02.Fetcher;
+import ch02.RecordingFetcher;
+import ch02.UrlUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Non-blocking web crawler built on the JDK HTTP client.  Unlike the
+ * {@link Crawler}, no thread is parked while a page downloads, so the number
+ * of concurrent downloads is bounded by the configured in-flight limit rather
+ * than by the number of cores.  Pages that take longer to load than the
+ * specified timeout (seconds) are dropped.
+ * <p>
+ * Unless {@link UrlUtils} is set to the live fetcher, pages are requested
+ * from the current {@link Fetcher} instead of the HTTP client, so crawls can
+ * be recorded and replayed.  A {@link RecordingFetcher} of the live fetcher
+ * still downloads with the HTTP client, and blocking fetchers run on a pool
+ * of the crawler bounded by the in-flight limit, not the common pool.
+ */
+public class AsyncCrawler implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(AsyncCrawler.class);
+
+    private final HttpClient client;
+    private final ExecutorService clientExecutor;
+    private final int timeout;
+    private final int maxInFlight;
+    private final ExecutorService fetchers;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // Set while a thread is in dispatch(), so downloads that complete at
+    // once don't call it again from inside and recurse
+    private final ThreadLocal<Boolean> dispatching =
+            ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Create a crawler that allows at most the specified number of concurrent
+     * downloads.
+     *
+     * @param timeout     seconds after which a download is abandoned.
+     * @param maxInFlight maximum number of concurrent downloads.
+     */
+    public AsyncCrawler(int timeout, int maxInFlight) {
+        this.clientExecutor = Executors.newCachedThreadPool(
+                daemonThreads("async-crawler-http-"));
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(timeout))
+                .executor(clientExecutor)
+                .build();
+        this.timeout = timeout;
+        this.maxInFlight = maxInFlight;
+        this.fetchers = Executors.newFixedThreadPool(maxInFlight,
+                daemonThreads("async-crawler-fetch-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threads = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Return the maximum number of concurrent downloads.
+     *
+     * @return maximum number of concurrent downloads.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Asynchronously download the HTML of the URL.  The returned future never
+     * completes exceptionally: failures and timeouts are logged and reported
+     * as an empty result, the same way {@link Crawler#crawl(String)} does.
+     *
+     * @param url to download.
+     * @return future HTML of the page; empty if it could not be crawled.
+     */
+    public CompletableFuture<Optional<String>> crawlAsync(String url) {
+        CompletableFuture<Optional<String>> result = new CompletableFuture<>();
+        pending.add(() -> send(url).whenComplete((html, e) -> {
+            inFlight.decrementAndGet();
+            dispatch();
+            result.complete(html);
+        }));
+        dispatch();
+        return result;
+    }
+
+    /**
+     * Crawl all URLs of the stream and pass each result to the consumer as it
+     * arrives.  The consumer is called from the HTTP client threads, so it
+     * must be thread safe.  Blocks until every URL has been processed.
+     *
+     * @param urls     to crawl.
+     * @param consumer called with the URL and its HTML (empty on failure).
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void crawlAll(Stream<String> urls,
+                         BiConsumer<String, Optional<String>> consumer)
+            throws InterruptedException {
+        // Bound the number of queued URLs, so large inputs aren't buffered
+        int permits = 2 * maxInFlight;
+        Semaphore queued = new Semaphore(permits);
+
+        for (String url : (Iterable<String>) urls::iterator) {
+            queued.acquire();
+            crawlAsync(url).whenComplete((html, e) -> {
+                try {
+                    consumer.accept(url, html);
+                } catch (Exception ex) {
+                    LOGGER.error("Exception processing url {}", url, ex);
+                } finally {
+                    queued.release();
+                }
+            });
+        }
+
+        queued.acquire(permits);
+        queued.release(permits);
+    }
+
+    /**
+     * Start pending downloads while there is room under the in-flight limit.
+     * A download that completes at once frees its slot from within
+     * {@code task.run()}; the nested call returns and this loop takes the
+     * next one, so a long run of immediate failures doesn't grow the stack.
+     */
+    private void dispatch() {
+        if (dispatching.get()) {
+            return;
+        }
+        dispatching.set(Boolean.TRUE);
+        try {
+            while (!pending.isEmpty()) {
+                int current = inFlight.get();
+                if (current >= maxInFlight) {
+                    return;
+                }
+                if (!inFlight.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Runnable task = pending.poll();
+                if (task == null) {
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                task.run();
+            }
+        } finally {
+            dispatching.set(Boolean.FALSE);
+        }
+    }
+
+    private CompletableFuture<Optional<String>> send(String url) {
+        Fetcher fetcher = UrlUtils.getFetcher();
+        if (fetcher instanceof RecordingFetcher && ((RecordingFetcher) fetcher)
+                .getDelegate() == UrlUtils.LIVE) {
+            RecordingFetcher recorder = (RecordingFetcher) fetcher;
+            return download(url).thenApply(response -> response.flatMap(
+                    r -> nonEmpty(url, recorder.record(url, r).text())));
+        } else if (fetcher != UrlUtils.LIVE) {
+            return fetcher.fetchAsync(url, UrlUtils.DEFAULT_MAX_BYTES,
+                    fetchers)
+                    .orTimeout(timeout, TimeUnit.SECONDS)
+                    .handle((response, e) -> e != null ? failed(url, e)
+                            : nonEmpty(url, response.text()));
+        }
+        return download(url).thenApply(response -> response.flatMap(
+                r -> nonEmpty(url, r.text())));
+    }
+
+    /**
+     * Download a page with the HTTP client.
+     *
+     * @return future decoded response, empty if the download failed.
+     */
+    private CompletableFuture<Optional<UrlUtils.Response>> download(
+            String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(timeout))
+                    .header("Accept-Encoding", "gzip, deflate")
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid url {}", url, e);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return client.sendAsync(request, info -> new CappedBodySubscriber(
+                UrlUtils.DEFAULT_MAX_BYTES))
+                .orTimeout(timeout, TimeUnit.SECONDS)
+                .handle((response, e) -> {
+                    if (e != null) {
+                        failed(url, e);
+                        return Optional.empty();
+                    }
+                    if (response.statusCode() >= 400) {
+                        LOGGER.info("Crawled status {} for {}",
+                                response.statusCode(), url);
+                        return Optional.empty();
+                    }
+                    try {
+                        return Optional.of(decode(response));
+                    } catch (IOException ex) {
+                        failed(url, ex);
+                        return Optional.empty();
+                    }
+                });
+    }
+
+    private static Optional<String> nonEmpty(String url, String html) {
+        if (!html.isEmpty()) {
+            return Optional.of(html);
+        } else {
+            LOGGER.info("Crawled empty result for {}", url);
+            return Optional.empty();
+        }
+    }
+
+    private static UrlUtils.Response decode(HttpResponse<byte[]> response)
+            throws IOException {
+        HttpHeaders headers = response.headers();
+        return UrlUtils.decode(response.body(),
+                headers.firstValue("Content-Encoding").orElse(null),
+                headers.firstValue("Content-Type").orElse(null),
+                UrlUtils.DEFAULT_MAX_BYTES);
+    }
+
+    private Optional<String> failed(String url, Throwable e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TimeoutException
+                || cause instanceof HttpTimeoutException) {
+            LOGGER.warn("Timeout exception: could not crawl {} in {} sec",
+                    url, timeout);
+        } else {
+            LOGGER.error("Unhandled exception during crawling {}", url, cause);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Stop the threads of the HTTP client and of the blocking fetchers;
+     * downloads still in flight are abandoned.  The client's connections
+     * and selector thread are released once it is unreachable, as the JDK
+     * client has no close method of its own.
+     */
+    @Override
+    public void close() throws Exception {
+        clientExecutor.shutdownNow();
+        fetchers.shutdownNow();
+    }
+
+    /**
+     * Collects the response body into a byte array, cancelling the download
+     * as soon as it exceeds the size limit.
+     */
+    private static class CappedBodySubscriber
+            implements HttpResponse.BodySubscriber<byte[]> {
+        private final int maxBytes;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final CompletableFuture<byte[]> result =
+                new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        CappedBodySubscriber(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                if (body.size() + buffer.remaining() > maxBytes) {
+                    subscription.cancel();
+                    result.completeExceptionally(new IOException(
+                            "Response body exceeds " + maxBytes + " bytes"));
+                    return;
+                }
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                body.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(body.toByteArray());
+        }
+    }
+}
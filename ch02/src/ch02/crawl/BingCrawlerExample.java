@@ -9,7 +9,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Read Bing search URLs from the specified file, download their HTML and save
@@ -21,44 +22,84 @@ public class BingCrawlerExample {
             BingCrawlerExample.class);
 
     public static void main(String[] args) throws Exception {
-        try (Crawler crawler = new Crawler(10)) {
-            try (UrlRepository urls = new UrlRepository()) {
-                crawl(crawler, urls);
+        try (AsyncCrawler crawler = new AsyncCrawler(10, 200);
+             HostScheduler scheduler = new HostScheduler(crawler, 2, 500)) {
+            try (UrlRepository urls = new UrlRepository(
+                    new UrlRepository.Config().writeBehind(1000, 100,
+                            8 * 1024 * 1024));
+                 CrawlFrontier frontier = new CrawlFrontier(
+                         "bing-frontier.db", 3, 60_000)) {
+                seed(frontier, urls);
+                crawl(scheduler, urls, frontier);
             }
         }
     }
 
     /**
-     * Crawl the URLs in the Bing search results file, download their HTML and
-     * save it to the map.
+     * Seed the frontier with the URLs in the search results file that aren't
+     * crawled yet.  A frontier resumed from a previous run is already seeded,
+     * so the input file isn't read again; only the URLs whose pages were
+     * stored after its last checkpoint are skipped.
      *
-     * @param crawler Crawler used to crawl the URLs.
-     * @param urls    URL repository.
+     * @param frontier Crawl frontier to seed.
+     * @param urls     URL repository.
      * @throws IOException
      */
-    private static void crawl(Crawler crawler, UrlRepository urls)
+    private static void seed(CrawlFrontier frontier, UrlRepository urls)
             throws IOException {
+        if (frontier.isSeeded()) {
+            frontier.skipStored(urls);
+            LOGGER.info("Resuming crawl: {}", frontier.counts());
+            return;
+        }
+
         Path path = Paths.get("data/bing-search-results.txt");
         List<String> lines = FileUtils.readLines(path.toFile(),
                 StandardCharsets.UTF_8);
 
-        lines.parallelStream()
+        List<String> all = UrlCanonicalizer.distinct(lines.stream()
                 .map(line -> line.split("\t"))
                 .map(split -> split[3])
-                .distinct()
-                .filter(url -> !urls.contains(url))
-                .forEach(url -> {
-                    try {
-                        Optional<String> html = crawler.crawl(url);
-                        if (html.isPresent()) {
-                            LOGGER.debug("Successfully crawled {}", url);
-                            urls.put(url, html.get());
-                        }
-                    } catch (Exception e) {
-                        LOGGER.error("Exception processing url {}", url, e);
-                    }
-                });
+                .collect(Collectors.toList()));
+        Set<String> crawled = urls.containsAll(all);
+        LOGGER.info("Already crawled {} of {} URLs, {}", crawled.size(),
+                all.size(), urls.getBloomFilter());
+        frontier.seed(all.stream().filter(url -> !crawled.contains(url)));
+    }
+
+    /**
+     * Crawl the URLs of the frontier, download their HTML and save it to the
+     * map.  Failed URLs are retried until the frontier gives up on them.
+     *
+     * @param scheduler Host scheduler used to crawl the URLs.
+     * @param urls      URL repository.
+     * @param frontier  Crawl frontier with the URLs to crawl.
+     * @throws InterruptedException if interrupted while crawling.
+     */
+    private static void crawl(HostScheduler scheduler, UrlRepository urls,
+                              CrawlFrontier frontier)
+            throws InterruptedException {
+        long delay;
+        while ((delay = frontier.nextRetryDelay()) >= 0) {
+            if (delay > 0) {
+                LOGGER.info("Waiting {} ms to retry failed urls", delay);
+                Thread.sleep(delay);
+            }
+            scheduler.crawlAll(frontier.ready().stream()
+                    .peek(frontier::markInFlight), (url, html) -> {
+                if (html.isPresent()) {
+                    LOGGER.debug("Successfully crawled {}", url);
+                    urls.put(url, html.get());
+                    frontier.markDone(url);
+                } else {
+                    frontier.markFailed(url);
+                }
+            });
+            // Pages must be stored before the frontier records them as done
+            urls.flush();
+            frontier.checkpoint();
+        }
 
-        LOGGER.info("Done");
+        LOGGER.info("Done: {}", frontier.counts());
     }
 }
@@ -1,96 +1,96 @@
 package ch02.crawl;
 
-import com.fasterxml.jackson.jr.ob.JSON;
 import org.apache.commons.io.FileUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Crawl the HTML for each page and extract RankedPage information.
+ * Crawl the HTML for each page and extract RankedPage information.  Extra
+ * {@link StandardFeatures} can be added by name on the command line; they are
+ * written as additional keys of the JSON lines and columns of the TSV and
+ * {@link RankedPageColumns} files.
+ * With {@code --incremental}, only the pages that changed since the last run
+ * are scanned, and the features of the others are taken from the
+ * {@link FeatureCache} saved by that run.
  */
 public class BingPageFeatureExtractor {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(
             BingPageFeatureExtractor.class);
 
+    private static final File CACHE_FILE = new File("bing-ranked-pages.cache");
+
     public static void main(String[] args) throws Exception {
+        List<String> features = new ArrayList<>(Arrays.asList(args));
+        boolean incremental = features.remove("--incremental");
+        FeatureEngine engine = new FeatureEngine(StandardFeatures.withExtras(
+                features.toArray(new String[0])));
+        FeatureCache cache = FeatureCache.open(CACHE_FILE, engine,
+                incremental);
         try (UrlRepository urls = new UrlRepository()) {
-            calculateFeatures(urls);
+            calculateFeatures(urls, engine, cache);
         }
+        cache.save(CACHE_FILE);
+        LOGGER.info("{}", cache);
     }
 
-    private static void calculateFeatures(UrlRepository urls)
+    private static void calculateFeatures(UrlRepository urls,
+                                          FeatureEngine engine,
+                                          FeatureCache cache)
             throws IOException {
         Path path = Paths.get("data/bing-search-results.txt");
         List<String> lines = FileUtils.readLines(path.toFile(),
                 StandardCharsets.UTF_8);
 
-        Stream<RankedPage> pages = lines.parallelStream().flatMap(line -> {
+        List<FeatureTable.Row> rows = lines.parallelStream().flatMap(line -> {
             String[] split = line.split("\t");
             String query = split[0];
             int searchPageNumber = Integer.parseInt(split[1]);
             int position = Integer.parseInt(split[2]);
             String url = split[3];
 
-            RankedPage page = new RankedPage(url, position, searchPageNumber);
-
-            Optional<String> html = urls.get(url);
-            if (!html.isPresent()) {
-                LOGGER.info("Page {} for query '{}' wasn't crawled",
-                        url, query);
-                return Stream.empty();
+            PageContext page = new PageContext(query, url, position,
+                    searchPageNumber);
+
+            FeatureTable.Row row;
+            OptionalLong hash = urls.getHash(url);
+            if (hash.isPresent()) {
+                // Hashes are only stored with their page
+                row = cache.extract(engine, page, hash.getAsLong(),
+                        () -> urls.get(url).orElse(""));
+            } else {
+                Optional<String> html = urls.get(url);
+                if (!html.isPresent()) {
+                    LOGGER.info("Page {} for query '{}' wasn't crawled",
+                            url, query);
+                    return Stream.empty();
+                }
+                row = cache.extract(engine, page, html.get());
             }
-
-            Document document = Jsoup.parse(html.get());
-            String title = document.title();
-            int titleLength = title.length();
-            page.setTitleLength(titleLength);
-
-            boolean queryInTitle = title.toLowerCase()
-                    .contains(query.toLowerCase());
-            page.setQueryInTitle(queryInTitle);
-
-            Element body = document.body();
-            if (body == null) {
+            if (row == null) {
                 LOGGER.info("Page {} for query '{}' has empty body",
                         url, query);
                 return Stream.empty();
             }
-            int bodyContentLength = body.text().length();
-            page.setBodyContentLength(bodyContentLength);
+            return Stream.of(row);
+        }).collect(Collectors.toList());
 
-            int numberOfLinks = document.body().select("a").size();
-            page.setNumberOfLinks(numberOfLinks);
-
-            int numberOfHeaders = document.body()
-                    .select("h1,h2,h3,h4,h5,h6").size();
-            page.setNumberOfHeaders(numberOfHeaders);
-
-            return Stream.of(page);
-        });
-
-        try (PrintWriter pw = new PrintWriter("bing-ranked-pages.json")) {
-            pages.map(p -> toJson(p)).forEach(pw::println);
-        }
-    }
-
-    private static String toJson(RankedPage page) {
-        try {
-            return JSON.std.asString(page);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        FeatureTable table = new FeatureTable(engine.getExtractors(), rows);
+        table.writeJsonLines(Paths.get("bing-ranked-pages.json"));
+        table.writeTsv(Paths.get("bing-ranked-pages.tsv"));
+        RankedPageColumns.write(Paths.get("bing-ranked-pages.cols"), table);
     }
 }
@@ -3,7 +3,6 @@ package ch02.crawl;
 import ch02.UrlUtils;
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.RandomUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -14,56 +13,181 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Extract HTML content from Bing Search.
+ * Extract HTML content from Bing Search.  Requests go through a shared
+ * {@link ScrapeThrottle}, and the result pages of a query are requested
+ * together on the scraper's executor, so several queries and pages can be
+ * in flight while the throttle keeps the overall request rate polite.
  */
-public class BingScraper {
+public class BingScraper implements SearchScraper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(
             BingScraper.class);
 
-    private final int minGracePeriod;
-    private final int maxGracePeriod;
+    private static final int PAGES = 3;
+    private static final int RESULTS_PER_PAGE = 10;
 
+    private final ScrapeThrottle throttle;
+    private final Executor executor;
+
+    /**
+     * Create a sequential scraper that waits a random grace period between
+     * requests, on average.
+     *
+     * @param minGracePeriod minimum time between requests (ms).
+     * @param maxGracePeriod maximum time between requests (ms).
+     */
     public BingScraper(int minGracePeriod, int maxGracePeriod) {
-        this.minGracePeriod = minGracePeriod;
-        this.maxGracePeriod = maxGracePeriod;
+        this(ScrapeThrottle.gracePeriod(minGracePeriod, maxGracePeriod),
+                Runnable::run);
+    }
+
+    /**
+     * @param throttle shared politeness policy of the requests.
+     * @param executor runs the requests; its number of threads bounds the
+     *                 number of concurrent requests.
+     */
+    public BingScraper(ScrapeThrottle throttle, Executor executor) {
+        this.throttle = throttle;
+        this.executor = executor;
     }
 
     public List<BingPage> crawl(String query) throws InterruptedException, IOException {
+        try {
+            return crawlAsync(query).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Could not scrape " + query, cause);
+        }
+    }
+
+    @Override
+    public String getEngine() {
+        return "bing";
+    }
+
+    @Override
+    public int getPages() {
+        return PAGES;
+    }
+
+    /**
+     * Request all the result pages of the query without waiting for one
+     * another.  Positions are numbered across the pages once they all
+     * arrived.
+     *
+     * @param query search query.
+     * @return future deduplicated results; completes exceptionally if a
+     * page could not be scraped.
+     */
+    public CompletableFuture<List<BingPage>> crawlAsync(String query) {
+        List<CompletableFuture<List<String>>> pages = new ArrayList<>();
+        for (int page = 0; page < PAGES; page++) {
+            pages.add(scrapePage(query, page));
+        }
+
+        return CompletableFuture.allOf(
+                pages.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<List<String>> links = new ArrayList<>();
+                    for (CompletableFuture<List<String>> page : pages) {
+                        links.add(page.join());
+                    }
+                    return toResults(query, links);
+                });
+    }
+
+    /**
+     * Page n starts at result 1 + 10n, Bing's page offsets.
+     */
+    @Override
+    public CompletableFuture<List<String>> scrapePage(String query,
+                                                      int page) {
         final String bingUrl = "https://www.bing.com/search";
         final String country = "us";
-        final String baseUrl = bingUrl + "?cc=" + country + "&q="
-                + query.toLowerCase().replace(' ', '+');
-        List<BingPage> results = Lists.newArrayListWithExpectedSize(35);
+        final String url = bingUrl + "?cc=" + country + "&q="
+                + query.toLowerCase().replace(' ', '+')
+                + "&first=" + (1 + page * RESULTS_PER_PAGE);
+        return CompletableFuture.supplyAsync(() -> scrape(query, page, url),
+                executor);
+    }
 
+    /**
+     * Write the deduplicated results as query, page, position and URL
+     * separated by tabs.
+     */
+    @Override
+    public void writeResults(String query, List<List<String>> pages,
+                             PrintWriter pw) {
+        for (BingPage page :
+                toResults(query, pages)) {
+            pw.print(page.getQuery());
+            pw.print('\t');
+            pw.print(page.getPage());
+            pw.print('\t');
+            pw.print(page.getPosition());
+            pw.print('\t');
+            pw.print(page.getUrl());
+            pw.println();
+        }
+    }
+
+    private static List<BingPage> toResults(String query,
+                                            List<List<String>> pages) {
+        List<BingPage> results = Lists.newArrayListWithExpectedSize(35);
         int position = 1;
-        for (int page = 0; page < 3; page++) {
-            String url = baseUrl + "&first=" + position;
+        for (int page = 0; page < pages.size(); page++) {
+            for (String link : pages.get(page)) {
+                results.add(new BingPage(query, page, position,
+                        UrlCanonicalizer.canonicalize(link)));
+                position++;
+            }
+        }
+        return deduplicate(results);
+    }
+
+    private List<String> scrape(String query, int page, String url) {
+        try {
+            throttle.acquire();
             LOGGER.info("Scraping page {} for {}, url: {}", page, query, url);
             String html = UrlUtils.request(url);
             Document document = Jsoup.parse(html);
             Elements searchResults = document.select(
                     "ol#b_results li.b_algo");
+            List<String> links = new ArrayList<>();
             for (Element element : searchResults) {
-                String link = element.select("h2 a").attr("href");
-                results.add(new BingPage(query, page, position, link));
-                position++;
+                links.add(element.select("h2 a").attr("href"));
             }
-
-            int sleepTime = RandomUtils.nextInt(minGracePeriod, maxGracePeriod);
-            LOGGER.info("Sleeping {} ms", sleepTime);
-            Thread.sleep(sleepTime);
+            return links;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
         }
-
-        return deduplicate(results);
     }
 
+    /**
+     * Remove the results whose page was found before, comparing the URLs by
+     * {@link UrlCanonicalizer#key(String)}.
+     */
     private static List<BingPage> deduplicate(List<BingPage> results) {
         Set<String> seen = new HashSet<>();
         List<BingPage> dedup = Lists.newArrayListWithExpectedSize(35);
@@ -71,11 +195,10 @@ public class BingScraper {
         int duplicatesCount = 0;
         for (BingPage page :
                 results) {
-            if (seen.contains(page.getUrl())) {
+            if (!seen.add(UrlCanonicalizer.key(page.getUrl()))) {
                 duplicatesCount++;
                 continue;
             }
-            seen.add(page.getUrl());
             dedup.add(page);
         }
 
@@ -120,30 +243,27 @@ public class BingScraper {
         }
     }
 
+    /**
+     * Scrape the queries in {@code data/keywords.txt}, four requests at a
+     * time and at most two per second overall.  Pages are recorded in
+     * {@code bing-scrape.log} as they arrive, so a rerun only requests the
+     * pages still missing; results are written in the order of the queries,
+     * and queries with a page that failed are left out until a rerun gets it.
+     */
     public static void main(String[] args)
             throws IOException, InterruptedException {
-        BingScraper bingCrawler = new BingScraper(500, 2000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        BingScraper bingCrawler = new BingScraper(
+                new ScrapeThrottle(2, 0, 500), executor);
 
         List<String> queries = FileUtils.readLines(
                 new File("data/keywords.txt"), StandardCharsets.UTF_8);
-        try (PrintWriter pw = new PrintWriter("bing-search-results.txt")) {
-            for (String query :
-                    queries) {
-                LOGGER.info("Crawling {}", query);
-                List<BingPage> crawl = bingCrawler.crawl(query);
-                for (BingPage page :
-                        crawl) {
-                    pw.print(page.getQuery());
-                    pw.print('\t');
-                    pw.print(page.getPage());
-                    pw.print('\t');
-                    pw.print(page.getPosition());
-                    pw.print('\t');
-                    pw.print(page.getUrl());
-                    pw.println();
-                }
-                pw.flush();
-            }
+        try (SearchResultStore store = new SearchResultStore(
+                Paths.get("bing-scrape.log"))) {
+            ScrapeRunner.run(bingCrawler, queries, store,
+                    Paths.get("bing-search-results.txt"));
+        } finally {
+            executor.shutdownNow();
         }
     }
 }
@@ -0,0 +1,270 @@
+package ch02.crawl;
+
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Persistent crawl frontier stored in a MapDB file next to the URL
+ * repository.  Every URL is in one of the {@link State}s; the state survives
+ * restarts, so a killed crawl resumes with the URLs it hadn't finished
+ * instead of re-reading and re-filtering its whole input.  Failed URLs are
+ * retried with exponential backoff until they run out of attempts.
+ * <p>
+ * Changes are only persisted by {@link #checkpoint()}, which the crawler
+ * calls once the pages recorded as done are stored, so a URL is never
+ * persisted as done while its page could still be lost; a crash or a close
+ * without checkpoint loses the progress since the last checkpoint.  A
+ * resumed crawl calls {@link #skipStored(UrlRepository)} so that the URLs
+ * whose pages were stored since then aren't crawled again.
+ */
+public class CrawlFrontier implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CrawlFrontier.class);
+
+    // Persisted by ordinal: only append new states
+    public enum State {
+        PENDING, IN_FLIGHT, DONE, FAILED, GIVEN_UP
+    }
+
+    // Entry layout: state ordinal, attempts, next attempt time (epoch millis)
+    private static final int STATE = 0;
+    private static final int ATTEMPTS = 1;
+    private static final int NEXT_ATTEMPT = 2;
+
+    private final DB db;
+    private final HTreeMap<String, long[]> entries;
+    private final Atomic.Boolean seeded;
+    private final int maxAttempts;
+    private final long backoff;
+
+    /**
+     * Open the frontier stored in the file, creating it if needed.  URLs that
+     * were in flight when the previous crawl stopped are pending again.
+     *
+     * @param filename    MapDB file of the frontier, e.g. frontier.db.
+     * @param maxAttempts number of attempts before a URL is given up.
+     * @param backoff     milliseconds to wait before the first retry; doubled
+     *                    for every further attempt.
+     */
+    public CrawlFrontier(String filename, int maxAttempts, long backoff) {
+        this.db = DBMaker.fileDB(filename)
+                .transactionEnable()
+                .closeOnJvmShutdown()
+                .make();
+        this.entries = db.hashMap("frontier", Serializer.STRING,
+                Serializer.LONG_ARRAY).createOrOpen();
+        this.seeded = db.atomicBoolean("seeded").createOrOpen();
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+
+        resetInFlight();
+    }
+
+    /**
+     * Return whether the frontier was already seeded with the crawl input.
+     *
+     * @return True if seeded; False otherwise.
+     */
+    public boolean isSeeded() {
+        return seeded.get();
+    }
+
+    /**
+     * Add the canonical URLs as pending, skipping other forms of the same
+     * pages and those already in the frontier, and mark the frontier as
+     * seeded.
+     *
+     * @param urls to crawl.
+     */
+    public void seed(Stream<String> urls) {
+        long now = System.currentTimeMillis();
+        Set<String> seen = new HashSet<>();
+        urls.filter(url -> seen.add(UrlCanonicalizer.key(url)))
+                .map(UrlCanonicalizer::canonicalize)
+                .forEach(url -> entries.putIfAbsent(url,
+                        entry(State.PENDING, 0, now)));
+        seeded.set(true);
+        db.commit();
+        LOGGER.info("Seeded frontier: {}", counts());
+    }
+
+    /**
+     * Mark the URLs that are ready to be crawled but whose pages are already
+     * in the repository as done, and persist it.  A crawl killed during a
+     * pass stored pages its frontier didn't record as done.
+     *
+     * @param urls repository of the crawled pages.
+     * @return number of URLs marked as done.
+     */
+    public int skipStored(UrlRepository urls) {
+        Set<String> stored = urls.containsAll(ready());
+        if (!stored.isEmpty()) {
+            stored.forEach(this::markDone);
+            db.commit();
+            LOGGER.info("Skipping {} urls already stored", stored.size());
+        }
+        return stored.size();
+    }
+
+    /**
+     * Return the URLs that can be crawled now: pending URLs and failed URLs
+     * whose backoff has expired.
+     *
+     * @return List of URLs ready to be crawled.
+     */
+    public List<String> ready() {
+        long now = System.currentTimeMillis();
+        List<String> result = new ArrayList<>();
+        entries.forEach((url, entry) -> {
+            State state = state(entry);
+            if (state == State.PENDING
+                    || (state == State.FAILED && entry[NEXT_ATTEMPT] <= now)) {
+                result.add(url);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Return the milliseconds until the next failed URL may be retried.
+     *
+     * @return delay in milliseconds; 0 if a URL is ready now; negative if
+     * there is nothing left to retry.
+     */
+    public long nextRetryDelay() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (long[] entry : entries.values()) {
+            State state = state(entry);
+            if (state == State.PENDING) {
+                return 0;
+            }
+            if (state == State.FAILED) {
+                next = Math.min(next, entry[NEXT_ATTEMPT]);
+            }
+        }
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next - now);
+    }
+
+    /**
+     * Record that the URL is being crawled.
+     *
+     * @param url being crawled.
+     */
+    public void markInFlight(String url) {
+        long[] entry = entries.get(url);
+        int attempts = entry == null ? 0 : (int) entry[ATTEMPTS];
+        entries.put(url, entry(State.IN_FLIGHT, attempts, 0));
+    }
+
+    /**
+     * Record that the URL was crawled successfully.
+     *
+     * @param url that was crawled.
+     */
+    public void markDone(String url) {
+        long[] entry = entries.get(url);
+        int attempts = entry == null ? 0 : (int) entry[ATTEMPTS];
+        entries.put(url, entry(State.DONE, attempts + 1, 0));
+    }
+
+    /**
+     * Record a failed attempt; the URL is retried after an exponentially
+     * growing delay, or given up when it ran out of attempts.
+     *
+     * @param url that could not be crawled.
+     */
+    public void markFailed(String url) {
+        long[] entry = entries.get(url);
+        int attempts = (entry == null ? 0 : (int) entry[ATTEMPTS]) + 1;
+        if (attempts >= maxAttempts) {
+            entries.put(url, entry(State.GIVEN_UP, attempts, 0));
+            LOGGER.info("Giving up {} after {} attempts", url, attempts);
+        } else {
+            long delay = backoff << Math.min(attempts - 1, 20);
+            entries.put(url, entry(State.FAILED, attempts,
+                    System.currentTimeMillis() + delay));
+        }
+    }
+
+    /**
+     * Return the number of URLs in each state.
+     *
+     * @return Map from state to number of URLs.
+     */
+    public Map<State, Long> counts() {
+        Map<State, Long> counts = new EnumMap<>(State.class);
+        for (long[] entry : entries.values()) {
+            counts.merge(state(entry), 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Persist all changes made since the last checkpoint.  Call it only once
+     * the pages of the URLs marked as done are stored.
+     */
+    public void checkpoint() {
+        try {
+            db.commit();
+        } catch (Exception e) {
+            LOGGER.error("Could not checkpoint the frontier", e);
+        }
+    }
+
+    private void resetInFlight() {
+        List<String> inFlight = new ArrayList<>();
+        entries.forEach((url, entry) -> {
+            if (state(entry) == State.IN_FLIGHT) {
+                inFlight.add(url);
+            }
+        });
+        if (!inFlight.isEmpty()) {
+            for (String url : inFlight) {
+                long[] entry = entries.get(url);
+                entries.put(url, entry(State.PENDING,
+                        (int) entry[ATTEMPTS], 0));
+            }
+            LOGGER.info("Resuming {} urls that were in flight",
+                    inFlight.size());
+            db.commit();
+        }
+    }
+
+    private static State state(long[] entry) {
+        return State.values()[(int) entry[STATE]];
+    }
+
+    private static long[] entry(State state, int attempts, long nextAttempt) {
+        return new long[]{state.ordinal(), attempts, nextAttempt};
+    }
+
+    /**
+     * Close the frontier, discarding the changes made since the last
+     * checkpoint: their pages may not be stored.
+     *
+     * @throws Exception if the database could not be closed.
+     */
+    @Override
+    public void close() throws Exception {
+        try {
+            db.rollback();
+        } finally {
+            db.close();
+        }
+    }
+}
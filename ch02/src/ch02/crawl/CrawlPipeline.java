@@ -0,0 +1,368 @@
+package ch02.crawl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Crawl the search results and extract their features as soon as each page
+ * is downloaded, instead of storing every page in the {@link UrlRepository}
+ * and reading it back in a second pass.  Three stages run concurrently:
+ * <ul>
+ * <li>fetch: the {@link HostScheduler} downloads the pages and hands them
+ * to the parse queue;</li>
+ * <li>parse: a pool of threads scans each page once with the
+ * {@link FeatureEngine} and hands the rows of its search results to the
+ * write queue;</li>
+ * <li>write: a single thread appends the rows to the JSON lines output.</li>
+ * </ul>
+ * Both queues are bounded.  When the parsers fall behind, the fetch
+ * callbacks block on the full parse queue, which holds back the scheduler
+ * from starting more downloads, so at most the queued and in-flight pages
+ * are in the heap.  Pages can optionally be stored as well; the repository's
+ * write-behind queue stores them without blocking the parsers.
+ * <p>
+ * Rows are written in the order pages finish, not in the order of the
+ * search results.  With a {@link NearDuplicateDetector}, the parsers skip
+ * pages whose text nearly matches a page parsed before, such as mirrors,
+ * at the cost of a second scan of every page for its text.
+ */
+public class CrawlPipeline {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CrawlPipeline.class);
+
+    private static final Page END_OF_PAGES = new Page(null, null);
+    private static final FeatureTable.Row END_OF_ROWS =
+            new FeatureTable.Row(null, 0, 0, null);
+
+    private final HostScheduler scheduler;
+    private final FeatureEngine engine;
+    private final int parsers;
+    private final int queueCapacity;
+    private final UrlRepository store;
+    private final NearDuplicateDetector detector;
+
+    private final LongAdder fetched = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder emptyBodies = new LongAdder();
+    private final LongAdder nearDuplicates = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder fetchWaitNanos = new LongAdder();
+
+    /**
+     * Create a pipeline.
+     *
+     * @param scheduler     used to download the pages.
+     * @param engine        computes the features of each page.
+     * @param parsers       number of parser threads.
+     * @param queueCapacity capacity of the parse and the write queues.
+     * @param store         repository where the downloaded pages are stored;
+     *                      null to only extract their features.
+     */
+    public CrawlPipeline(HostScheduler scheduler, FeatureEngine engine,
+                         int parsers, int queueCapacity, UrlRepository store) {
+        this(scheduler, engine, parsers, queueCapacity, store, null);
+    }
+
+    /**
+     * Create a pipeline that skips near duplicate pages.
+     *
+     * @param scheduler     used to download the pages.
+     * @param engine        computes the features of each page.
+     * @param parsers       number of parser threads.
+     * @param queueCapacity capacity of the parse and the write queues.
+     * @param store         repository where the downloaded pages are stored;
+     *                      null to only extract their features.
+     * @param detector      finds the pages to skip; null to keep them all.
+     */
+    public CrawlPipeline(HostScheduler scheduler, FeatureEngine engine,
+                         int parsers, int queueCapacity, UrlRepository store,
+                         NearDuplicateDetector detector) {
+        this.scheduler = scheduler;
+        this.engine = engine;
+        this.parsers = parsers;
+        this.queueCapacity = queueCapacity;
+        this.store = store;
+        this.detector = detector;
+    }
+
+    /**
+     * Crawl the URLs of the search results and write the features of their
+     * pages.  Blocks until every URL has been processed and every row
+     * written.
+     *
+     * @param results search results by URL; a URL found by several queries
+     *                or at several positions is downloaded and scanned once.
+     * @param output  JSON lines file to write.
+     * @throws IOException          if the output can't be written.
+     * @throws InterruptedException if interrupted while crawling.
+     */
+    public void run(Map<String, List<PageContext>> results, Path output)
+            throws IOException, InterruptedException {
+        BlockingQueue<Page> pages = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<FeatureTable.Row> written =
+                new ArrayBlockingQueue<>(queueCapacity);
+
+        List<Thread> parserThreads = new ArrayList<>();
+        for (int i = 0; i < parsers; i++) {
+            Thread thread = new Thread(() -> parse(results, pages, written),
+                    "pipeline-parser-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            parserThreads.add(thread);
+        }
+        Writer writer = new Writer(output, written);
+        Thread writerThread = new Thread(writer, "pipeline-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        try {
+            scheduler.crawlAll(results.keySet().stream(),
+                    (url, html) -> fetched(url, html, pages));
+        } finally {
+            for (int i = 0; i < parsers; i++) {
+                pages.put(END_OF_PAGES);
+            }
+            for (Thread thread : parserThreads) {
+                thread.join();
+            }
+            written.put(END_OF_ROWS);
+            writerThread.join();
+        }
+        if (store != null) {
+            store.flush();
+        }
+        LOGGER.info("{}", this);
+        if (writer.error != null) {
+            throw writer.error;
+        }
+    }
+
+    private void fetched(String url, Optional<String> html,
+                         BlockingQueue<Page> pages) {
+        if (!html.isPresent()) {
+            failed.increment();
+            return;
+        }
+        fetched.increment();
+        if (store != null) {
+            store.put(url, html.get());
+        }
+        long start = System.nanoTime();
+        try {
+            pages.put(new Page(url, html.get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted, dropping page {}", url);
+        }
+        fetchWaitNanos.add(System.nanoTime() - start);
+    }
+
+    private void parse(Map<String, List<PageContext>> results,
+                       BlockingQueue<Page> pages,
+                       BlockingQueue<FeatureTable.Row> written) {
+        StringBuilder text = new StringBuilder();
+        try {
+            Page page;
+            while ((page = pages.take()) != END_OF_PAGES) {
+                // A parser that dies would leave the fetch stage blocked on
+                // the full parse queue, so no page may stop it
+                try {
+                    parse(page, results.get(page.url), text, written);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Exception parsing {}", page.url, e);
+                    parseErrors.increment();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("Parser interrupted");
+        }
+    }
+
+    private void parse(Page page, List<PageContext> results,
+                       StringBuilder text,
+                       BlockingQueue<FeatureTable.Row> written)
+            throws InterruptedException {
+        if (results == null) {
+            LOGGER.warn("Page {} isn't a search result", page.url);
+            return;
+        }
+        if (detector != null && isNearDuplicate(page, text)) {
+            return;
+        }
+        // The page is scanned once for all its results
+        List<FeatureTable.Row> rows;
+        try {
+            rows = engine.extract(results, page.html);
+        } catch (Exception e) {
+            LOGGER.error("Exception extracting features of {}", page.url, e);
+            parseErrors.increment();
+            return;
+        }
+        if (rows == null) {
+            LOGGER.info("Page {} has empty body", page.url);
+            emptyBodies.increment();
+            return;
+        }
+        for (FeatureTable.Row row : rows) {
+            written.put(row);
+        }
+    }
+
+    private boolean isNearDuplicate(Page page, StringBuilder text) {
+        text.setLength(0);
+        HtmlFeatureScanner.scan(page.html, false, text);
+        Optional<String> original = detector.check(page.url, text);
+        if (original.isPresent()) {
+            LOGGER.debug("Skipping {}, near duplicate of {}", page.url,
+                    original.get());
+            nearDuplicates.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of pages downloaded.
+     */
+    public long getFetched() {
+        return fetched.sum();
+    }
+
+    /**
+     * @return number of pages that could not be downloaded.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return number of pages skipped as near duplicates.
+     */
+    public long getNearDuplicates() {
+        return nearDuplicates.sum();
+    }
+
+    /**
+     * @return number of pages or results whose parsing failed.
+     */
+    public long getParseErrors() {
+        return parseErrors.sum();
+    }
+
+    /**
+     * @return number of rows written.
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * @return total milliseconds the fetch stage waited for the parsers.
+     */
+    public long getFetchWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchWaitNanos.sum());
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlPipeline [fetched=" + getFetched() + ", failed="
+                + getFailed() + ", emptyBodies=" + emptyBodies.sum()
+                + ", nearDuplicates=" + getNearDuplicates() + ", parseErrors="
+                + getParseErrors() + ", rows=" + getRows()
+                + ", fetchWaitMillis=" + getFetchWaitMillis() + "]";
+    }
+
+    private static class Page {
+        private final String url;
+        private final String html;
+
+        Page(String url, String html) {
+            this.url = url;
+            this.html = html;
+        }
+    }
+
+    /**
+     * Write stage.  After a write error, rows are still drained so the
+     * parsers never block, and the error is rethrown by
+     * {@link #run(Map, Path)}.
+     */
+    private class Writer implements Runnable {
+        private final Path output;
+        private final BlockingQueue<FeatureTable.Row> written;
+        private IOException error;
+
+        Writer(Path output, BlockingQueue<FeatureTable.Row> written) {
+            this.output = output;
+            this.written = written;
+        }
+
+        @Override
+        public void run() {
+            OutputStream out = null;
+            try {
+                out = new BufferedOutputStream(Files.newOutputStream(output),
+                        1 << 16);
+            } catch (IOException e) {
+                error = e;
+            }
+            RankedPageWriter.RowFormat format =
+                    new RankedPageWriter.RowFormat(engine.getExtractors());
+            RankedPageWriter.LineBuffer buffer =
+                    new RankedPageWriter.LineBuffer(1024);
+            try {
+                FeatureTable.Row row;
+                while ((row = written.take()) != END_OF_ROWS) {
+                    if (out == null) {
+                        continue;
+                    }
+                    buffer.clear();
+                    format.append(row, buffer);
+                    buffer.append((byte) '\n');
+                    try {
+                        buffer.writeTo(out);
+                        rows.increment();
+                    } catch (IOException e) {
+                        error = e;
+                        closeQuietly(out);
+                        out = null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Writer interrupted");
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+            }
+        }
+
+        private void closeQuietly(OutputStream out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close {}", output, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ch02.crawl;
+
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare a fresh crawl done in two passes, as {@link CrawlerExample} and
+ * {@link PageFeatureExtractor} do, with the fused {@link CrawlPipeline},
+ * against a local stub server.  Usage:
+ * {@code CrawlPipelineBenchmark [numberOfUrls] [pageSize] [delayMillis]}.
+ */
+public class CrawlPipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numberOfUrls = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int delay = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int parsers = Runtime.getRuntime().availableProcessors();
+        FeatureEngine engine = new FeatureEngine(StandardFeatures.DEFAULT);
+
+        File dir = Files.createTempDirectory("crawl-pipeline").toFile();
+        try (StubHttpServer server = new StubHttpServer(delay, pageSize);
+             AsyncCrawler crawler = new AsyncCrawler(10, 64);
+             HostScheduler scheduler = new HostScheduler(crawler, 64, 0)) {
+            Map<String, List<PageContext>> results = new LinkedHashMap<>();
+            for (int i = 0; i < numberOfUrls; i++) {
+                String url = server.url(i);
+                results.put(url, Collections.singletonList(
+                        new PageContext("stub", url, 1 + i % 100,
+                                1 + i % 100 / 10)));
+            }
+
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            int rows = twoPasses(scheduler, engine, results, dir);
+            report("two passes", stopwatch, numberOfUrls, rows);
+
+            stopwatch = Stopwatch.createStarted();
+            CrawlPipeline pipeline = new CrawlPipeline(scheduler, engine,
+                    parsers, 4 * parsers, null);
+            pipeline.run(results, new File(dir, "pipeline.json").toPath());
+            report("pipeline", stopwatch, numberOfUrls, pipeline.getRows());
+
+            stopwatch = Stopwatch.createStarted();
+            try (UrlRepository urls = repository(dir, "pipeline-store.db")) {
+                pipeline = new CrawlPipeline(scheduler, engine, parsers,
+                        4 * parsers, urls);
+                pipeline.run(results,
+                        new File(dir, "pipeline-store.json").toPath());
+            }
+            report("pipeline, storing pages", stopwatch, numberOfUrls,
+                    pipeline.getRows());
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Store all pages, then read them back and extract their features.
+     *
+     * @return number of rows written.
+     */
+    private static int twoPasses(HostScheduler scheduler,
+                                  FeatureEngine engine,
+                                  Map<String, List<PageContext>> results,
+                                  File dir) throws Exception {
+        try (UrlRepository urls = repository(dir, "two-passes.db")) {
+            scheduler.crawlAll(results.keySet().stream(), (url, html) ->
+                    html.ifPresent(h -> urls.put(url, h)));
+            urls.flush();
+
+            Path output = new File(dir, "two-passes.json").toPath();
+            List<FeatureTable.Row> rows = new ArrayList<>();
+            results.values().parallelStream()
+                    .flatMap(List::stream)
+                    .forEach(page -> urls.get(page.getUrl()).ifPresent(html -> {
+                        FeatureTable.Row row = engine.extract(page, html);
+                        if (row != null) {
+                            synchronized (rows) {
+                                rows.add(row);
+                            }
+                        }
+                    }));
+            new FeatureTable(engine.getExtractors(), rows)
+                    .writeJsonLines(output);
+            return rows.size();
+        }
+    }
+
+    private static UrlRepository repository(File dir, String name) {
+        return new UrlRepository(new UrlRepository.Config()
+                .path(new File(dir, name).getPath())
+                .writeBehind(1000, 100, 8 * 1024 * 1024));
+    }
+
+    private static void report(String name, Stopwatch stopwatch,
+                               int numberOfUrls, long rows) {
+        long millis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        System.out.printf("%-24s %6d pages in %7d ms, %8.1f pages/s, "
+                        + "%d rows%n", name, numberOfUrls, millis,
+                1000.0 * numberOfUrls / millis, rows);
+    }
+}
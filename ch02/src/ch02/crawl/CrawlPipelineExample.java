@@ -0,0 +1,62 @@
+package ch02.crawl;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Crawl the search results and extract their features in one pass with the
+ * {@link CrawlPipeline}, writing {@code ranked-pages.json} without the
+ * separate {@link CrawlerExample} and {@link PageFeatureExtractor} runs.
+ * With {@code --store}, the pages are also saved to the URL repository;
+ * with {@code --skip-near-duplicates}, pages with nearly the same text as
+ * another page are skipped.  Other arguments are extra
+ * {@link StandardFeatures}.  The results of different forms of a URL share
+ * one download.
+ */
+public class CrawlPipelineExample {
+
+    public static void main(String[] args) throws Exception {
+        List<String> features = new ArrayList<>(Arrays.asList(args));
+        boolean store = features.remove("--store");
+        NearDuplicateDetector detector =
+                features.remove("--skip-near-duplicates")
+                        ? new NearDuplicateDetector(3, 50) : null;
+        FeatureEngine engine = new FeatureEngine(StandardFeatures.withExtras(
+                features.toArray(new String[0])));
+
+        Map<String, List<PageContext>> results = new LinkedHashMap<>();
+        Map<String, String> downloads = new HashMap<>();
+        for (String line : FileUtils.readLines(
+                new File("data/search-results.txt"), StandardCharsets.UTF_8)) {
+            String[] split = line.split("\t");
+            int position = Integer.parseInt(split[1]);
+            String url = "http://" + split[2];
+            String download = downloads.computeIfAbsent(
+                    UrlCanonicalizer.key(url),
+                    key -> UrlCanonicalizer.canonicalize(url));
+            results.computeIfAbsent(download, u -> new ArrayList<>()).add(
+                    new PageContext(split[0], url, position,
+                            1 + (position - 1) / 10));
+        }
+
+        int parsers = Runtime.getRuntime().availableProcessors();
+        try (AsyncCrawler crawler = new AsyncCrawler(10, 200);
+             HostScheduler scheduler = new HostScheduler(crawler, 2, 500);
+             UrlRepository urls = store ? new UrlRepository(
+                     new UrlRepository.Config().writeBehind(1000, 100,
+                             8 * 1024 * 1024)) : null) {
+            CrawlPipeline pipeline = new CrawlPipeline(scheduler, engine,
+                    parsers, 4 * parsers, urls, detector);
+            pipeline.run(results, Paths.get("ranked-pages.json"));
+        }
+    }
+}
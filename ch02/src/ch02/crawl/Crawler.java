@@ -5,8 +5,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Web crawler used to retrieve URLs and saving their HTML code.  It will drop
@@ -17,18 +19,41 @@ public class Crawler implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Crawler.class);
 
     private final ExecutorService executor;
+    private final Semaphore permits;
     private final int timeout;
 
     public Crawler(int timeout) {
         this.executor = Executors.newFixedThreadPool(
                 Runtime.getRuntime().availableProcessors());
+        this.permits = null;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Create a crawler that runs every download on its own thread, with at
+     * most maxConcurrency downloads running at the same time.  Virtual threads
+     * are used when the JVM supports them (Java 21+), otherwise a cached pool
+     * of platform threads.
+     *
+     * @param timeout        seconds after which a download is abandoned.
+     * @param maxConcurrency maximum number of concurrent downloads.
+     */
+    public Crawler(int timeout, int maxConcurrency) {
+        this.executor = newThreadPerTaskExecutor();
+        this.permits = new Semaphore(maxConcurrency);
         this.timeout = timeout;
     }
 
     public Optional<String> crawl(String url) throws IOException {
         try {
-            Future<String> future = executor.submit(() -> UrlUtils.request(url));
-            String result = future.get(timeout, TimeUnit.SECONDS);
+            Future<String> future = submit(url);
+            String result;
+            try {
+                result = future.get(timeout, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                throw e;
+            }
             if (!result.isEmpty()) {
                 return Optional.of(result);
             } else {
@@ -45,8 +70,104 @@ public class Crawler implements AutoCloseable {
         }
     }
 
+    private Future<String> submit(String url) throws InterruptedException {
+        if (permits == null) {
+            return executor.submit(() -> UrlUtils.request(url));
+        }
+
+        // The permit is held until the download itself ends, so abandoned
+        // downloads still count towards the concurrency limit
+        permits.acquire();
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        try {
+            Future<String> future = executor.submit(() -> {
+                started.set(true);
+                try {
+                    return UrlUtils.request(url);
+                } finally {
+                    release.run();
+                }
+            });
+            return new ReleasingFuture(future, started, release);
+        } catch (RejectedExecutionException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.debug("Virtual threads not supported, using platform "
+                    + "threads");
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
     @Override
     public void close() throws Exception {
         executor.shutdown();
     }
+
+    /**
+     * Future that releases the concurrency permit when it is cancelled before
+     * the download started.
+     */
+    private static class ReleasingFuture implements Future<String> {
+        private final Future<String> delegate;
+        private final AtomicBoolean started;
+        private final Runnable release;
+
+        ReleasingFuture(Future<String> delegate, AtomicBoolean started,
+                        Runnable release) {
+            this.delegate = delegate;
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = delegate.cancel(mayInterruptIfRunning);
+            if (cancelled && !started.get()) {
+                // Never started tasks don't reach their finally block
+                release.run();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public String get() throws InterruptedException, ExecutionException {
+            return delegate.get();
+        }
+
+        @Override
+        public String get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            return delegate.get(timeout, unit);
+        }
+    }
 }
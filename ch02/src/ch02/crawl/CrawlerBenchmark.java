@@ -0,0 +1,121 @@
+package ch02.crawl;
+
+import com.google.common.base.Stopwatch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compare the crawlers against a local stub server, so concurrency and
+ * timeout behaviour can be measured offline.  Every tenth URL asks the server
+ * to respond slower than the crawler timeout.  Usage:
+ * {@code CrawlerBenchmark [numberOfUrls] [delayMillis]}, e.g. 10000 URLs.
+ */
+public class CrawlerBenchmark {
+
+    private static final int TIMEOUT = 2;
+
+    public static void main(String[] args) throws Exception {
+        int numberOfUrls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int delay = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        try (StubHttpServer server = new StubHttpServer(delay, 20_000)) {
+            List<String> urls = IntStream.range(0, numberOfUrls)
+                    .mapToObj(i -> i % 10 == 9
+                            ? server.url(i) + "?delay=" + (TIMEOUT + 1) * 1000
+                            : server.url(i))
+                    .collect(Collectors.toList());
+
+            try (Crawler crawler = new Crawler(TIMEOUT)) {
+                run("blocking", server, () -> {
+                    AtomicInteger crawled = new AtomicInteger();
+                    urls.parallelStream().forEach(url -> {
+                        try {
+                            count(crawled, crawler.crawl(url));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    return crawled.get();
+                });
+            }
+
+            for (int maxConcurrency : new int[]{16, 64, 256}) {
+                try (Crawler crawler = new Crawler(TIMEOUT, maxConcurrency)) {
+                    run("thread per task, max " + maxConcurrency, server,
+                            () -> crawlBlocking(crawler, urls,
+                                    maxConcurrency));
+                }
+            }
+
+            for (int maxInFlight : new int[]{16, 64, 256}) {
+                try (AsyncCrawler crawler = new AsyncCrawler(TIMEOUT,
+                        maxInFlight)) {
+                    run("async, max in-flight " + maxInFlight, server, () -> {
+                        AtomicInteger crawled = new AtomicInteger();
+                        crawler.crawlAll(urls.stream(),
+                                (url, html) -> count(crawled, html));
+                        return crawled.get();
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Call the blocking crawler from as many threads as it may download
+     * concurrently, so the crawler's own limit is what's being measured.
+     */
+    private static int crawlBlocking(Crawler crawler, List<String> urls,
+                                     int threads) throws Exception {
+        AtomicInteger crawled = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        try {
+            for (String url : urls) {
+                callers.execute(() -> {
+                    try {
+                        count(crawled, crawler.crawl(url));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } finally {
+            callers.shutdown();
+            callers.awaitTermination(1, TimeUnit.HOURS);
+        }
+        return crawled.get();
+    }
+
+    private static void count(AtomicInteger crawled, Optional<String> html) {
+        if (html.isPresent()) {
+            crawled.incrementAndGet();
+        }
+    }
+
+    private static void run(String name, StubHttpServer server,
+                            Benchmark benchmark) throws Exception {
+        int requestsBefore = server.getRequests();
+        server.resetMaxActive();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int crawled = benchmark.run();
+        long millis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        int requests = server.getRequests() - requestsBefore;
+        System.out.printf("%-28s crawled %6d of %6d in %7d ms, "
+                        + "%8.1f pages/s, max concurrent %d%n",
+                name, crawled, requests, millis, 1000.0 * crawled / millis,
+                server.getMaxActive());
+    }
+
+    private interface Benchmark {
+        int run() throws Exception;
+    }
+}
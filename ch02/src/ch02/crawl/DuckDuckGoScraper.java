@@ -3,7 +3,6 @@ package ch02.crawl;
 import ch02.UrlUtils;
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.RandomUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -14,33 +13,161 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Extract HTML content from DuckDuckGo Search.
+ * Extract HTML content from DuckDuckGo Search.  Requests go through a
+ * {@link ScrapeThrottle}, which can be shared with the {@link BingScraper}.
  */
-public class DuckDuckGoScraper {
+public class DuckDuckGoScraper implements SearchScraper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(
             DuckDuckGoScraper.class);
 
-    public List<DuckDuckGoPage> crawl(String query) throws IOException {
+    private final ScrapeThrottle throttle;
+    private final Executor executor;
+
+    /**
+     * Create a sequential scraper that waits 1 to 3 seconds between
+     * requests, on average.
+     */
+    public DuckDuckGoScraper() {
+        this(ScrapeThrottle.gracePeriod(1000, 3000), Runnable::run);
+    }
+
+    /**
+     * @param throttle shared politeness policy of the requests.
+     * @param executor runs the requests of {@link #crawlAsync(String)}; its
+     *                 number of threads bounds the number of concurrent
+     *                 requests.
+     */
+    public DuckDuckGoScraper(ScrapeThrottle throttle, Executor executor) {
+        this.throttle = throttle;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getEngine() {
+        return "duckduckgo";
+    }
+
+    /**
+     * @return 1, DuckDuckGo Lite results are scraped from the first page.
+     */
+    @Override
+    public int getPages() {
+        return 1;
+    }
+
+    /**
+     * @param query search query.
+     * @return future results; completes exceptionally if the query could
+     * not be scraped.
+     */
+    public CompletableFuture<List<DuckDuckGoPage>> crawlAsync(String query) {
+        return scrapePage(query, 0).thenApply(links -> toResults(query,
+                links));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> scrapePage(String query,
+                                                      int page) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return scrape(query);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public List<DuckDuckGoPage> crawl(String query)
+            throws IOException, InterruptedException {
+        return toResults(query, scrape(query));
+    }
+
+    private List<String> scrape(String query)
+            throws IOException, InterruptedException {
+        throttle.acquire();
         final String url = "https://duckduckgo.com/lite?q="
                 + query.toLowerCase().replace(' ', '+');
 
-        List<DuckDuckGoPage> results = Lists.newArrayListWithCapacity(30);
         String html = UrlUtils.userAgentRequest(url);
         Document document = Jsoup.parse(html);
-        Elements links = document.select(
+        Elements elements = document.select(
                 "tr:not(.result-sponsored) a.result-link");
+        List<String> links = Lists.newArrayListWithCapacity(30);
+        for (Element link : elements) {
+            links.add(link.attr("href"));
+        }
+        return links;
+    }
+
+    /**
+     * Write the deduplicated results as query, position and URL separated
+     * by tabs.
+     */
+    @Override
+    public void writeResults(String query, List<List<String>> pages,
+                             PrintWriter pw) {
+        for (DuckDuckGoPage page :
+                toResults(query, pages.get(0))) {
+            pw.print(page.getQuery());
+            pw.print('\t');
+            pw.print(page.getPosition());
+            pw.print('\t');
+            pw.print(page.getUrl());
+            pw.println();
+        }
+    }
+
+    private static List<DuckDuckGoPage> toResults(String query,
+                                                  List<String> links) {
+        List<DuckDuckGoPage> results =
+                Lists.newArrayListWithCapacity(links.size());
         int position = 1;
-        for (Element link : links) {
+        for (String link : links) {
             results.add(new DuckDuckGoPage(query, position,
-                    link.attr("href")));
+                    UrlCanonicalizer.canonicalize(link)));
             position++;
         }
-        return results;
+        return deduplicate(results);
+    }
+
+    /**
+     * Remove the results whose page was found before, comparing the URLs by
+     * {@link UrlCanonicalizer#key(String)}.
+     */
+    private static List<DuckDuckGoPage> deduplicate(
+            List<DuckDuckGoPage> results) {
+        Set<String> seen = new HashSet<>();
+        List<DuckDuckGoPage> dedup =
+                Lists.newArrayListWithCapacity(results.size());
+
+        int duplicatesCount = 0;
+        for (DuckDuckGoPage page : results) {
+            if (!seen.add(UrlCanonicalizer.key(page.getUrl()))) {
+                duplicatesCount++;
+                continue;
+            }
+            dedup.add(page);
+        }
+
+        LOGGER.info("Removed {} duplicates", duplicatesCount);
+        return dedup;
     }
 
     public static class DuckDuckGoPage {
@@ -73,32 +200,27 @@ public class DuckDuckGoScraper {
         }
     }
 
+    /**
+     * Scrape the queries in {@code data/keywords.txt}, two requests at a
+     * time and at most one every second overall.  Pages are recorded in
+     * {@code duckduckgo-scrape.log} as they arrive, so a rerun only requests
+     * the queries still missing; results are written in the order of the
+     * queries.
+     */
     public static void main(String[] args)
             throws IOException, InterruptedException {
-        DuckDuckGoScraper scraper = new DuckDuckGoScraper();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        DuckDuckGoScraper scraper = new DuckDuckGoScraper(
+                new ScrapeThrottle(1, 0, 1000), executor);
 
         List<String> queries = FileUtils.readLines(
                 new File("data/keywords.txt"), StandardCharsets.UTF_8);
-        try (PrintWriter pw = new PrintWriter("duckduckgo-search-results.txt")) {
-            for (String query :
-                    queries) {
-                LOGGER.info("Crawling {}", query);
-                List<DuckDuckGoPage> crawl = scraper.crawl(query);
-                for (DuckDuckGoPage page :
-                        crawl) {
-                    pw.print(page.getQuery());
-                    pw.print('\t');
-                    pw.print(page.getPosition());
-                    pw.print('\t');
-                    pw.print(page.getUrl());
-                    pw.println();
-                }
-                pw.flush();
-
-                int sleepTime = RandomUtils.nextInt(1000, 3000);
-                LOGGER.info("Sleeping {} ms", sleepTime);
-                Thread.sleep(sleepTime);
-            }
+        try (SearchResultStore store = new SearchResultStore(
+                Paths.get("duckduckgo-scrape.log"))) {
+            ScrapeRunner.run(scraper, queries, store,
+                    Paths.get("duckduckgo-search-results.txt"));
+        } finally {
+            executor.shutdownNow();
         }
     }
 }
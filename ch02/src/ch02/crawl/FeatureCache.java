@@ -0,0 +1,230 @@
+package ch02.crawl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Features computed by a previous run, keyed by search result, with the
+ * {@link UrlRepository#contentHash(String)} of the HTML they were computed
+ * from.  A result whose page hasn't changed since, and whose features were
+ * computed by the same version of the {@link FeatureEngine}, reuses its row
+ * instead of scanning the page again; given the hash stored with the page,
+ * the page isn't even loaded.
+ * Saving keeps only the results used in this run, so results no longer in
+ * the search results are dropped.  Safe to use from several threads.
+ */
+public class FeatureCache {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(FeatureCache.class);
+
+    // Strings are length prefixed UTF-8, unlike the "FEAT" files of
+    // writeUTF, which were limited to 64k bytes
+    private static final int MAGIC = 0x46454132; // "FEA2"
+
+    /**
+     * A cached result: the hash of its page and its row, null if the page
+     * has no body.
+     */
+    private static class Entry {
+        private final long hash;
+        private final FeatureTable.Row row;
+
+        Entry(long hash, FeatureTable.Row row) {
+            this.hash = hash;
+            this.row = row;
+        }
+    }
+
+    private final long version;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private FeatureCache(long version, Map<String, Entry> previous) {
+        this.version = version;
+        this.previous = previous;
+    }
+
+    /**
+     * Create a cache for the engine.  Without loading, all the pages are
+     * scanned, but the cache can still be saved for the next incremental
+     * run.
+     *
+     * @param file   where the cache is saved.
+     * @param engine engine computing the features.
+     * @param load   whether to load the features saved in the file, if it
+     *               exists and was saved by the same version of the engine.
+     * @return the cache.
+     */
+    public static FeatureCache open(File file, FeatureEngine engine,
+                                    boolean load) {
+        long version = engine.getVersion();
+        Map<String, Entry> previous = new ConcurrentHashMap<>();
+        if (load && file.exists()) {
+            try {
+                load(file, version, previous);
+            } catch (IOException e) {
+                LOGGER.warn("Could not load feature cache {}", file, e);
+                previous.clear();
+            }
+            LOGGER.info("Loaded {} cached results from {}", previous.size(),
+                    file);
+        }
+        return new FeatureCache(version, previous);
+    }
+
+    private static void load(File file, long version,
+                             Map<String, Entry> entries) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readLong() != version) {
+                LOGGER.info("Feature cache {} is from another version", file);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = readString(in);
+                long hash = in.readLong();
+                FeatureTable.Row row = null;
+                if (in.readBoolean()) {
+                    String url = readString(in);
+                    int position = in.readInt();
+                    int page = in.readInt();
+                    int[] values = new int[in.readInt()];
+                    for (int v = 0; v < values.length; v++) {
+                        values[v] = in.readInt();
+                    }
+                    row = new FeatureTable.Row(url, position, page, values);
+                }
+                entries.put(key, new Entry(hash, row));
+            }
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Save the results used in this run, replacing the previous file
+     * atomically.
+     *
+     * @param file where to save the cache.
+     * @throws IOException if the cache could not be written.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(version);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeLong(e.getValue().hash);
+                FeatureTable.Row row = e.getValue().row;
+                out.writeBoolean(row != null);
+                if (row != null) {
+                    writeString(out, row.getUrl());
+                    out.writeInt(row.getPosition());
+                    out.writeInt(row.getPage());
+                    out.writeInt(row.getValues().length);
+                    for (int value : row.getValues()) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reuse the cached features of the result if its page is unchanged,
+     * otherwise compute them with the engine.
+     *
+     * @param engine engine the cache was opened for.
+     * @param page   search result.
+     * @param html   crawled page of the result.
+     * @return the row of features, or null if the page has no body.
+     */
+    public FeatureTable.Row extract(FeatureEngine engine, PageContext page,
+                                    String html) {
+        return extract(engine, page, UrlRepository.contentHash(html),
+                () -> html);
+    }
+
+    /**
+     * Reuse the cached features of the result if the hash of its page is
+     * unchanged, otherwise load the page and compute them with the engine.
+     *
+     * @param engine engine the cache was opened for.
+     * @param page   search result.
+     * @param hash   {@link UrlRepository#contentHash(String)} of the page.
+     * @param html   loads the crawled page of the result, only on a miss.
+     * @return the row of features, or null if the page has no body.
+     */
+    public FeatureTable.Row extract(FeatureEngine engine, PageContext page,
+                                    long hash, Supplier<String> html) {
+        String key = page.getQuery() + '\t' + page.getPosition() + '\t'
+                + page.getUrl();
+        Entry entry = previous.get(key);
+        if (entry != null && entry.hash == hash) {
+            hits.increment();
+        } else {
+            misses.increment();
+            entry = new Entry(hash, engine.extract(page, html.get()));
+        }
+        current.put(key, entry);
+        return entry.row;
+    }
+
+    /**
+     * @return number of results whose features were reused.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of results whose page was scanned.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureCache [hits=" + getHits() + ", misses=" + getMisses()
+                + "]";
+    }
+}
@@ -0,0 +1,121 @@
+package ch02.crawl;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compute a list of features for each page with a single scan.  The engine
+ * collects the union of the artifacts its extractors require, so the body
+ * text and the element counts are only built when some feature reads them,
+ * and are shared by all the features that do.  Safe to use from several
+ * threads.
+ */
+public class FeatureEngine {
+
+    private static final ThreadLocal<StringBuilder> TEXT =
+            ThreadLocal.withInitial(StringBuilder::new);
+
+    private final List<FeatureExtractor> extractors;
+    private final Set<PageArtifact> requirements;
+
+    /**
+     * @param extractors features to compute, in output order.
+     * @throws IllegalArgumentException if two features have the same name.
+     */
+    public FeatureEngine(List<FeatureExtractor> extractors) {
+        this.extractors = Collections.unmodifiableList(
+                new ArrayList<>(extractors));
+        this.requirements = EnumSet.noneOf(PageArtifact.class);
+        for (FeatureExtractor extractor : extractors) {
+            requirements.addAll(extractor.getRequirements());
+        }
+        if (extractors.stream().map(FeatureExtractor::getName).distinct()
+                .count() != extractors.size()) {
+            throw new IllegalArgumentException(
+                    "Duplicate feature names in " + extractors);
+        }
+    }
+
+    public List<FeatureExtractor> getExtractors() {
+        return extractors;
+    }
+
+    /**
+     * @return version of the computed features, combining the scanner
+     * version with the name, type and version of each feature in order.
+     */
+    public long getVersion() {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putInt(HtmlFeatureScanner.VERSION);
+        for (FeatureExtractor extractor : extractors) {
+            hasher.putString(extractor.getName(), StandardCharsets.UTF_8)
+                    .putBoolean(extractor.isFlag())
+                    .putInt(extractor.getVersion());
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * @return artifacts required by any of the features.
+     */
+    public Set<PageArtifact> getRequirements() {
+        return Collections.unmodifiableSet(requirements);
+    }
+
+    /**
+     * Scan the page and compute all the features.
+     *
+     * @param page search result.
+     * @param html crawled page of the result.
+     * @return the row of features, or null if the page has no body.
+     */
+    public FeatureTable.Row extract(PageContext page, String html) {
+        List<FeatureTable.Row> rows = extract(
+                Collections.singletonList(page), html);
+        return rows == null ? null : rows.get(0);
+    }
+
+    /**
+     * Scan a page found by several search results once, and compute the
+     * features of each result from that scan; only the features that read
+     * the query or the position differ between the rows.
+     *
+     * @param pages search results of the same page.
+     * @param html  crawled page of the results.
+     * @return a row of features per result, in order, or null if the page
+     * has no body.
+     */
+    public List<FeatureTable.Row> extract(List<PageContext> pages,
+                                          String html) {
+        StringBuilder text = null;
+        if (requirements.contains(PageArtifact.TEXT)) {
+            text = TEXT.get();
+            text.setLength(0);
+        }
+        PageFeatures features = HtmlFeatureScanner.scan(html,
+                requirements.contains(PageArtifact.ELEMENT_COUNTS), text);
+        if (!features.hasBody()) {
+            return null;
+        }
+        List<FeatureTable.Row> rows = new ArrayList<>(pages.size());
+        for (PageContext page : pages) {
+            page.setFeatures(features);
+            page.setText(text);
+            int[] values = new int[extractors.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = extractors.get(i).extract(page);
+            }
+            page.setText(null);
+            rows.add(new FeatureTable.Row(page.getUrl(), page.getPosition(),
+                    page.getPage(), values));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,121 @@
+package ch02.crawl;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A feature of a ranked page.  Each extractor declares the artifacts of the
+ * page it needs, and the {@link FeatureEngine} parses the page once and
+ * shares them between all its extractors.
+ */
+public interface FeatureExtractor {
+
+    /**
+     * @return name of the feature, used as the column name in the output.
+     */
+    String getName();
+
+    /**
+     * @return artifacts of the page the extractor reads.
+     */
+    Set<PageArtifact> getRequirements();
+
+    /**
+     * @return True if the feature is a flag, extracted as 0 or 1.
+     */
+    boolean isFlag();
+
+    /**
+     * @return version of the feature; increment it when the way the feature
+     * is computed changes, so cached values are recomputed.
+     */
+    default int getVersion() {
+        return 1;
+    }
+
+    /**
+     * @param page parsed page with the artifacts the extractor requires.
+     * @return value of the feature.
+     */
+    int extract(PageContext page);
+
+    /**
+     * Create an integer feature.
+     *
+     * @param name         name of the feature.
+     * @param requirements artifacts the feature reads.
+     * @param function     computes the feature.
+     * @return the extractor.
+     */
+    static FeatureExtractor of(String name, Set<PageArtifact> requirements,
+                               ToIntFunction<PageContext> function) {
+        Set<PageArtifact> required = EnumSet.copyOf(requirements);
+        return new FeatureExtractor() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Set<PageArtifact> getRequirements() {
+                return required;
+            }
+
+            @Override
+            public boolean isFlag() {
+                return false;
+            }
+
+            @Override
+            public int extract(PageContext page) {
+                return function.applyAsInt(page);
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Create a boolean feature.
+     *
+     * @param name         name of the feature.
+     * @param requirements artifacts the feature reads.
+     * @param predicate    computes the feature.
+     * @return the extractor.
+     */
+    static FeatureExtractor flag(String name, Set<PageArtifact> requirements,
+                                 Predicate<PageContext> predicate) {
+        Set<PageArtifact> required = EnumSet.copyOf(requirements);
+        return new FeatureExtractor() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Set<PageArtifact> getRequirements() {
+                return required;
+            }
+
+            @Override
+            public boolean isFlag() {
+                return true;
+            }
+
+            @Override
+            public int extract(PageContext page) {
+                return predicate.test(page) ? 1 : 0;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+}
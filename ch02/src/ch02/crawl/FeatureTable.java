@@ -0,0 +1,181 @@
+package ch02.crawl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Features of ranked pages stored by column: the search result columns
+ * {@code url}, {@code position} and {@code page}, and one int column per
+ * feature, with flags stored as 0 or 1.
+ */
+public class FeatureTable {
+
+    /**
+     * Features of one page, as computed by {@link FeatureEngine}.
+     */
+    public static class Row {
+        private final String url;
+        private final int position;
+        private final int page;
+        private final int[] values;
+
+        Row(String url, int position, int page, int[] values) {
+            this.url = url;
+            this.position = position;
+            this.page = page;
+            this.values = values;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        /**
+         * @return feature values in the order of the engine's extractors.
+         */
+        public int[] getValues() {
+            return values;
+        }
+    }
+
+    private final List<FeatureExtractor> features;
+    private final String[] urls;
+    private final int[] positions;
+    private final int[] pages;
+    private final int[][] columns;
+
+    /**
+     * @param features features of the rows, in order.
+     * @param rows     rows computed by an engine with these features.
+     */
+    public FeatureTable(List<FeatureExtractor> features, List<Row> rows) {
+        this.features = features;
+        int size = rows.size();
+        urls = new String[size];
+        positions = new int[size];
+        pages = new int[size];
+        columns = new int[features.size()][size];
+        for (int r = 0; r < size; r++) {
+            Row row = rows.get(r);
+            urls[r] = row.url;
+            positions[r] = row.position;
+            pages[r] = row.page;
+            for (int c = 0; c < columns.length; c++) {
+                columns[c][r] = row.values[c];
+            }
+        }
+    }
+
+    public int size() {
+        return urls.length;
+    }
+
+    public List<FeatureExtractor> getFeatures() {
+        return features;
+    }
+
+    public String getUrl(int row) {
+        return urls[row];
+    }
+
+    public int getPosition(int row) {
+        return positions[row];
+    }
+
+    public int getPage(int row) {
+        return pages[row];
+    }
+
+    /**
+     * @param column index of a feature.
+     * @param row    index of a row.
+     * @return value of the feature for the row.
+     */
+    public int getValue(int column, int row) {
+        return columns[column][row];
+    }
+
+    /**
+     * @param name name of a feature.
+     * @return values of the feature for all the rows; not a copy.
+     * @throws IllegalArgumentException if there is no such feature.
+     */
+    public int[] getColumn(String name) {
+        for (int c = 0; c < columns.length; c++) {
+            if (features.get(c).getName().equals(name)) {
+                return columns[c];
+            }
+        }
+        throw new IllegalArgumentException("No feature " + name);
+    }
+
+    /**
+     * Write a tab-separated file with a header line.
+     *
+     * @param path file to write.
+     * @throws IOException if the file can't be written.
+     */
+    public void writeTsv(Path path) throws IOException {
+        try (PrintWriter pw = new PrintWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder("url\tposition\tpage");
+            for (FeatureExtractor feature : features) {
+                sb.append('\t').append(feature.getName());
+            }
+            pw.println(sb);
+            for (int r = 0; r < size(); r++) {
+                sb.setLength(0);
+                sb.append(urls[r]).append('\t').append(positions[r])
+                        .append('\t').append(pages[r]);
+                for (int c = 0; c < columns.length; c++) {
+                    sb.append('\t');
+                    if (features.get(c).isFlag()) {
+                        sb.append(columns[c][r] != 0);
+                    } else {
+                        sb.append(columns[c][r]);
+                    }
+                }
+                pw.println(sb);
+            }
+        }
+    }
+
+    /**
+     * Write one JSON object per line with the keys in alphabetical order,
+     * in row order.  With the default features, the lines are the same as
+     * those of {@link RankedPage} beans, so existing readers keep working.
+     *
+     * @param path file to write.
+     * @throws IOException if the file can't be written.
+     * @see RankedPageWriter
+     */
+    public void writeJsonLines(Path path) throws IOException {
+        RankedPageWriter.write(path, this, true);
+    }
+
+    /**
+     * Format a row as a JSON object with the keys in alphabetical order.
+     *
+     * @param features features of the row, in order.
+     * @param row      row to format.
+     * @return the JSON object.
+     */
+    public static String toJson(List<FeatureExtractor> features, Row row) {
+        RankedPageWriter.LineBuffer buffer =
+                new RankedPageWriter.LineBuffer(256);
+        new RankedPageWriter.RowFormat(features).append(row, buffer);
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package ch02.crawl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Host-aware crawl frontier that keeps one queue of URLs per host and
+ * round-robins across the hosts, so a few large hosts don't hog the crawl
+ * while others sit idle.  At most perHostConcurrency downloads run against
+ * the same host, and consecutive downloads from a host start at least
+ * perHostDelay milliseconds apart.  Downloads go through a single
+ * {@link AsyncCrawler}, whose HTTP client reuses keep-alive connections per
+ * host.
+ */
+public class HostScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(HostScheduler.class);
+
+    private final AsyncCrawler crawler;
+    private final int perHostConcurrency;
+    private final long perHostDelay;
+    private final ScheduledExecutorService timer;
+
+    // Guarded by this
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    private final Deque<HostQueue> ring = new ArrayDeque<>();
+    private int inFlight;
+    private int remaining;
+    private long wakeAt = Long.MAX_VALUE;
+    // Set while a thread is in dispatch(), so downloads that complete at
+    // once don't call it again from inside and recurse
+    private final ThreadLocal<Boolean> dispatching =
+            ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Create a scheduler on top of the crawler.
+     *
+     * @param crawler            used to download the pages.
+     * @param perHostConcurrency maximum concurrent downloads per host.
+     * @param perHostDelay       minimum milliseconds between two downloads
+     *                           from the same host.
+     */
+    public HostScheduler(AsyncCrawler crawler, int perHostConcurrency,
+                         long perHostDelay) {
+        this.crawler = crawler;
+        this.perHostConcurrency = perHostConcurrency;
+        this.perHostDelay = TimeUnit.MILLISECONDS.toNanos(perHostDelay);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "host-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Crawl all URLs of the stream politely and pass each result to the
+     * consumer as it arrives.  The consumer is called from the HTTP client
+     * threads, so it must be thread safe.  Blocks until every URL has been
+     * processed.
+     *
+     * @param urls     to crawl.
+     * @param consumer called with the URL and its HTML (empty on failure).
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void crawlAll(Stream<String> urls,
+                         BiConsumer<String, Optional<String>> consumer)
+            throws InterruptedException {
+        synchronized (this) {
+            urls.forEach(this::enqueue);
+            LOGGER.info("Scheduled {} urls on {} hosts", remaining,
+                    hosts.size());
+        }
+
+        dispatch(consumer);
+
+        synchronized (this) {
+            while (remaining > 0) {
+                wait();
+            }
+            hosts.clear();
+            ring.clear();
+        }
+    }
+
+    private void enqueue(String url) {
+        HostQueue queue = hosts.computeIfAbsent(host(url), HostQueue::new);
+        if (queue.urls.isEmpty()) {
+            ring.addLast(queue);
+        }
+        queue.urls.addLast(url);
+        remaining++;
+    }
+
+    /**
+     * Start as many downloads as the global and per-host limits allow.  The
+     * downloads that complete synchronously don't dispatch again from inside
+     * this call; it takes more URLs in a loop instead, until none can start,
+     * so a long run of immediate completions doesn't grow the stack.
+     */
+    private void dispatch(BiConsumer<String, Optional<String>> consumer) {
+        if (dispatching.get()) {
+            return;
+        }
+        dispatching.set(Boolean.TRUE);
+        try {
+            List<Download> started;
+            while (!(started = take(consumer)).isEmpty()) {
+                // Start downloads outside the lock, they may complete
+                // synchronously
+                for (Download download : started) {
+                    start(download, consumer);
+                }
+            }
+        } finally {
+            dispatching.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Take the URLs that the global and per-host limits allow to start, at
+     * most one from each host per pass over the ring, and schedule a wake up
+     * for the first host held back by its delay.
+     */
+    private List<Download> take(
+            BiConsumer<String, Optional<String>> consumer) {
+        List<Download> started = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            long next = Long.MAX_VALUE;
+            boolean progress = true;
+            while (progress && inFlight < crawler.getMaxInFlight()) {
+                progress = false;
+                int size = ring.size();
+                for (int i = 0; i < size
+                        && inFlight < crawler.getMaxInFlight(); i++) {
+                    HostQueue host = ring.pollFirst();
+                    if (host.inFlight < perHostConcurrency) {
+                        if (host.nextStart - now <= 0) {
+                            started.add(new Download(host,
+                                    host.urls.pollFirst()));
+                            host.inFlight++;
+                            host.nextStart = now + perHostDelay;
+                            inFlight++;
+                            progress = true;
+                        } else {
+                            next = Math.min(next, host.nextStart);
+                        }
+                    }
+                    if (!host.urls.isEmpty()) {
+                        ring.addLast(host);
+                    }
+                }
+            }
+            if (next != Long.MAX_VALUE && next < wakeAt) {
+                wakeAt = next;
+                timer.schedule(() -> wakeUp(consumer), next - now,
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+        return started;
+    }
+
+    private void start(Download download,
+                       BiConsumer<String, Optional<String>> consumer) {
+        crawler.crawlAsync(download.url).whenComplete((html, e) -> {
+            try {
+                consumer.accept(download.url, html);
+            } catch (Exception ex) {
+                LOGGER.error("Exception processing url {}", download.url,
+                        ex);
+            } finally {
+                completed(download.host);
+                dispatch(consumer);
+            }
+        });
+    }
+
+    private void wakeUp(BiConsumer<String, Optional<String>> consumer) {
+        synchronized (this) {
+            wakeAt = Long.MAX_VALUE;
+        }
+        dispatch(consumer);
+    }
+
+    private synchronized void completed(HostQueue host) {
+        host.inFlight--;
+        inFlight--;
+        remaining--;
+        if (remaining == 0) {
+            notifyAll();
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            return StringUtils.defaultString(URI.create(url).getHost())
+                    .toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        timer.shutdownNow();
+    }
+
+    private static class HostQueue {
+        private final String host;
+        private final Deque<String> urls = new ArrayDeque<>();
+        private int inFlight;
+        private long nextStart = System.nanoTime();
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public String toString() {
+            return host;
+        }
+    }
+
+    private static class Download {
+        private final HostQueue host;
+        private final String url;
+
+        Download(HostQueue host, String url) {
+            this.host = host;
+            this.url = url;
+        }
+    }
+}
@@ -0,0 +1,1296 @@
+package ch02.crawl;
+
+import org.jsoup.nodes.Entities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the {@link PageFeatures} of an HTML page in a single pass, with
+ * an HTML tokenizer and without building a DOM.
+ * <p>
+ * Tokens are read the way Jsoup 1.12 reads them: raw text elements, the
+ * escapes of scripts, character references and comments.  No tree is
+ * built; the scanner only tracks whether it is in the head or the body,
+ * how many elements of each tag are open, the formatting elements Jsoup
+ * reopens or clones and the implied sections and rows of open tables.  The
+ * features follow
+ * {@code Document.title()}, {@code body().text().length()},
+ * {@code body().select("a").size()} and
+ * {@code body().select("h1,h2,h3,h4,h5,h6").size()}, and the body text is
+ * normalized as it is scanned, with the spaces Jsoup adds around block
+ * elements and {@code br}.
+ * <p>
+ * Where Jsoup's tree builder repairs the markup, the features can differ:
+ * <ul>
+ * <li>the elements Jsoup creates for an {@code isindex} aren't counted,
+ * nor the extra clones of formatting elements misnested across several
+ * blocks;</li>
+ * <li>a block element followed by a formatting element that Jsoup reopens
+ * around the next text, like the {@code p} of {@code <p><b>x</p>y</b>}, is
+ * separated from that text by a space that Jsoup doesn't add;</li>
+ * <li>whitespace is preserved anywhere inside a {@code pre}, not only six
+ * levels down, and text that Jsoup moves in front of a table is counted in
+ * place, which can move a space.</li>
+ * </ul>
+ * These change the body text length by the odd space and the counts by the
+ * odd element; {@link PageFeatureBenchmark} measures how often on the
+ * crawled pages.
+ * <p>
+ * Instances are not thread-safe; {@link #scan(String)} uses one per thread.
+ */
+public class HtmlFeatureScanner {
+
+    /**
+     * Version of the scanning rules; increment it when a change can alter
+     * the features computed for a page, so cached features are recomputed.
+     */
+    public static final int VERSION = 3;
+
+    // Tag flags; BLOCK is the block list of Jsoup's Tag
+    private static final int BLOCK = 1;
+    private static final int HEADING = 1 << 1;
+    private static final int IN_HEAD = 1 << 2;
+    private static final int VOID = 1 << 3;
+    private static final int CLOSES_P = 1 << 4;
+    private static final int NOT_COUNTED = 1 << 5;
+    private static final int FORMATTER = 1 << 6;
+    private static final int MARKER = 1 << 7;
+    private static final int TABLE_PART = 1 << 8;
+
+    private static final int MAX_TAGS = 256;
+    private static final String[] NAMES = new String[MAX_TAGS];
+    private static final int[] FLAGS = new int[MAX_TAGS];
+    private static int tags;
+
+    private static final int BODY = id("body");
+    private static final int FRAMESET = id("frameset");
+    private static final int A = id("a");
+    private static final int P = id("p");
+    private static final int LI = id("li");
+    private static final int DD = id("dd");
+    private static final int DT = id("dt");
+    private static final int BR = id("br");
+    private static final int IMG = id("img");
+    private static final int IMAGE = id("image");
+    private static final int PRE = id("pre");
+    private static final int LISTING = id("listing");
+    private static final int PLAINTEXT = id("plaintext");
+    private static final int TITLE = id("title");
+    private static final int TEXTAREA = id("textarea");
+    private static final int SCRIPT = id("script");
+    private static final int STYLE = id("style");
+    private static final int XMP = id("xmp");
+    private static final int IFRAME = id("iframe");
+    private static final int NOEMBED = id("noembed");
+    private static final int NOFRAMES = id("noframes");
+    private static final int NOSCRIPT = id("noscript");
+    private static final int TABLE = id("table");
+    private static final int TBODY = id("tbody");
+    private static final int THEAD = id("thead");
+    private static final int TFOOT = id("tfoot");
+    private static final int TR = id("tr");
+    private static final int TD = id("td");
+    private static final int TH = id("th");
+
+    static {
+        flag(BLOCK, "html", "head", "body", "frameset", "script", "noscript",
+                "style", "meta", "link", "title", "frame", "noframes",
+                "section", "nav", "aside", "hgroup", "header", "footer", "p",
+                "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div",
+                "blockquote", "hr", "address", "figure", "figcaption",
+                "form", "fieldset", "ins", "del", "dl", "dt", "dd", "li",
+                "table", "caption", "thead", "tfoot", "tbody", "colgroup",
+                "col", "tr", "th", "td", "video", "audio", "canvas",
+                "details", "menu", "plaintext", "template", "article",
+                "main", "svg", "math", "center");
+        flag(HEADING, "h1", "h2", "h3", "h4", "h5", "h6");
+        flag(IN_HEAD, "html", "head", "base", "basefont", "bgsound",
+                "command", "link", "meta", "noframes", "noscript", "script",
+                "style", "title");
+        flag(VOID, "area", "base", "basefont", "bgsound", "br", "col",
+                "command", "embed", "frame", "hr", "image", "img", "input",
+                "keygen", "link", "meta", "param", "source", "track", "wbr");
+        flag(CLOSES_P, "address", "article", "aside", "blockquote", "center",
+                "details", "dir", "div", "dl", "fieldset", "figcaption",
+                "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5",
+                "h6", "header", "hgroup", "hr", "listing", "menu", "nav",
+                "ol", "p", "plaintext", "pre", "section", "summary", "table",
+                "ul", "xmp");
+        // Jsoup merges these into the elements it already has, or drops them
+        flag(NOT_COUNTED, "html", "head", "body", "frameset", "frame");
+        flag(FORMATTER, "a", "b", "big", "code", "em", "font", "i", "nobr",
+                "s", "small", "strike", "strong", "tt", "u");
+        // Closing these clears the formatting elements opened inside them
+        flag(MARKER, "applet", "caption", "marquee", "object", "table",
+                "tbody", "td", "tfoot", "th", "thead", "tr");
+        // Jsoup ignores these outside tables
+        flag(TABLE_PART, "caption", "col", "colgroup", "tbody", "td",
+                "tfoot", "th", "thead", "tr");
+    }
+
+    private static final int TABLE_SIZE = 512;
+    private static final char[][] TABLE_NAMES = new char[TABLE_SIZE][];
+    private static final int[] TABLE_IDS = new int[TABLE_SIZE];
+
+    static {
+        for (int t = 1; t <= tags; t++) {
+            int slot = NAMES[t].hashCode() & (TABLE_SIZE - 1);
+            while (TABLE_NAMES[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE_NAMES[slot] = NAMES[t].toCharArray();
+            TABLE_IDS[slot] = t;
+        }
+    }
+
+    // Code points of numeric references from 0x80 to 0x9F, as in Jsoup
+    private static final int[] WIN1252 = {
+            0x20AC, 0x0081, 0x201A, 0x0192, 0x201E, 0x2026, 0x2020, 0x2021,
+            0x02C6, 0x2030, 0x0160, 0x2039, 0x0152, 0x008D, 0x017D, 0x008F,
+            0x0090, 0x2018, 0x2019, 0x201C, 0x201D, 0x2022, 0x2013, 0x2014,
+            0x02DC, 0x2122, 0x0161, 0x203A, 0x0153, 0x009D, 0x017E, 0x0178
+    };
+
+    // Tokenizer states
+    private static final int DATA = 0;
+    private static final int RCDATA = 1;
+    private static final int RAWTEXT = 2;
+    private static final int PLAINTEXT_STATE = 3;
+
+    private static final int MAX_FORMATTING = 16;
+    // Depth of a formatting element closed with its block, which Jsoup
+    // reopens in front of the next text or inline element
+    private static final int REOPEN = -1;
+    private static final int NONE = -2;
+
+    private static final int MAX_TABLES = 16;
+
+    private static final ThreadLocal<HtmlFeatureScanner> SCANNERS =
+            ThreadLocal.withInitial(HtmlFeatureScanner::new);
+
+    // Tokenizer
+    private String html;
+    private int pos;
+    private int end;
+    private int textState;
+    private int rawTag;
+    private char[] name = new char[32];
+    private int nameLength;
+    private boolean selfClosing;
+    private final int[] refs = new int[2];
+    private int refCount;
+
+    // Document
+    private boolean inBody;
+    private boolean frameset;
+    // In a noscript of the head, where Jsoup keeps everything up to its end
+    private boolean headNoscript;
+    private final int[] open = new int[MAX_TAGS];
+    private int blockDepth;
+    // Formatting elements still active, and the block depth they were opened
+    // at, or REOPEN
+    private final int[] formattingTags = new int[MAX_FORMATTING];
+    private final int[] formattingDepths = new int[MAX_FORMATTING];
+    private int formattingSize;
+    // Section, row and cell open in each nested table, 0 if none
+    private final int[] sections = new int[MAX_TABLES];
+    private final int[] rows = new int[MAX_TABLES];
+    private final int[] cells = new int[MAX_TABLES];
+    // Jsoup drops a newline right after the start tag of a pre
+    private boolean skipNewline;
+
+    // Body text: length up to the last non-whitespace character, and the
+    // whitespace after it, which Jsoup trims
+    private int length;
+    private int trailing;
+    private boolean nonEmpty;
+    private char last;
+    // A block element just ended; Jsoup adds a space if text follows it
+    private boolean pendingTail;
+
+    private int links;
+    private int headers;
+    private boolean titleSeen;
+    private boolean capturingTitle;
+    private final StringBuilder titleText = new StringBuilder();
+
+    private boolean countElements;
+    private final int[] elementCounts = new int[MAX_TAGS];
+    private final Map<String, Integer> otherCounts = new HashMap<>();
+    private StringBuilder text;
+
+    /**
+     * Compute the features of an HTML page.
+     *
+     * @param html page to scan.
+     * @return features of the page.
+     */
+    public static PageFeatures scan(String html) {
+        return SCANNERS.get().run(html, false, null);
+    }
+
+    /**
+     * Compute the features of an HTML page, and count the elements of its
+     * body or collect its body text in the same pass.
+     *
+     * @param html          page to scan.
+     * @param countElements whether to count the elements of the body by tag
+     *                      name.
+     * @param text          where to append the body text, as returned by
+     *                      Jsoup's {@code body().text()}; null to skip it.
+     * @return features of the page.
+     */
+    public static PageFeatures scan(String html, boolean countElements,
+                                    StringBuilder text) {
+        return SCANNERS.get().run(html, countElements, text);
+    }
+
+    private PageFeatures run(String html, boolean countElements,
+                             StringBuilder text) {
+        reset(html);
+        this.countElements = countElements;
+        this.text = text;
+        int textStart = text != null ? text.length() : 0;
+        try {
+            while (pos < end) {
+                if (textState == DATA) {
+                    data();
+                } else {
+                    rawText();
+                }
+            }
+            String title = titleSeen ? normalizeTitle() : "";
+            // Jsoup doesn't create a body after an unclosed head noscript
+            boolean hasBody = !frameset && !headNoscript;
+            if (text != null) {
+                text.setLength(textStart + (hasBody ? length : 0));
+            }
+            Map<String, Integer> counts = countElements && hasBody
+                    ? elementCounts() : new HashMap<>();
+            return new PageFeatures(title, hasBody ? length : 0,
+                    hasBody ? links : 0, hasBody ? headers : 0, hasBody,
+                    counts);
+        } finally {
+            this.html = null;
+            this.text = null;
+        }
+    }
+
+    private Map<String, Integer> elementCounts() {
+        Map<String, Integer> counts = new HashMap<>(otherCounts);
+        for (int t = 1; t <= tags; t++) {
+            if (elementCounts[t] > 0) {
+                counts.put(NAMES[t], elementCounts[t]);
+            }
+        }
+        return counts;
+    }
+
+    private void reset(String html) {
+        this.html = html;
+        pos = 0;
+        end = html.length();
+        textState = DATA;
+        rawTag = 0;
+        inBody = false;
+        frameset = false;
+        headNoscript = false;
+        Arrays.fill(open, 0);
+        blockDepth = 0;
+        formattingSize = 0;
+        skipNewline = false;
+        length = 0;
+        trailing = 0;
+        nonEmpty = false;
+        last = 0;
+        pendingTail = false;
+        links = 0;
+        headers = 0;
+        titleSeen = false;
+        capturingTitle = false;
+        titleText.setLength(0);
+        Arrays.fill(elementCounts, 0);
+        otherCounts.clear();
+    }
+
+    // Tokenizer
+
+    private void data() {
+        int from = pos;
+        int i = pos;
+        while (true) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0 || lt + 1 >= end) {
+                i = end;
+                break;
+            }
+            char c = html.charAt(lt + 1);
+            if (c == '/') {
+                if (lt + 2 >= end) {
+                    i = end;
+                    break;
+                }
+                if (html.charAt(lt + 2) == '>') {
+                    // "</>" is dropped and the text around it joined
+                    i = lt + 3;
+                    continue;
+                }
+                i = lt;
+                break;
+            }
+            if (c == '!' || c == '?' || isLetter(c)) {
+                i = lt;
+                break;
+            }
+            i = lt + 1;
+        }
+        if (i > from) {
+            characters(from, i, true);
+        }
+        pos = i;
+        if (pos < end) {
+            markup();
+        }
+    }
+
+    private void markup() {
+        char c = html.charAt(pos + 1);
+        if (c == '!') {
+            markupDeclaration();
+        } else if (c == '?') {
+            bogusComment(pos + 1);
+        } else if (c == '/') {
+            if (isLetter(html.charAt(pos + 2))) {
+                tag(pos + 2, true);
+            } else {
+                bogusComment(pos + 2);
+            }
+        } else {
+            tag(pos + 1, false);
+        }
+    }
+
+    private void markupDeclaration() {
+        int i = pos + 2;
+        if (html.startsWith("--", i)) {
+            int j = i + 2;
+            if (html.startsWith(">", j)) {
+                pos = j + 1;
+            } else if (html.startsWith("->", j)) {
+                pos = j + 2;
+            } else {
+                int close = html.indexOf("--", j);
+                while (close >= 0 && !html.startsWith("-->", close)
+                        && !html.startsWith("--!>", close)) {
+                    close = html.indexOf("--", close + 1);
+                }
+                if (close < 0) {
+                    pos = end;
+                } else {
+                    pos = html.charAt(close + 2) == '>' ? close + 3
+                            : close + 4;
+                }
+            }
+            comment();
+        } else if (html.regionMatches(true, i, "DOCTYPE", 0, 7)) {
+            int close = html.indexOf('>', i);
+            pos = close < 0 ? end : close + 1;
+        } else if (html.startsWith("[CDATA[", i)) {
+            int from = i + 7;
+            int close = html.indexOf("]]>", from);
+            int to = close < 0 ? end : close;
+            pos = close < 0 ? end : close + 3;
+            if (to > from) {
+                characters(from, to, false);
+            }
+        } else {
+            bogusComment(i);
+        }
+    }
+
+    private void bogusComment(int from) {
+        int close = html.indexOf('>', from);
+        pos = close < 0 ? end : close + 1;
+        comment();
+    }
+
+    /**
+     * Read a tag starting at its name.  Tags cut off by the end of the page
+     * are dropped, like Jsoup does.
+     */
+    private void tag(int from, boolean endTag) {
+        nameLength = 0;
+        int i = from;
+        while (i < end) {
+            char c = html.charAt(i);
+            if (isWhitespace(c) || c == '/' || c == '>' || c == '<') {
+                break;
+            }
+            appendName(c == 0 ? '\uFFFD' : Character.toLowerCase(c));
+            i++;
+        }
+        i = attributes(i);
+        if (i < 0) {
+            pos = end;
+            return;
+        }
+        pos = i;
+        int t = lookup();
+        if (endTag) {
+            if (textState == RCDATA || textState == RAWTEXT) {
+                rawEndTag();
+            } else {
+                endTag(t);
+            }
+        } else {
+            startTag(t);
+        }
+    }
+
+    /**
+     * Skip the attributes of a tag.
+     *
+     * @return index after the tag; -1 at the end of the page.
+     */
+    private int attributes(int i) {
+        selfClosing = false;
+        boolean afterName = false;
+        while (i < end) {
+            char c = html.charAt(i);
+            if (isWhitespace(c)) {
+                i++;
+            } else if (c == '>') {
+                return i + 1;
+            } else if (c == '/') {
+                if (i + 1 < end && html.charAt(i + 1) == '>') {
+                    selfClosing = true;
+                    return i + 2;
+                }
+                afterName = false;
+                i++;
+            } else if (c == '<' && !afterName) {
+                // Jsoup ends the tag at a '<' between attributes
+                return i;
+            } else {
+                // Attribute name; quotes, '<' and '=' may start one
+                i++;
+                while (i < end) {
+                    c = html.charAt(i);
+                    if (isWhitespace(c) || c == '/' || c == '=' || c == '>') {
+                        break;
+                    }
+                    i++;
+                }
+                while (i < end && isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                afterName = true;
+                if (i < end && html.charAt(i) == '=') {
+                    afterName = false;
+                    i++;
+                    while (i < end && isWhitespace(html.charAt(i))) {
+                        i++;
+                    }
+                    if (i >= end) {
+                        return -1;
+                    }
+                    c = html.charAt(i);
+                    if (c == '"' || c == '\'') {
+                        int close = html.indexOf(c, i + 1);
+                        if (close < 0) {
+                            return -1;
+                        }
+                        i = close + 1;
+                    } else if (c != '>') {
+                        while (i < end && !isWhitespace(html.charAt(i))
+                                && html.charAt(i) != '>') {
+                            i++;
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read the text of a title, textarea, script, style or other raw text
+     * element up to its end tag.
+     */
+    private void rawText() {
+        if (textState == PLAINTEXT_STATE) {
+            characters(pos, end, false);
+            pos = end;
+            return;
+        }
+        String tagName = NAMES[rawTag];
+        int i = rawTag == SCRIPT ? scriptEndTag(pos) : pos;
+        while (i < end) {
+            int lt = html.indexOf("</", i);
+            if (lt < 0) {
+                i = end;
+                break;
+            }
+            int j = lt + 2;
+            int k = j;
+            while (k < end && isLetter(html.charAt(k))) {
+                k++;
+            }
+            if (k < end && k - j == tagName.length()
+                    && html.regionMatches(true, j, tagName, 0, k - j)) {
+                char c = html.charAt(k);
+                if (isWhitespace(c) || c == '/' || c == '>') {
+                    i = lt;
+                    break;
+                }
+            }
+            i = lt + 2;
+        }
+
+        if (i == end && textState == RCDATA) {
+            // Without an end tag, Jsoup ends RCDATA at the next tag after
+            // the last "</title" in lower or upper case
+            int from = Math.max(
+                    html.lastIndexOf("</" + tagName),
+                    html.lastIndexOf("</" + tagName.toUpperCase()));
+            int lt = html.indexOf('<', Math.max(pos, from + 1));
+            while (lt >= 0 && lt + 1 < end && !isLetter(html.charAt(lt + 1))) {
+                lt = html.indexOf('<', lt + 1);
+            }
+            if (lt >= 0 && lt + 1 < end) {
+                if (lt > pos) {
+                    characters(pos, lt, true);
+                }
+                pos = lt;
+                rawEndTag();
+                return;
+            }
+        }
+
+        if (i > pos) {
+            characters(pos, i, textState == RCDATA);
+        }
+        pos = i;
+        if (pos < end) {
+            tag(pos + 2, true);
+        }
+    }
+
+    /**
+     * Find the end tag of a script, skipping the ones that Jsoup's escaped
+     * states treat as text, like {@code <!--<script></script>-->}.
+     *
+     * @return index of the end tag; the end of the page if there is none.
+     */
+    private int scriptEndTag(int i) {
+        boolean escaped = false;
+        boolean doubleEscaped = false;
+        int dashes = 0;
+        while (i < end) {
+            char c = html.charAt(i);
+            if (c == '-') {
+                if (escaped) {
+                    dashes++;
+                }
+                i++;
+                continue;
+            }
+            if (c == '>' && escaped && dashes >= 2) {
+                escaped = false;
+                doubleEscaped = false;
+            }
+            dashes = 0;
+            if (c != '<') {
+                i++;
+                continue;
+            }
+            boolean endTag = i + 1 < end && html.charAt(i + 1) == '/';
+            if (!escaped && html.startsWith("<!--", i)) {
+                escaped = true;
+                // The dashes of "<!--" also count for "-->"
+                dashes = 2;
+                i += 4;
+                continue;
+            }
+            if (endTag && isScriptTag(i + 2)) {
+                if (!doubleEscaped) {
+                    return i;
+                }
+                doubleEscaped = false;
+            } else if (escaped && !endTag && isScriptTag(i + 1)) {
+                doubleEscaped = true;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    /**
+     * @return True if the letters at i are "script", followed by the end of
+     * the tag name.
+     */
+    private boolean isScriptTag(int i) {
+        int j = i;
+        while (j < end && isLetter(html.charAt(j))) {
+            j++;
+        }
+        if (j >= end || j - i != 6 || !html.regionMatches(true, i, "script",
+                0, 6)) {
+            return false;
+        }
+        char c = html.charAt(j);
+        return isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    private void appendName(char c) {
+        if (nameLength == name.length) {
+            name = Arrays.copyOf(name, name.length * 2);
+        }
+        name[nameLength++] = c;
+    }
+
+    /**
+     * @return id of the tag name just read; 0 if it isn't one of the tags
+     * the scanner knows.
+     */
+    private int lookup() {
+        int hash = 0;
+        for (int i = 0; i < nameLength; i++) {
+            hash = 31 * hash + name[i];
+        }
+        int slot = hash & (TABLE_SIZE - 1);
+        while (TABLE_NAMES[slot] != null) {
+            char[] candidate = TABLE_NAMES[slot];
+            if (candidate.length == nameLength) {
+                int i = 0;
+                while (i < nameLength && candidate[i] == name[i]) {
+                    i++;
+                }
+                if (i == nameLength) {
+                    return TABLE_IDS[slot];
+                }
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return 0;
+    }
+
+    /**
+     * Decode the character reference after an ampersand at i.
+     *
+     * @return index after the reference, with its code points in refs; -1
+     * if the ampersand is literal text.
+     */
+    private int characterReference(int i, int to) {
+        if (i >= to) {
+            return -1;
+        }
+        char c = html.charAt(i);
+        if (isWhitespace(c) || c == '<' || c == '&') {
+            return -1;
+        }
+        refCount = 1;
+        if (c == '#') {
+            int j = i + 1;
+            boolean hex = j < to
+                    && (html.charAt(j) == 'x' || html.charAt(j) == 'X');
+            if (hex) {
+                j++;
+            }
+            int radix = hex ? 16 : 10;
+            int from = j;
+            long value = 0;
+            while (j < to && Character.digit(html.charAt(j), radix) >= 0
+                    && html.charAt(j) < 128) {
+                value = Math.min(value * radix
+                        + Character.digit(html.charAt(j), radix), 1L << 32);
+                j++;
+            }
+            if (j == from) {
+                return -1;
+            }
+            if (j < to && html.charAt(j) == ';') {
+                j++;
+            }
+            if (value > 0x10FFFF || (value >= 0xD800 && value <= 0xDFFF)) {
+                refs[0] = 0xFFFD;
+            } else if (value >= 0x80 && value < 0x80 + WIN1252.length) {
+                refs[0] = WIN1252[(int) value - 0x80];
+            } else {
+                refs[0] = (int) value;
+            }
+            return j;
+        }
+
+        int j = i;
+        while (j < to && isLetter(html.charAt(j))) {
+            j++;
+        }
+        while (j < to && html.charAt(j) >= '0' && html.charAt(j) <= '9') {
+            j++;
+        }
+        boolean semicolon = j < to && html.charAt(j) == ';';
+        if (semicolon && commonReference(i, j - i)) {
+            return j + 1;
+        }
+        String reference = html.substring(i, j);
+        if (!Entities.isBaseNamedEntity(reference)
+                && !(semicolon && Entities.isNamedEntity(reference))) {
+            return -1;
+        }
+        refCount = Entities.codepointsForName(reference, refs);
+        return semicolon ? j + 1 : j;
+    }
+
+    private boolean commonReference(int i, int length) {
+        if (length == 3 && html.startsWith("amp", i)) {
+            refs[0] = '&';
+        } else if (length == 4 && html.startsWith("nbsp", i)) {
+            refs[0] = ' ';
+        } else if (length == 2 && html.startsWith("lt", i)) {
+            refs[0] = '<';
+        } else if (length == 2 && html.startsWith("gt", i)) {
+            refs[0] = '>';
+        } else if (length == 4 && html.startsWith("quot", i)) {
+            refs[0] = '"';
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // Tags
+
+    private void startTag(int t) {
+        skipNewline = false;
+        if (frameset) {
+            return;
+        }
+        int f = flags(t);
+        if (!inBody) {
+            if (t == FRAMESET) {
+                // Jsoup builds a frameset document, without a body
+                frameset = true;
+                return;
+            }
+            if (t == BODY && !headNoscript) {
+                inBody = true;
+                return;
+            }
+            if ((f & IN_HEAD) != 0) {
+                if (t == NOSCRIPT) {
+                    headNoscript = !selfClosing;
+                } else if (!selfClosing) {
+                    rawTextStart(t);
+                } else if (t == TITLE) {
+                    titleSeen = true;
+                }
+                return;
+            }
+            if (headNoscript) {
+                return;
+            }
+            inBody = true;
+        }
+        if ((f & NOT_COUNTED) != 0) {
+            pendingTail = false;
+            return;
+        }
+        if ((f & CLOSES_P) != 0 && open[P] > 0) {
+            closeBlock(P);
+        } else if ((t == LI && open[LI] > 0) || (t == DD || t == DT)
+                && open[DD] + open[DT] > 0) {
+            closeBlock(t == LI ? LI : open[DD] > 0 ? DD : DT);
+        }
+        if ((f & TABLE_PART) != 0 && !tableStart(t)) {
+            return;
+        }
+        pendingTail = false;
+        if (t == A && removeFormatting(A) != NONE) {
+            // A link still active is closed by the next one
+            open[A] = Math.max(0, open[A] - 1);
+        }
+        if ((f & BLOCK) == 0) {
+            reopenFormatting();
+        }
+        element(t == IMAGE ? IMG : t);
+
+        if ((f & VOID) != 0) {
+            return;
+        }
+        open[t]++;
+        if ((f & BLOCK) != 0) {
+            blockDepth++;
+        } else if ((f & FORMATTER) != 0) {
+            pushFormatting(t);
+        }
+        if (t == TABLE) {
+            int level = tableLevel();
+            sections[level] = 0;
+            rows[level] = 0;
+            cells[level] = 0;
+        }
+        if (selfClosing) {
+            // Closed by the end tag Jsoup emits for it
+            if (t == TITLE) {
+                titleSeen = true;
+            }
+            endTag(t);
+            return;
+        }
+        if (t == PRE || t == LISTING) {
+            skipNewline = true;
+        } else if (t == PLAINTEXT) {
+            textState = PLAINTEXT_STATE;
+        } else {
+            rawTextStart(t);
+        }
+    }
+
+    /**
+     * Count an element of the body, and add the space Jsoup's text() puts
+     * in front of a block element.
+     */
+    private void element(int t) {
+        if (countElements) {
+            if (t != 0) {
+                elementCounts[t]++;
+            } else {
+                otherCounts.merge(new String(name, 0, nameLength), 1,
+                        Integer::sum);
+            }
+        }
+        if (t == A) {
+            links++;
+        } else if ((flags(t) & HEADING) != 0) {
+            headers++;
+        }
+        if (((flags(t) & BLOCK) != 0 || t == BR) && nonEmpty && last != ' ') {
+            emit(' ');
+        }
+    }
+
+    /**
+     * Switch the tokenizer to the text of a title, textarea, script, style or
+     * other raw text element, if the tag is one.
+     */
+    private void rawTextStart(int t) {
+        if (t == TITLE || t == TEXTAREA) {
+            textState = RCDATA;
+        } else if (t == SCRIPT || t == STYLE || t == XMP || t == IFRAME
+                || t == NOEMBED || t == NOFRAMES) {
+            textState = RAWTEXT;
+        } else {
+            return;
+        }
+        rawTag = t;
+        if (t == TITLE && !titleSeen) {
+            titleSeen = true;
+            capturingTitle = true;
+        }
+    }
+
+    private void rawEndTag() {
+        int t = rawTag;
+        textState = DATA;
+        rawTag = 0;
+        capturingTitle = false;
+        if (inBody) {
+            endTag(t);
+        }
+    }
+
+    private void endTag(int t) {
+        skipNewline = false;
+        if (headNoscript && t == NOSCRIPT) {
+            headNoscript = false;
+        }
+        if (!inBody || frameset) {
+            return;
+        }
+        if (t == BR) {
+            // Jsoup reads </br> as <br>
+            pendingTail = false;
+            element(BR);
+            return;
+        }
+        if (t == P && open[P] == 0) {
+            // and a stray </p> as an empty paragraph
+            element(P);
+            pendingTail = true;
+            return;
+        }
+        if (t == 0) {
+            // Other inline elements aren't tracked; the text after the end
+            // tag follows the element it closes
+            pendingTail = false;
+            return;
+        }
+        if ((flags(t) & FORMATTER) != 0) {
+            int depth = removeFormatting(t);
+            if (depth != NONE) {
+                open[t] = Math.max(0, open[t] - 1);
+                pendingTail = false;
+            }
+            if (depth >= 0 && depth < blockDepth) {
+                // Jsoup's adoption agency moves the blocks opened inside the
+                // element into a clone of it
+                element(t);
+            }
+            return;
+        }
+        if (open[t] == 0) {
+            return;
+        }
+        if ((flags(t) & TABLE_PART) != 0 || t == TABLE) {
+            tableEnd(t);
+            return;
+        }
+        if ((flags(t) & BLOCK) != 0) {
+            closeBlock(t);
+            pendingTail = true;
+        } else {
+            open[t]--;
+            pendingTail = false;
+        }
+    }
+
+    /**
+     * Close a block element, and with it the formatting elements opened
+     * inside it, which Jsoup reopens where the text goes on; unless the
+     * block is a table cell or another marker of Jsoup's list of active
+     * formatting elements.
+     */
+    private void closeBlock(int t) {
+        open[t]--;
+        blockDepth = Math.max(0, blockDepth - 1);
+        boolean marker = (flags(t) & MARKER) != 0;
+        int n = 0;
+        for (int i = 0; i < formattingSize; i++) {
+            if (formattingDepths[i] <= blockDepth) {
+                formattingTags[n] = formattingTags[i];
+                formattingDepths[n++] = formattingDepths[i];
+            } else if (!marker) {
+                formattingTags[n] = formattingTags[i];
+                formattingDepths[n++] = REOPEN;
+            }
+        }
+        formattingSize = n;
+    }
+
+    private void pushFormatting(int t) {
+        if (formattingSize == MAX_FORMATTING) {
+            formattingSize--;
+            System.arraycopy(formattingTags, 1, formattingTags, 0,
+                    formattingSize);
+            System.arraycopy(formattingDepths, 1, formattingDepths, 0,
+                    formattingSize);
+        }
+        formattingTags[formattingSize] = t;
+        formattingDepths[formattingSize++] = blockDepth;
+    }
+
+    /**
+     * Remove the last active formatting element with the tag.
+     *
+     * @return block depth it was opened at, REOPEN, or NONE if there is no
+     * such element.
+     */
+    private int removeFormatting(int t) {
+        for (int i = formattingSize - 1; i >= 0; i--) {
+            if (formattingTags[i] == t) {
+                int depth = formattingDepths[i];
+                formattingSize--;
+                System.arraycopy(formattingTags, i + 1, formattingTags, i,
+                        formattingSize - i);
+                System.arraycopy(formattingDepths, i + 1, formattingDepths, i,
+                        formattingSize - i);
+                return depth;
+            }
+        }
+        return NONE;
+    }
+
+    private int tableLevel() {
+        return Math.min(open[TABLE], MAX_TABLES - 1);
+    }
+
+    /**
+     * Close the section, row or cell that a table part ends, and open the
+     * tbody and tr that Jsoup adds around rows and cells without them.
+     *
+     * @return False outside tables, where Jsoup ignores table parts.
+     */
+    private boolean tableStart(int t) {
+        int level = tableLevel();
+        if (level == 0) {
+            return false;
+        }
+        if (t == TD || t == TH) {
+            closeTablePart(cells, level);
+            if (rows[level] == 0) {
+                if (sections[level] == 0) {
+                    sections[level] = openImplied(TBODY);
+                }
+                rows[level] = openImplied(TR);
+            }
+            cells[level] = t;
+        } else if (t == TR) {
+            closeTablePart(cells, level);
+            closeTablePart(rows, level);
+            if (sections[level] == 0) {
+                sections[level] = openImplied(TBODY);
+            }
+            rows[level] = t;
+        } else if (t == TBODY || t == THEAD || t == TFOOT) {
+            closeTablePart(cells, level);
+            closeTablePart(rows, level);
+            closeTablePart(sections, level);
+            sections[level] = t;
+        }
+        return true;
+    }
+
+    private void tableEnd(int t) {
+        int level = tableLevel();
+        if (t == TD || t == TH) {
+            if (cells[level] != t) {
+                return;
+            }
+            closeTablePart(cells, level);
+        } else if (t == TR || t == TBODY || t == THEAD || t == TFOOT
+                || t == TABLE) {
+            if (t == TR ? rows[level] == 0 : t != TABLE
+                    && sections[level] != t) {
+                return;
+            }
+            closeTablePart(cells, level);
+            closeTablePart(rows, level);
+            if (t != TR) {
+                closeTablePart(sections, level);
+            }
+            if (t == TABLE) {
+                closeBlock(TABLE);
+            }
+        } else {
+            closeBlock(t);
+        }
+        pendingTail = true;
+    }
+
+    private int openImplied(int t) {
+        element(t);
+        open[t]++;
+        blockDepth++;
+        return t;
+    }
+
+    private void closeTablePart(int[] parts, int level) {
+        int t = parts[level];
+        if (t != 0) {
+            parts[level] = 0;
+            if (open[t] > 0) {
+                closeBlock(t);
+            }
+        }
+    }
+
+    /**
+     * Count the clones of the formatting elements Jsoup reopens, like the
+     * link of {@code <p><a>x</p>y}; the text then follows the clone, not
+     * the block.
+     */
+    private void reopenFormatting() {
+        for (int i = 0; i < formattingSize; i++) {
+            if (formattingDepths[i] == REOPEN) {
+                formattingDepths[i] = blockDepth;
+                pendingTail = false;
+                element(formattingTags[i]);
+                open[formattingTags[i]]++;
+            }
+        }
+    }
+
+    // Text
+
+    /**
+     * Handle a character token, the text between two tags.
+     */
+    private void characters(int from, int to, boolean references) {
+        if (textState == RCDATA || textState == RAWTEXT) {
+            boolean counted = inBody && rawTag != SCRIPT && rawTag != STYLE;
+            if (counted || capturingTitle) {
+                text(from, to, references, counted,
+                        rawTag == TITLE || rawTag == TEXTAREA);
+            }
+            return;
+        }
+        if (frameset) {
+            return;
+        }
+        if (!inBody) {
+            if (headNoscript || isWhitespace(from, to)) {
+                return;
+            }
+            inBody = true;
+        }
+        if (skipNewline && html.charAt(from) == '\n') {
+            from++;
+        }
+        skipNewline = false;
+        reopenFormatting();
+        text(from, to, references, true,
+                textState == PLAINTEXT_STATE || open[PRE] + open[LISTING] > 0);
+    }
+
+    private void text(int from, int to, boolean references, boolean counted,
+                      boolean preserve) {
+        if (counted && pendingTail && last != ' ') {
+            emit(' ');
+        }
+        pendingTail = false;
+
+        boolean data = textState == DATA;
+        int i = from;
+        while (i < to) {
+            char c = html.charAt(i);
+            if (c == '&' && references) {
+                int next = characterReference(i + 1, to);
+                if (next >= 0) {
+                    for (int r = 0; r < refCount; r++) {
+                        append(refs[r], counted, preserve);
+                    }
+                    i = next;
+                    continue;
+                }
+            } else if (c == '<' && data && html.startsWith("</>", i)) {
+                i += 3;
+                continue;
+            } else if (c == 0 && !data) {
+                c = '\uFFFD';
+            }
+            append(c, counted, preserve);
+            i++;
+        }
+    }
+
+    private void append(int codePoint, boolean counted, boolean preserve) {
+        if (capturingTitle) {
+            titleText.appendCodePoint(codePoint);
+        }
+        if (!counted) {
+            return;
+        }
+        if (preserve) {
+            emitCodePoint(codePoint);
+        } else if (isActuallyWhitespace(codePoint)) {
+            if (!nonEmpty || last != ' ') {
+                emit(' ');
+            }
+        } else if (codePoint != 8203 && codePoint != 173) {
+            emitCodePoint(codePoint);
+        }
+    }
+
+    private void emitCodePoint(int codePoint) {
+        if (Character.isBmpCodePoint(codePoint)) {
+            emit((char) codePoint);
+        } else {
+            emit(Character.highSurrogate(codePoint));
+            emit(Character.lowSurrogate(codePoint));
+        }
+    }
+
+    /**
+     * Append a character to the body text, which is trimmed at the end.
+     */
+    private void emit(char c) {
+        if (text != null && (c > ' ' || length > 0)) {
+            text.append(c);
+        }
+        nonEmpty = true;
+        last = c;
+        if (c <= ' ') {
+            if (length > 0) {
+                trailing++;
+            }
+        } else {
+            length += trailing + 1;
+            trailing = 0;
+        }
+    }
+
+    private void comment() {
+        skipNewline = false;
+        pendingTail = false;
+    }
+
+    private String normalizeTitle() {
+        StringBuilder sb = new StringBuilder(titleText.length());
+        boolean lastWasWhite = false;
+        for (int i = 0; i < titleText.length(); ) {
+            int c = titleText.codePointAt(i);
+            i += Character.charCount(c);
+            if (isActuallyWhitespace(c)) {
+                if (!lastWasWhite) {
+                    sb.append(' ');
+                    lastWasWhite = true;
+                }
+            } else if (c != 8203 && c != 173) {
+                sb.appendCodePoint(c);
+                lastWasWhite = false;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    // Characters
+
+    private static int flags(int t) {
+        return FLAGS[t];
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c > 127 && Character.isLetter(c));
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isActuallyWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f'
+                || c == 160;
+    }
+
+    private boolean isWhitespace(int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = html.charAt(i);
+            if (c == '<' && html.startsWith("</>", i)) {
+                i += 2;
+            } else if (!isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int id(String name) {
+        for (int t = 1; t <= tags; t++) {
+            if (NAMES[t].equals(name)) {
+                return t;
+            }
+        }
+        NAMES[++tags] = name;
+        return tags;
+    }
+
+    private static void flag(int flag, String... names) {
+        for (String name : names) {
+            FLAGS[id(name)] |= flag;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ch02.crawl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detect pages whose text is nearly the same as a page seen before, such as
+ * mirrors and syndicated copies, by the distance between their
+ * {@link SimHash} fingerprints.  Fingerprints are indexed by maxDistance + 1
+ * bands of bits: two fingerprints within maxDistance bits of each other
+ * have at least one band in common, so only the fingerprints sharing a band
+ * are compared.  Pages with too few words aren't indexed, since error and
+ * placeholder pages would all match each other.  Safe to use from several
+ * threads.
+ */
+public class NearDuplicateDetector {
+
+    private static class Fingerprint {
+        private final long hash;
+        private final String url;
+
+        Fingerprint(long hash, String url) {
+            this.hash = hash;
+            this.url = url;
+        }
+    }
+
+    private final int maxDistance;
+    private final int minWords;
+    private final int bandBits;
+    // Guarded by this
+    private final List<Map<Long, List<Fingerprint>>> bands;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * @param maxDistance maximum number of different bits between the
+     *                    fingerprints of near duplicates, from 0 to 7.
+     * @param minWords    minimum number of words of an indexed page.
+     */
+    public NearDuplicateDetector(int maxDistance, int minWords) {
+        if (maxDistance < 0 || maxDistance > 7) {
+            throw new IllegalArgumentException(
+                    "Distance must be between 0 and 7: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+        this.minWords = minWords;
+        this.bandBits = 64 / (maxDistance + 1);
+        this.bands = new ArrayList<>();
+        for (int i = 0; i <= maxDistance; i++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Look for a near duplicate of the page among the pages seen before, and
+     * index the page if there is none.
+     *
+     * @param url  of the page.
+     * @param text of the page.
+     * @return URL of an earlier page with nearly the same text; empty if the
+     * page is new, too short, or was checked before under the same URL.
+     */
+    public Optional<String> check(String url, CharSequence text) {
+        checked.increment();
+        if (countWords(text) < minWords) {
+            return Optional.empty();
+        }
+        long hash = SimHash.of(text);
+        synchronized (this) {
+            for (int i = 0; i < bands.size(); i++) {
+                List<Fingerprint> candidates = bands.get(i).get(band(hash, i));
+                if (candidates == null) {
+                    continue;
+                }
+                for (Fingerprint candidate : candidates) {
+                    if (SimHash.distance(hash, candidate.hash)
+                            <= maxDistance) {
+                        if (candidate.url.equals(url)) {
+                            return Optional.empty();
+                        }
+                        duplicates.increment();
+                        return Optional.of(candidate.url);
+                    }
+                }
+            }
+            Fingerprint fingerprint = new Fingerprint(hash, url);
+            for (int i = 0; i < bands.size(); i++) {
+                bands.get(i).computeIfAbsent(band(hash, i),
+                        b -> new ArrayList<>(1)).add(fingerprint);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The last band takes the bits left over when 64 isn't a multiple of the
+     * number of bands.
+     */
+    private long band(long hash, int i) {
+        int shift = i * bandBits;
+        int bits = i == bands.size() - 1 ? 64 - shift : bandBits;
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        return (hash >>> shift) & mask;
+    }
+
+    private static int countWords(CharSequence text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) {
+                words++;
+            }
+            inWord = letter;
+        }
+        return words;
+    }
+
+    /**
+     * @return number of pages checked.
+     */
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    /**
+     * @return number of pages found to be near duplicates.
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "NearDuplicateDetector [maxDistance=" + maxDistance
+                + ", checked=" + getChecked() + ", duplicates="
+                + getDuplicates() + "]";
+    }
+}
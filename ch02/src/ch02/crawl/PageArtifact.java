@@ -0,0 +1,22 @@
+package ch02.crawl;
+
+/**
+ * What a {@link FeatureExtractor} needs from a page.  The URL, the title and
+ * the summary counts of {@link PageFeatures} are always available; the body
+ * text and the element counts cost extra, so the {@link FeatureEngine} only
+ * collects them when an extractor declares them.
+ */
+public enum PageArtifact {
+
+    /** URL and search result position. */
+    URL,
+
+    /** Title, body text length, and number of links and headers. */
+    TITLE,
+
+    /** Whitespace-normalized body text. */
+    TEXT,
+
+    /** Number of elements in the body by tag name. */
+    ELEMENT_COUNTS
+}
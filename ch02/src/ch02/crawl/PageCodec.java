@@ -0,0 +1,117 @@
+package ch02.crawl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses HTML pages into byte arrays for the {@link UrlRepository}.
+ * Pages are UTF-8 encoded and deflated with a preset dictionary of strings
+ * common to HTML documents, which noticeably improves the compression of
+ * small pages.  The first byte of every encoded page is the format version,
+ * so the dictionary can evolve without breaking existing databases.
+ */
+public class PageCodec {
+
+    private static final byte VERSION_DEFLATE_DICTIONARY = 1;
+
+    // Deflate prefers the dictionary strings near its end, so the most
+    // frequent fragments come last
+    private static final byte[] DICTIONARY = (
+            "<!-- --> <noscript></noscript><iframe src=\"</iframe>"
+                    + "<table><tbody><tr><td></td></tr></tbody></table>"
+                    + "<form action=\"method=\"post\"<input type=\"hidden\" "
+                    + "name=\"value=\"<button></button><select><option "
+                    + "</option></select><label for=\"</label>"
+                    + "<footer></footer><header></header><nav></nav>"
+                    + "<section></section><article></article>"
+                    + "<h1></h1><h2></h2><h3></h3><h4></h4><br /><hr />"
+                    + "<strong></strong><em></em><b></b><i></i>"
+                    + "<link rel=\"stylesheet\" type=\"text/css\" "
+                    + "media=\"all\" href=\"<link rel=\"icon\" "
+                    + "<meta name=\"viewport\" content=\"width=device-width, "
+                    + "initial-scale=1\"><meta name=\"description\" "
+                    + "<meta property=\"og:<meta http-equiv=\"Content-Type\" "
+                    + "content=\"text/html; charset=utf-8\">"
+                    + "<script type=\"text/javascript\" src=\"</script>"
+                    + "<script>function(){var document.getElementById("
+                    + "window.location.https://www.http://www..com/.org/"
+                    + "<!DOCTYPE html><html lang=\"en\"><head><title></title>"
+                    + "</head><body></body></html>"
+                    + "<img src=\"alt=\"width=\"height=\"/></span><span "
+                    + "</p><p></li><li><ul></ul>"
+                    + "<a href=\"/\" title=\"target=\"_blank\"></a>"
+                    + "</div><div class=\"id=\"style=\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFERS =
+            ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    /**
+     * Compress the HTML page.
+     *
+     * @param html page to compress.
+     * @return encoded page.
+     */
+    public static byte[] encode(String html) {
+        byte[] input = html.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input);
+        deflater.finish();
+
+        ByteArrayOutputStream os =
+                new ByteArrayOutputStream(input.length / 4 + 64);
+        os.write(VERSION_DEFLATE_DICTIONARY);
+        byte[] buffer = BUFFERS.get();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            os.write(buffer, 0, n);
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Decompress a page encoded by {@link #encode(String)}.
+     *
+     * @param bytes encoded page.
+     * @return HTML page.
+     */
+    public static String decode(byte[] bytes) {
+        if (bytes[0] != VERSION_DEFLATE_DICTIONARY) {
+            throw new IllegalArgumentException(
+                    "Unknown page encoding version " + bytes[0]);
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(bytes, 1, bytes.length - 1);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length * 4);
+        byte[] buffer = BUFFERS.get();
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalArgumentException(
+                                "Truncated page encoding");
+                    }
+                }
+                os.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package ch02.crawl;
+
+/**
+ * A search result and the artifacts parsed from its page, shared by all the
+ * extractors of a {@link FeatureEngine}.
+ */
+public class PageContext {
+
+    private final String query;
+    private final String url;
+    private final int position;
+    private final int page;
+
+    private PageFeatures features;
+    private CharSequence text;
+
+    /**
+     * @param query    search query.
+     * @param url      URL of the result.
+     * @param position position of the result, starting from 1.
+     * @param page     search page of the result, starting from 1.
+     */
+    public PageContext(String query, String url, int position, int page) {
+        this.query = query;
+        this.url = url;
+        this.position = position;
+        this.page = page;
+    }
+
+    void setFeatures(PageFeatures features) {
+        this.features = features;
+    }
+
+    void setText(CharSequence text) {
+        this.text = text;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return features of the page; element counts are only there if
+     * {@link PageArtifact#ELEMENT_COUNTS} was required.
+     */
+    public PageFeatures getFeatures() {
+        if (features == null) {
+            throw new IllegalStateException("Page " + url + " not parsed");
+        }
+        return features;
+    }
+
+    /**
+     * @return body text; only valid during extraction, as the buffer is
+     * reused for the next page.
+     */
+    public CharSequence getText() {
+        if (text == null) {
+            throw new IllegalStateException(
+                    "Text of " + url + " not collected");
+        }
+        return text;
+    }
+}
@@ -0,0 +1,240 @@
+package ch02.crawl;
+
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Count the pages where {@link HtmlFeatureScanner} computes other features
+ * than the Jsoup DOM the feature extractors used to build, and by how much
+ * the body text lengths differ, then compare their throughput and the bytes
+ * they allocate per page.  The pages are the
+ * crawled search results in {@code urls.db}; without a database, generated
+ * pages are used instead.  Usage: {@code PageFeatureBenchmark [rounds]}.
+ */
+public class PageFeatureBenchmark {
+
+    private static final int MAX_DIFFERENCES_SHOWN = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        Map<String, String> pages = loadCrawledPages();
+        if (pages.isEmpty()) {
+            System.out.println("No crawled pages, using generated pages");
+            pages = createPages(1000, 20_000);
+        }
+        List<String> html = new ArrayList<>(pages.values());
+        long bytes = html.stream().mapToLong(String::length).sum();
+        System.out.printf("%d pages, %d KB%n", html.size(), bytes / 1024);
+
+        compare(pages);
+        run("jsoup", html, PageFeatureBenchmark::parse, rounds);
+        run("scanner", html, HtmlFeatureScanner::scan, rounds);
+    }
+
+    /**
+     * Compute the features the way the extractors did, with a Jsoup DOM.
+     */
+    private static PageFeatures parse(String html) {
+        Document document = Jsoup.parse(html);
+        Element body = document.body();
+        if (body == null) {
+            return new PageFeatures(document.title(), 0, 0, 0, false);
+        }
+        return new PageFeatures(document.title(), body.text().length(),
+                body.select("a").size(),
+                body.select("h1,h2,h3,h4,h5,h6").size(), true);
+    }
+
+    private static void compare(Map<String, String> pages) {
+        int title = 0;
+        int hasBody = 0;
+        int bodyContentLength = 0;
+        int numberOfLinks = 0;
+        int numberOfHeaders = 0;
+        long lengthDifference = 0;
+        int shown = 0;
+        for (Map.Entry<String, String> page : pages.entrySet()) {
+            PageFeatures expected = parse(page.getValue());
+            PageFeatures actual = HtmlFeatureScanner.scan(page.getValue());
+            if (expected.equals(actual)) {
+                continue;
+            }
+            title += expected.getTitle().equals(actual.getTitle()) ? 0 : 1;
+            hasBody += expected.hasBody() == actual.hasBody() ? 0 : 1;
+            bodyContentLength += expected.getBodyContentLength()
+                    == actual.getBodyContentLength() ? 0 : 1;
+            lengthDifference += Math.abs(expected.getBodyContentLength()
+                    - actual.getBodyContentLength());
+            numberOfLinks += expected.getNumberOfLinks()
+                    == actual.getNumberOfLinks() ? 0 : 1;
+            numberOfHeaders += expected.getNumberOfHeaders()
+                    == actual.getNumberOfHeaders() ? 0 : 1;
+            if (shown++ < MAX_DIFFERENCES_SHOWN) {
+                System.out.printf("%s%n  jsoup:   %s%n  scanner: %s%n",
+                        page.getKey(), expected, actual);
+            }
+        }
+        System.out.printf("Mismatches in %d pages: title=%d, hasBody=%d, "
+                        + "bodyContentLength=%d, numberOfLinks=%d, "
+                        + "numberOfHeaders=%d; body text lengths differ by "
+                        + "%d characters in all%n",
+                pages.size(), title, hasBody, bodyContentLength,
+                numberOfLinks, numberOfHeaders, lengthDifference);
+    }
+
+    private static void run(String name, List<String> pages,
+                            Function<String, PageFeatures> extractor,
+                            int rounds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up
+        long checksum = extract(pages, extractor);
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (int r = 0; r < rounds; r++) {
+            checksum += extract(pages, extractor);
+        }
+        long nanos = Math.max(1, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        long count = (long) rounds * pages.size();
+        System.out.printf("%-8s %9.0f pages/s %12.0f bytes/page "
+                        + "(checksum %d)%n", name, 1e9 * count / nanos,
+                (double) allocated / count, checksum);
+    }
+
+    private static long extract(List<String> pages,
+                                Function<String, PageFeatures> extractor) {
+        long checksum = 0;
+        for (String page : pages) {
+            PageFeatures features = extractor.apply(page);
+            checksum += features.getBodyContentLength()
+                    + features.getNumberOfLinks()
+                    + features.getNumberOfHeaders();
+        }
+        return checksum;
+    }
+
+    /**
+     * Read the pages of the search results from the URL repository, if
+     * there is one.
+     */
+    private static Map<String, String> loadCrawledPages() throws Exception {
+        if (!new File(UrlRepository.DB_FILE).exists()) {
+            return new LinkedHashMap<>();
+        }
+        List<String> urls = new ArrayList<>();
+        for (String line : FileUtils.readLines(
+                new File("data/search-results.txt"), StandardCharsets.UTF_8)) {
+            urls.add("http://" + line.split("\t")[2]);
+        }
+        for (String line : FileUtils.readLines(
+                new File("data/bing-search-results.txt"),
+                StandardCharsets.UTF_8)) {
+            urls.add(line.split("\t")[3]);
+        }
+        try (UrlRepository repository = new UrlRepository()) {
+            return repository.getAll(urls);
+        }
+    }
+
+    /**
+     * Create pages with the markup Jsoup has to repair on real sites:
+     * scripts hiding in comments, unclosed paragraphs and list items,
+     * links broken across blocks and tables without rows or closing tags.
+     */
+    private static Map<String, String> createPages(int count, int pageSize) {
+        String[] words = {"shoes", "basketball", "running", "sale", "new",
+                "men", "women", "free", "shipping", "&amp;", "&nbsp;",
+                "caf&eacute;", "&#8212;", "size", "10", "color"};
+        Map<String, String> pages = new LinkedHashMap<>();
+        Random random = new Random(42);
+        for (int p = 0; p < count; p++) {
+            StringBuilder sb = new StringBuilder(pageSize + 1024);
+            sb.append("<!DOCTYPE html>\n<html lang=\"en\"><head>\n")
+                    .append("<meta charset=\"utf-8\">\n<title>  Page ")
+                    .append(p).append(" &ndash; ")
+                    .append(words[random.nextInt(words.length)])
+                    .append("\n</title>\n<style>body { margin: 0 }</style>\n")
+                    .append("<script><!--\nvar s = '<script></script>';\n")
+                    .append("if (a < b && c > d) { x--; }\n//--></script>\n")
+                    .append("</head>\n<body class=\"page\">\n<div id=\"nav\">")
+                    .append("<ul>\n");
+            for (int i = 0; i < 8; i++) {
+                sb.append("<li><a href=\"/c/").append(i).append("\">")
+                        .append(words[random.nextInt(words.length)])
+                        .append("</a>\n");
+            }
+            sb.append("</ul></div>\n");
+            int section = 0;
+            while (sb.length() < pageSize) {
+                switch (random.nextInt(8)) {
+                    case 0:
+                        sb.append("<h").append(1 + random.nextInt(4))
+                                .append(">Section ").append(section++)
+                                .append("</h2>\n");
+                        break;
+                    case 1:
+                        sb.append("<p>Paragraph with <a href=\"/p\">a <b>link")
+                                .append("</p>")
+                                .append(words[random.nextInt(words.length)])
+                                .append("</b></a> after it\n");
+                        break;
+                    case 2:
+                        sb.append("<table border=0><tr><td>");
+                        for (int i = 0; i < 4; i++) {
+                            sb.append(words[random.nextInt(words.length)])
+                                    .append("<td><a href=\"#\">")
+                                    .append(i).append("</a>");
+                        }
+                        sb.append("<tr><th>Total</th><td>")
+                                .append(random.nextInt(1000))
+                                .append("</table>\n");
+                        break;
+                    case 3:
+                        sb.append("<form action=\"/s\"><select name=\"q\">")
+                                .append("<option>One<option>Two</select>")
+                                .append("<input type=\"text\"><br></form>\n");
+                        break;
+                    case 4:
+                        sb.append("<pre>\n  code  block\n\tend</pre>\n");
+                        break;
+                    case 5:
+                        sb.append("<!-- ").append(p).append(" -->\n");
+                        break;
+                    default:
+                        sb.append("<p class=\"text\">");
+                        for (int i = 0; i < 20; i++) {
+                            sb.append(words[random.nextInt(words.length)])
+                                    .append(i % 7 == 6 ? "\n" : " ");
+                        }
+                        sb.append("<span>").append(random.nextInt())
+                                .append("</span></p>\n");
+                        break;
+                }
+            }
+            sb.append("<div id=\"footer\">&copy; 2019</div>\n</body>\n</html>");
+            pages.put("generated-" + p, sb.toString());
+        }
+        return pages;
+    }
+}
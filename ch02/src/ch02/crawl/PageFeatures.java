@@ -0,0 +1,125 @@
+package ch02.crawl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Features of a crawled HTML page used to rank it: the title, the length of
+ * the body text, and the number of links and headers in the body.
+ * Optionally, the number of elements of each tag in the body.
+ */
+public class PageFeatures {
+
+    private final String title;
+    private final int bodyContentLength;
+    private final int numberOfLinks;
+    private final int numberOfHeaders;
+    private final boolean hasBody;
+    private final Map<String, Integer> elementCounts;
+
+    public PageFeatures(String title, int bodyContentLength,
+                        int numberOfLinks, int numberOfHeaders,
+                        boolean hasBody) {
+        this(title, bodyContentLength, numberOfLinks, numberOfHeaders, hasBody,
+                Collections.emptyMap());
+    }
+
+    public PageFeatures(String title, int bodyContentLength,
+                        int numberOfLinks, int numberOfHeaders,
+                        boolean hasBody, Map<String, Integer> elementCounts) {
+        this.title = title;
+        this.bodyContentLength = bodyContentLength;
+        this.numberOfLinks = numberOfLinks;
+        this.numberOfHeaders = numberOfHeaders;
+        this.hasBody = hasBody;
+        this.elementCounts = Collections.unmodifiableMap(elementCounts);
+    }
+
+    /**
+     * @return whitespace-normalized title; empty if the page has none.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return length of the whitespace-normalized body text.
+     */
+    public int getBodyContentLength() {
+        return bodyContentLength;
+    }
+
+    public int getNumberOfLinks() {
+        return numberOfLinks;
+    }
+
+    public int getNumberOfHeaders() {
+        return numberOfHeaders;
+    }
+
+    /**
+     * @return False for frameset documents, which have no body.
+     */
+    public boolean hasBody() {
+        return hasBody;
+    }
+
+    /**
+     * @return number of elements in the body by tag name; empty unless
+     * elements were counted.
+     */
+    public Map<String, Integer> getElementCounts() {
+        return elementCounts;
+    }
+
+    /**
+     * @param tagName lower case tag name.
+     * @return number of elements with the tag in the body; 0 unless elements
+     * were counted.
+     */
+    public int getElementCount(String tagName) {
+        return elementCounts.getOrDefault(tagName, 0);
+    }
+
+    /**
+     * Check whether the title contains the query, ignoring case.
+     *
+     * @param query search query.
+     * @return True if the query is part of the title.
+     */
+    public boolean isQueryInTitle(String query) {
+        return title.toLowerCase().contains(query.toLowerCase());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PageFeatures that = (PageFeatures) o;
+        return bodyContentLength == that.bodyContentLength
+                && numberOfLinks == that.numberOfLinks
+                && numberOfHeaders == that.numberOfHeaders
+                && hasBody == that.hasBody
+                && title.equals(that.title)
+                && elementCounts.equals(that.elementCounts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, bodyContentLength, numberOfLinks,
+                numberOfHeaders, hasBody, elementCounts);
+    }
+
+    @Override
+    public String toString() {
+        return "PageFeatures [title=" + title + ", bodyContentLength="
+                + bodyContentLength + ", numberOfLinks=" + numberOfLinks
+                + ", numberOfHeaders=" + numberOfHeaders + ", hasBody="
+                + hasBody + "]";
+    }
+}
@@ -0,0 +1,724 @@
+package ch02.crawl;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranked pages stored by column in a compact binary file, read by mapping
+ * the file into memory.  Numeric columns are returned as primitive arrays
+ * with bulk copies, without parsing or boxing, so loading a dataset takes
+ * milliseconds where parsing its JSON lines into beans takes seconds.
+ * <p>
+ * The file is little endian.  A header with the number of rows and the
+ * schema, the name, type, offset and length of every column, is followed by
+ * the columns, each aligned to 8 bytes:
+ * <ul>
+ * <li>{@link Type#INT}: one int per row;</li>
+ * <li>{@link Type#DOUBLE}: one double per row;</li>
+ * <li>{@link Type#BOOLEAN}: one byte per row, 0 or 1;</li>
+ * <li>{@link Type#STRING}: dictionary encoded, the dictionary size n, one
+ * int code per row (-1 for null), n + 1 offsets into the UTF-8 bytes of the
+ * dictionary, then the bytes.</li>
+ * </ul>
+ * Instances are immutable and safe to use from several threads.
+ */
+public class RankedPageColumns {
+
+    /**
+     * Type of a column, shared with {@link ch02.ColumnFrame}.
+     */
+    public enum Type {
+        INT, DOUBLE, BOOLEAN, STRING
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int MAGIC = 0x4c435052; // "RPCL"
+    private static final int VERSION = 1;
+
+    /**
+     * Location of a column in the file.
+     */
+    private static class Column {
+        private final Type type;
+        private final int offset;
+        private final int length;
+
+        Column(Type type, int offset, int length) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final Map<String, Column> columns;
+
+    private RankedPageColumns(ByteBuffer buffer, int rows,
+                              Map<String, Column> columns) {
+        this.buffer = buffer;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Map a file into memory and read its schema.  The columns are read when
+     * requested.
+     *
+     * @param path file written by a {@link Writer}.
+     * @return the columns of the file.
+     * @throws IOException if the file can't be read or has another format.
+     */
+    public static RankedPageColumns open(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Ranked page columns file larger than "
+                        + Integer.MAX_VALUE + " bytes: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a ranked page columns file: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of "
+                    + path);
+        }
+        int rows = buffer.getInt();
+        int count = buffer.getInt();
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            int ordinal = buffer.get();
+            if (ordinal < 0 || ordinal >= TYPES.length) {
+                throw new IOException("Unknown column type " + ordinal
+                        + " in " + path);
+            }
+            long offset = buffer.getLong();
+            long length = buffer.getLong();
+            if (offset < 0 || length < 0 || offset > Integer.MAX_VALUE
+                    || length > Integer.MAX_VALUE) {
+                throw new IOException("Column out of the int range in "
+                        + path);
+            }
+            if (offset + length > buffer.capacity()) {
+                throw new IOException("Truncated ranked page columns file: "
+                        + path);
+            }
+            Type type = TYPES[ordinal];
+            columns.put(new String(name, StandardCharsets.UTF_8),
+                    new Column(type, (int) offset, (int) length));
+        }
+        return new RankedPageColumns(buffer, rows, columns);
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return names of the columns, in file order.
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(new ArrayList<>(columns.keySet()));
+    }
+
+    /**
+     * @param name of a column.
+     * @return type of the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    public Type getType(String name) {
+        return column(name).type;
+    }
+
+    /**
+     * @param name of an int or boolean column.
+     * @return values of the column; booleans as 0 or 1.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public int[] getInts(String name) {
+        Column column = column(name);
+        int[] values = new int[rows];
+        if (column.type == Type.INT) {
+            ints(column).get(values);
+        } else if (column.type == Type.BOOLEAN) {
+            ByteBuffer bytes = slice(column);
+            for (int i = 0; i < rows; i++) {
+                values[i] = bytes.get(i);
+            }
+        } else {
+            throw wrongType(name, column);
+        }
+        return values;
+    }
+
+    /**
+     * @param name of a numeric or boolean column.
+     * @return values of the column; booleans as 0 or 1.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public double[] getDoubles(String name) {
+        Column column = column(name);
+        double[] values = new double[rows];
+        switch (column.type) {
+            case DOUBLE:
+                slice(column).asDoubleBuffer().get(values);
+                break;
+            case INT:
+                IntBuffer ints = ints(column);
+                for (int i = 0; i < rows; i++) {
+                    values[i] = ints.get(i);
+                }
+                break;
+            case BOOLEAN:
+                ByteBuffer bytes = slice(column);
+                for (int i = 0; i < rows; i++) {
+                    values[i] = bytes.get(i);
+                }
+                break;
+            default:
+                throw wrongType(name, column);
+        }
+        return values;
+    }
+
+    /**
+     * @param name of a boolean column.
+     * @return values of the column.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public boolean[] getBooleans(String name) {
+        Column column = column(name);
+        if (column.type != Type.BOOLEAN) {
+            throw wrongType(name, column);
+        }
+        ByteBuffer bytes = slice(column);
+        boolean[] values = new boolean[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = bytes.get(i) != 0;
+        }
+        return values;
+    }
+
+    /**
+     * View an int column without copying it.
+     *
+     * @param name of an int column.
+     * @return read-only view of the values in the mapped file.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public IntBuffer getIntBuffer(String name) {
+        Column column = column(name);
+        if (column.type != Type.INT) {
+            throw wrongType(name, column);
+        }
+        return ints(column);
+    }
+
+    /**
+     * @param name of a string column.
+     * @return distinct values of the column, indexed by code.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public String[] getDictionary(String name) {
+        Column column = column(name);
+        if (column.type != Type.STRING) {
+            throw wrongType(name, column);
+        }
+        ByteBuffer data = slice(column);
+        int size = data.getInt(0);
+        int offsets = 4 + 4 * rows;
+        int bytes = offsets + 4 * (size + 1);
+        String[] dictionary = new String[size];
+        byte[] utf8 = new byte[data.getInt(offsets + 4 * size)];
+        data.position(bytes);
+        data.get(utf8);
+        for (int i = 0; i < size; i++) {
+            int start = data.getInt(offsets + 4 * i);
+            int end = data.getInt(offsets + 4 * (i + 1));
+            dictionary[i] = new String(utf8, start, end - start,
+                    StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    /**
+     * @param name of a string column.
+     * @return dictionary code of each row, -1 for null.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public int[] getCodes(String name) {
+        Column column = column(name);
+        if (column.type != Type.STRING) {
+            throw wrongType(name, column);
+        }
+        ByteBuffer data = slice(column);
+        data.position(4);
+        int[] codes = new int[rows];
+        data.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(codes);
+        return codes;
+    }
+
+    /**
+     * @param name of a string column.
+     * @return values of the column; rows with the same value share the
+     * same string.
+     * @throws IllegalArgumentException if there is no such column, or it
+     *                                  has another type.
+     */
+    public String[] getStrings(String name) {
+        String[] dictionary = getDictionary(name);
+        int[] codes = getCodes(name);
+        String[] values = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = codes[i] < 0 ? null : dictionary[codes[i]];
+        }
+        return values;
+    }
+
+    private Column column(String name) {
+        Column column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No column " + name);
+        }
+        return column;
+    }
+
+    private ByteBuffer slice(Column column) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(column.offset).limit(column.offset + column.length);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private IntBuffer ints(Column column) {
+        return slice(column).asIntBuffer();
+    }
+
+    /**
+     * Dictionary encode strings.
+     *
+     * @param values     strings to encode; may contain nulls.
+     * @param dictionary list the distinct values are appended to, in order
+     *                   of first appearance.
+     * @return code of each value, its index in the dictionary, -1 for null.
+     */
+    public static int[] encode(String[] values, List<String> dictionary) {
+        Map<String, Integer> codes = new HashMap<>();
+        int[] rowCodes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                rowCodes[i] = -1;
+                continue;
+            }
+            Integer code = codes.get(values[i]);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(values[i], code);
+                dictionary.add(values[i]);
+            }
+            rowCodes[i] = code;
+        }
+        return rowCodes;
+    }
+
+    private static IllegalArgumentException wrongType(String name,
+                                                      Column column) {
+        return new IllegalArgumentException("Column " + name + " is "
+                + column.type);
+    }
+
+    /**
+     * Write the search result columns {@code url}, {@code position} and
+     * {@code page} and the features of the table, flags as boolean columns.
+     *
+     * @param path  file to write.
+     * @param table features of the ranked pages.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Path path, FeatureTable table)
+            throws IOException {
+        int size = table.size();
+        String[] urls = new String[size];
+        int[] positions = new int[size];
+        int[] pages = new int[size];
+        for (int r = 0; r < size; r++) {
+            urls[r] = table.getUrl(r);
+            positions[r] = table.getPosition(r);
+            pages[r] = table.getPage(r);
+        }
+        Writer writer = new Writer(size).addStrings("url", urls)
+                .addInts("position", positions).addInts("page", pages);
+        for (FeatureExtractor feature : table.getFeatures()) {
+            int[] values = table.getColumn(feature.getName());
+            if (feature.isFlag()) {
+                boolean[] flags = new boolean[size];
+                for (int r = 0; r < size; r++) {
+                    flags[r] = values[r] != 0;
+                }
+                writer.addBooleans(feature.getName(), flags);
+            } else {
+                writer.addInts(feature.getName(), values);
+            }
+        }
+        writer.write(path);
+    }
+
+    /**
+     * Convert a JSON lines file of ranked pages.  Every key becomes a
+     * column, typed by its values: booleans, strings, ints, or doubles if
+     * any value isn't an int.  Keys missing from a line are 0, false or
+     * null.
+     *
+     * @param json   JSON lines file to read.
+     * @param output file to write.
+     * @return number of rows.
+     * @throws IOException if a file can't be read or written.
+     */
+    public static int convert(Path json, Path output) throws IOException {
+        Map<String, ColumnBuilder> builders = new LinkedHashMap<>();
+        int rows = 0;
+        try (BufferedReader reader = Files.newBufferedReader(json,
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                for (Map.Entry<String, Object> e :
+                        JSON.std.mapFrom(line).entrySet()) {
+                    builders.computeIfAbsent(e.getKey(), ColumnBuilder::new)
+                            .set(rows, e.getValue());
+                }
+                rows++;
+            }
+        }
+        Writer writer = new Writer(rows);
+        for (ColumnBuilder builder : builders.values()) {
+            builder.addTo(writer, rows);
+        }
+        writer.write(output);
+        return rows;
+    }
+
+    /**
+     * Convert {@code ranked-pages.json}, or the JSON lines file of the first
+     * argument, to {@code ranked-pages.cols}, or the second argument.
+     */
+    public static void main(String[] args) throws IOException {
+        Path json = Paths.get(args.length > 0 ? args[0]
+                : "ranked-pages.json");
+        Path output = Paths.get(args.length > 1 ? args[1]
+                : "ranked-pages.cols");
+        int rows = convert(json, output);
+        System.out.println("Converted " + rows + " ranked pages to "
+                + output);
+    }
+
+    /**
+     * Values of one column of a JSON lines file, in a growing primitive
+     * array.
+     */
+    private static class ColumnBuilder {
+        private final String name;
+        private Type type;
+        private int[] ints = new int[0];
+        private double[] doubles = new double[0];
+        private boolean[] booleans = new boolean[0];
+        private String[] strings = new String[0];
+
+        ColumnBuilder(String name) {
+            this.name = name;
+        }
+
+        void set(int row, Object value) {
+            if (value == null) {
+                return;
+            }
+            Type valueType = typeOf(value);
+            if (type == null) {
+                type = valueType;
+            } else if (type == Type.INT && valueType == Type.DOUBLE) {
+                doubles = new double[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    doubles[i] = ints[i];
+                }
+                ints = new int[0];
+                type = Type.DOUBLE;
+            } else if (type != valueType
+                    && !(type == Type.DOUBLE && valueType == Type.INT)) {
+                throw new IllegalArgumentException("Column " + name
+                        + " has " + type + " and " + valueType + " values");
+            }
+            switch (type) {
+                case INT:
+                    ints = grow(ints, row);
+                    ints[row] = ((Number) value).intValue();
+                    break;
+                case DOUBLE:
+                    doubles = grow(doubles, row);
+                    doubles[row] = ((Number) value).doubleValue();
+                    break;
+                case BOOLEAN:
+                    booleans = grow(booleans, row);
+                    booleans[row] = (Boolean) value;
+                    break;
+                default:
+                    strings = grow(strings, row);
+                    strings[row] = (String) value;
+            }
+        }
+
+        private static Type typeOf(Object value) {
+            if (value instanceof Boolean) {
+                return Type.BOOLEAN;
+            } else if (value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                return Type.INT;
+            } else if (value instanceof Number) {
+                return Type.DOUBLE;
+            } else {
+                return Type.STRING;
+            }
+        }
+
+        private static int[] grow(int[] a, int row) {
+            return row < a.length ? a
+                    : Arrays.copyOf(a, Math.max(16, Math.max(row + 1,
+                    2 * a.length)));
+        }
+
+        private static double[] grow(double[] a, int row) {
+            return row < a.length ? a
+                    : Arrays.copyOf(a, Math.max(16, Math.max(row + 1,
+                    2 * a.length)));
+        }
+
+        private static boolean[] grow(boolean[] a, int row) {
+            return row < a.length ? a
+                    : Arrays.copyOf(a, Math.max(16, Math.max(row + 1,
+                    2 * a.length)));
+        }
+
+        private static String[] grow(String[] a, int row) {
+            return row < a.length ? a
+                    : Arrays.copyOf(a, Math.max(16, Math.max(row + 1,
+                    2 * a.length)));
+        }
+
+        void addTo(Writer writer, int rows) {
+            if (type == null) {
+                type = Type.STRING;
+            }
+            switch (type) {
+                case INT:
+                    writer.addInts(name, Arrays.copyOf(ints, rows));
+                    break;
+                case DOUBLE:
+                    writer.addDoubles(name, Arrays.copyOf(doubles, rows));
+                    break;
+                case BOOLEAN:
+                    writer.addBooleans(name, Arrays.copyOf(booleans, rows));
+                    break;
+                default:
+                    writer.addStrings(name, Arrays.copyOf(strings, rows));
+            }
+        }
+    }
+
+    /**
+     * Collect columns of the same length and write them to a file.
+     */
+    public static class Writer {
+        private final int rows;
+        private final Map<String, Type> types = new LinkedHashMap<>();
+        private final Map<String, ByteBuffer> data = new HashMap<>();
+
+        /**
+         * @param rows number of rows of every column.
+         */
+        public Writer(int rows) {
+            this.rows = rows;
+        }
+
+        public Writer addInts(String name, int[] values) {
+            ByteBuffer buffer = allocate(name, values.length, 4);
+            buffer.asIntBuffer().put(values);
+            return add(name, Type.INT, buffer);
+        }
+
+        public Writer addDoubles(String name, double[] values) {
+            ByteBuffer buffer = allocate(name, values.length, 8);
+            buffer.asDoubleBuffer().put(values);
+            return add(name, Type.DOUBLE, buffer);
+        }
+
+        public Writer addBooleans(String name, boolean[] values) {
+            ByteBuffer buffer = allocate(name, values.length, 1);
+            for (int i = 0; i < values.length; i++) {
+                buffer.put(i, (byte) (values[i] ? 1 : 0));
+            }
+            return add(name, Type.BOOLEAN, buffer);
+        }
+
+        /**
+         * Add a column of strings, dictionary encoded.
+         *
+         * @param name   of the column.
+         * @param values of the column; may contain nulls.
+         * @return this writer.
+         */
+        public Writer addStrings(String name, String[] values) {
+            checkLength(name, values.length);
+            List<String> strings = new ArrayList<>();
+            int[] rowCodes = encode(values, strings);
+            List<byte[]> dictionary = new ArrayList<>(strings.size());
+            long bytes = 0;
+            for (String value : strings) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                dictionary.add(utf8);
+                bytes += utf8.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(checkSize(name,
+                    4 + 4L * values.length + 4L * (dictionary.size() + 1)
+                            + bytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(dictionary.size());
+            buffer.asIntBuffer().put(rowCodes);
+            buffer.position(4 + 4 * values.length);
+            int offset = 0;
+            for (byte[] utf8 : dictionary) {
+                buffer.putInt(offset);
+                offset += utf8.length;
+            }
+            buffer.putInt(offset);
+            for (byte[] utf8 : dictionary) {
+                buffer.put(utf8);
+            }
+            buffer.flip();
+            return add(name, Type.STRING, buffer);
+        }
+
+        private ByteBuffer allocate(String name, int length, int width) {
+            checkLength(name, length);
+            return ByteBuffer.allocate(checkSize(name, (long) length * width))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static int checkSize(String name, long size) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Column " + name
+                        + " is larger than " + Integer.MAX_VALUE + " bytes");
+            }
+            return (int) size;
+        }
+
+        private void checkLength(String name, int length) {
+            if (length != rows) {
+                throw new IllegalArgumentException("Column " + name
+                        + " has " + length + " rows instead of " + rows);
+            }
+        }
+
+        private Writer add(String name, Type type, ByteBuffer buffer) {
+            if (types.put(name, type) != null) {
+                throw new IllegalArgumentException("Duplicate column "
+                        + name);
+            }
+            data.put(name, buffer);
+            return this;
+        }
+
+        /**
+         * Write the columns, replacing the file.
+         *
+         * @param path file to write.
+         * @throws IOException if the file can't be written.
+         */
+        public void write(Path path) throws IOException {
+            List<byte[]> names = new ArrayList<>();
+            int headerSize = 16;
+            for (String name : types.keySet()) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                names.add(utf8);
+                headerSize += 4 + utf8.length + 1 + 8 + 8;
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows)
+                    .putInt(types.size());
+            long offset = align(headerSize);
+            int i = 0;
+            for (Map.Entry<String, Type> e : types.entrySet()) {
+                int length = data.get(e.getKey()).limit();
+                header.putInt(names.get(i).length).put(names.get(i))
+                        .put((byte) e.getValue().ordinal())
+                        .putLong(offset).putLong(length);
+                offset = align(offset + length);
+                i++;
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Columns larger than "
+                        + Integer.MAX_VALUE + " bytes for " + path);
+            }
+            header.flip();
+
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                for (String name : types.keySet()) {
+                    pad(channel);
+                    writeFully(channel, data.get(name).duplicate());
+                }
+            }
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+
+        private static void pad(FileChannel channel) throws IOException {
+            long position = channel.position();
+            writeFully(channel, ByteBuffer.allocate(
+                    (int) (align(position) - position)));
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer)
+                throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
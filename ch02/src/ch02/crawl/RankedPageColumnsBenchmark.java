@@ -0,0 +1,115 @@
+package ch02.crawl;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compare loading ranked pages from JSON lines into beans, the way the
+ * chapter 3 and 4 readers do, with loading all the columns of the same
+ * pages from a {@link RankedPageColumns} file.  The columns are checked
+ * against the beans.  Usage:
+ * {@code RankedPageColumnsBenchmark [numberOfPages] [rounds]}.
+ */
+public class RankedPageColumnsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numberOfPages = args.length > 0 ? Integer.parseInt(args[0])
+                : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File dir = Files.createTempDirectory("ranked-pages").toFile();
+        try {
+            Path json = new File(dir, "ranked-pages.json").toPath();
+            Path columns = new File(dir, "ranked-pages.cols").toPath();
+            RankedPageWriter.write(json, RankedPageWriterBenchmark
+                    .createPages(numberOfPages), true);
+            run("convert", () -> RankedPageColumns.convert(json, columns));
+            System.out.printf("JSON %d bytes, columns %d bytes%n",
+                    Files.size(json), Files.size(columns));
+
+            System.out.println("Same pages: " + check(readBeans(json),
+                    RankedPageColumns.open(columns)));
+            for (int r = 0; r < rounds; r++) {
+                run("json beans", () -> readBeans(json).size());
+                run("columns", () -> {
+                    RankedPageColumns pages = RankedPageColumns.open(columns);
+                    for (String name : pages.getColumnNames()) {
+                        if (pages.getType(name)
+                                == RankedPageColumns.Type.STRING) {
+                            pages.getCodes(name);
+                        } else {
+                            pages.getDoubles(name);
+                        }
+                    }
+                    return pages.getRowCount();
+                });
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static List<RankedPage> readBeans(Path json) throws IOException {
+        try (Stream<String> lines = Files.lines(json)) {
+            return lines.map(line -> {
+                try {
+                    return JSON.std.beanFrom(RankedPage.class, line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        }
+    }
+
+    private static boolean check(List<RankedPage> beans,
+                                 RankedPageColumns columns) {
+        String[] urls = columns.getStrings("url");
+        int[] positions = columns.getInts("position");
+        int[] pages = columns.getInts("page");
+        int[] titleLengths = columns.getInts("titleLength");
+        int[] bodyContentLengths = columns.getInts("bodyContentLength");
+        boolean[] queryInTitle = columns.getBooleans("queryInTitle");
+        int[] headers = columns.getInts("numberOfHeaders");
+        int[] links = columns.getInts("numberOfLinks");
+        if (columns.getRowCount() != beans.size()) {
+            return false;
+        }
+        for (int i = 0; i < beans.size(); i++) {
+            RankedPage page = beans.get(i);
+            if (!page.getUrl().equals(urls[i])
+                    || page.getPosition() != positions[i]
+                    || page.getPage() != pages[i]
+                    || page.getTitleLength() != titleLengths[i]
+                    || page.getBodyContentLength() != bodyContentLengths[i]
+                    || page.isQueryInTitle() != queryInTitle[i]
+                    || page.getNumberOfHeaders() != headers[i]
+                    || page.getNumberOfLinks() != links[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void run(String name, Benchmark benchmark)
+            throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int rows = benchmark.run();
+        long millis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        System.out.printf("%-12s %8d rows in %6d ms%n", name, rows, millis);
+    }
+
+    private interface Benchmark {
+        int run() throws Exception;
+    }
+}
@@ -0,0 +1,611 @@
+package ch02.crawl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Read a JSON lines file of ranked pages, such as {@code ranked-pages.json},
+ * straight into primitive column arrays.  The file is split into chunks on
+ * line boundaries, and the chunks are parsed in parallel from their bytes
+ * with a parser dedicated to the {@link RankedPage} schema: no line is
+ * decoded to a {@code String}, no bean is introspected, and only the URLs
+ * are allocated.  Keys that aren't part of the schema, such as extra
+ * features, are skipped; missing keys are 0, false or null, as for beans.
+ */
+public class RankedPageJsonReader {
+
+    // Large enough to amortize the reads, small enough to keep all threads
+    // busy until the end
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final int URL = 0;
+    private static final int POSITION = 1;
+    private static final int PAGE = 2;
+    private static final int TITLE_LENGTH = 3;
+    private static final int BODY_CONTENT_LENGTH = 4;
+    private static final int QUERY_IN_TITLE = 5;
+    private static final int NUMBER_OF_HEADERS = 6;
+    private static final int NUMBER_OF_LINKS = 7;
+    private static final byte[][] KEYS = {
+            utf8("url"), utf8("position"), utf8("page"), utf8("titleLength"),
+            utf8("bodyContentLength"), utf8("queryInTitle"),
+            utf8("numberOfHeaders"), utf8("numberOfLinks")};
+
+    private RankedPageJsonReader() {
+    }
+
+    /**
+     * Read all the ranked pages of the file.
+     *
+     * @param path JSON lines file, one ranked page object per line.
+     * @return the pages, in file order.
+     * @throws IOException if the file can't be read or isn't valid JSON.
+     */
+    public static Pages read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel, CHUNK_SIZE);
+            try {
+                return Pages.concat(chunks.parallelStream()
+                        .map(chunk -> parse(channel, chunk[0], chunk[1]))
+                        .collect(Collectors.toList()));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Split the file into chunks of about the given size that end after a
+     * line break, or at the end of the file.
+     *
+     * @return start and end offsets of the chunks.
+     */
+    private static List<long[]> split(FileChannel channel, int chunkSize)
+            throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end = Math.min(size, end + Math.max(read, 0));
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static Pages parse(FileChannel channel, long start, long end) {
+        byte[] bytes = new byte[Math.toIntExact(end - start)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("File shrank while reading");
+                }
+            }
+            return new Parser(bytes, start).parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ranked pages stored as one array per property, in file order.
+     */
+    public static class Pages {
+        private final int size;
+        private final String[] urls;
+        private final int[] positions;
+        private final int[] pages;
+        private final int[] titleLengths;
+        private final int[] bodyContentLengths;
+        private final boolean[] queryInTitle;
+        private final int[] numberOfHeaders;
+        private final int[] numberOfLinks;
+
+        Pages(int size, String[] urls, int[] positions, int[] pages,
+              int[] titleLengths, int[] bodyContentLengths,
+              boolean[] queryInTitle, int[] numberOfHeaders,
+              int[] numberOfLinks) {
+            this.size = size;
+            this.urls = urls;
+            this.positions = positions;
+            this.pages = pages;
+            this.titleLengths = titleLengths;
+            this.bodyContentLengths = bodyContentLengths;
+            this.queryInTitle = queryInTitle;
+            this.numberOfHeaders = numberOfHeaders;
+            this.numberOfLinks = numberOfLinks;
+        }
+
+        private static Pages concat(List<Pages> parts) {
+            int size = parts.stream().mapToInt(Pages::size).sum();
+            Pages all = new Pages(size, new String[size], new int[size],
+                    new int[size], new int[size], new int[size],
+                    new boolean[size], new int[size], new int[size]);
+            int offset = 0;
+            for (Pages part : parts) {
+                int n = part.size;
+                System.arraycopy(part.urls, 0, all.urls, offset, n);
+                System.arraycopy(part.positions, 0, all.positions, offset, n);
+                System.arraycopy(part.pages, 0, all.pages, offset, n);
+                System.arraycopy(part.titleLengths, 0, all.titleLengths,
+                        offset, n);
+                System.arraycopy(part.bodyContentLengths, 0,
+                        all.bodyContentLengths, offset, n);
+                System.arraycopy(part.queryInTitle, 0, all.queryInTitle,
+                        offset, n);
+                System.arraycopy(part.numberOfHeaders, 0, all.numberOfHeaders,
+                        offset, n);
+                System.arraycopy(part.numberOfLinks, 0, all.numberOfLinks,
+                        offset, n);
+                offset += n;
+            }
+            return all;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return URL of each page; null where the key was missing.
+         */
+        public String[] getUrls() {
+            return urls;
+        }
+
+        public int[] getPositions() {
+            return positions;
+        }
+
+        public int[] getPages() {
+            return pages;
+        }
+
+        public int[] getTitleLengths() {
+            return titleLengths;
+        }
+
+        public int[] getBodyContentLengths() {
+            return bodyContentLengths;
+        }
+
+        public boolean[] getQueryInTitle() {
+            return queryInTitle;
+        }
+
+        public int[] getNumberOfHeaders() {
+            return numberOfHeaders;
+        }
+
+        public int[] getNumberOfLinks() {
+            return numberOfLinks;
+        }
+
+        /**
+         * @return a bean for each page, in order.
+         */
+        public List<RankedPage> toRankedPages() {
+            List<RankedPage> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                RankedPage page = new RankedPage(urls[i], positions[i],
+                        pages[i]);
+                page.setTitleLength(titleLengths[i]);
+                page.setBodyContentLength(bodyContentLengths[i]);
+                page.setQueryInTitle(queryInTitle[i]);
+                page.setNumberOfHeaders(numberOfHeaders[i]);
+                page.setNumberOfLinks(numberOfLinks[i]);
+                result.add(page);
+            }
+            return result;
+        }
+
+        /**
+         * Write the pages as a {@link RankedPageColumns} file, with the
+         * names of the JSON keys.
+         *
+         * @param path file to write.
+         * @throws IOException if the file can't be written.
+         */
+        public void writeColumns(Path path) throws IOException {
+            new RankedPageColumns.Writer(size)
+                    .addInts("bodyContentLength", bodyContentLengths)
+                    .addInts("numberOfHeaders", numberOfHeaders)
+                    .addInts("numberOfLinks", numberOfLinks)
+                    .addInts("page", pages)
+                    .addInts("position", positions)
+                    .addBooleans("queryInTitle", queryInTitle)
+                    .addInts("titleLength", titleLengths)
+                    .addStrings("url", urls)
+                    .write(path);
+        }
+    }
+
+    /**
+     * Parser of the objects of one chunk, collecting the values in growing
+     * arrays.
+     */
+    private static final class Parser {
+        private final byte[] b;
+        private final long offset;
+        private int p;
+
+        private int rows;
+        private String[] urls;
+        private int[] positions;
+        private int[] pages;
+        private int[] titleLengths;
+        private int[] bodyContentLengths;
+        private boolean[] queryInTitle;
+        private int[] numberOfHeaders;
+        private int[] numberOfLinks;
+
+        Parser(byte[] bytes, long offset) {
+            this.b = bytes;
+            this.offset = offset;
+            // Ranked page lines are a little over 100 bytes
+            allocate(bytes.length / 100 + 16);
+        }
+
+        private void allocate(int capacity) {
+            urls = urls == null ? new String[capacity]
+                    : Arrays.copyOf(urls, capacity);
+            positions = grow(positions, capacity);
+            pages = grow(pages, capacity);
+            titleLengths = grow(titleLengths, capacity);
+            bodyContentLengths = grow(bodyContentLengths, capacity);
+            queryInTitle = queryInTitle == null ? new boolean[capacity]
+                    : Arrays.copyOf(queryInTitle, capacity);
+            numberOfHeaders = grow(numberOfHeaders, capacity);
+            numberOfLinks = grow(numberOfLinks, capacity);
+        }
+
+        private static int[] grow(int[] a, int capacity) {
+            return a == null ? new int[capacity] : Arrays.copyOf(a, capacity);
+        }
+
+        Pages parse() throws IOException {
+            while (skipWhitespace()) {
+                if (rows == urls.length) {
+                    allocate(2 * rows);
+                }
+                parseObject();
+                rows++;
+            }
+            return new Pages(rows, Arrays.copyOf(urls, rows),
+                    Arrays.copyOf(positions, rows), Arrays.copyOf(pages, rows),
+                    Arrays.copyOf(titleLengths, rows),
+                    Arrays.copyOf(bodyContentLengths, rows),
+                    Arrays.copyOf(queryInTitle, rows),
+                    Arrays.copyOf(numberOfHeaders, rows),
+                    Arrays.copyOf(numberOfLinks, rows));
+        }
+
+        private void parseObject() throws IOException {
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                p++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                int key = parseKey();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                switch (key) {
+                    case URL:
+                        urls[rows] = parseString();
+                        break;
+                    case POSITION:
+                        positions[rows] = parseInt();
+                        break;
+                    case PAGE:
+                        pages[rows] = parseInt();
+                        break;
+                    case TITLE_LENGTH:
+                        titleLengths[rows] = parseInt();
+                        break;
+                    case BODY_CONTENT_LENGTH:
+                        bodyContentLengths[rows] = parseInt();
+                        break;
+                    case QUERY_IN_TITLE:
+                        queryInTitle[rows] = parseBoolean();
+                        break;
+                    case NUMBER_OF_HEADERS:
+                        numberOfHeaders[rows] = parseInt();
+                        break;
+                    case NUMBER_OF_LINKS:
+                        numberOfLinks[rows] = parseInt();
+                        break;
+                    default:
+                        skipValue();
+                }
+                skipWhitespace();
+                byte c = next();
+                if (c == '}') {
+                    return;
+                } else if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        /**
+         * @return index of the key in {@link #KEYS}, -1 if it isn't one.
+         */
+        private int parseKey() throws IOException {
+            expect('"');
+            int start = p;
+            while (peek() != '"') {
+                if (b[p] == '\\') {
+                    // Escaped keys aren't used by the writers, compare them
+                    // decoded
+                    p = start - 1;
+                    byte[] key = utf8(parseString());
+                    for (int k = 0; k < KEYS.length; k++) {
+                        if (Arrays.equals(key, KEYS[k])) {
+                            return k;
+                        }
+                    }
+                    return -1;
+                }
+                p++;
+            }
+            int end = p++;
+            for (int k = 0; k < KEYS.length; k++) {
+                if (Arrays.equals(b, start, end, KEYS[k], 0, KEYS[k].length)) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        private String parseString() throws IOException {
+            if (peek() == 'n') {
+                expectLiteral("null");
+                return null;
+            }
+            expect('"');
+            int start = p;
+            while (peek() != '"') {
+                if (b[p] == '\\') {
+                    return parseEscapedString(start);
+                }
+                p++;
+            }
+            return new String(b, start, p++ - start, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Decode a string with escapes, from its first byte; the runs of
+         * bytes between escapes are decoded as UTF-8.
+         */
+        private String parseEscapedString(int start) throws IOException {
+            StringBuilder sb = new StringBuilder(p - start + 16);
+            int run = start;
+            while (true) {
+                byte c = peek();
+                if (c == '"') {
+                    sb.append(new String(b, run, p - run,
+                            StandardCharsets.UTF_8));
+                    p++;
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    p++;
+                    continue;
+                }
+                sb.append(new String(b, run, p - run, StandardCharsets.UTF_8));
+                p++;
+                byte e = next();
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append((char) e);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (p + 4 > b.length) {
+                            throw error("Truncated escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(new String(b, p,
+                                    4, StandardCharsets.US_ASCII), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Invalid escape");
+                        }
+                        p += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+                run = p;
+            }
+        }
+
+        /**
+         * Parse an int; a number with a fraction or an exponent is
+         * truncated, and null is 0.
+         *
+         * @throws IOException if the number is out of the int range.
+         */
+        private int parseInt() throws IOException {
+            if (peek() == 'n') {
+                expectLiteral("null");
+                return 0;
+            }
+            int start = p;
+            boolean negative = b[p] == '-';
+            if (negative) {
+                p++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (p < b.length && b[p] >= '0' && b[p] <= '9') {
+                value = value * 10 + (b[p++] - '0');
+                digits++;
+            }
+            if (digits == 0) {
+                throw error("Expected a number");
+            }
+            if (p < b.length && (b[p] == '.' || b[p] == 'e' || b[p] == 'E')
+                    || digits > 18) {
+                while (p < b.length && isNumberByte(b[p])) {
+                    p++;
+                }
+                double number = Double.parseDouble(new String(b, start,
+                        p - start, StandardCharsets.US_ASCII));
+                // Truncation keeps the fraction of the bounds in range
+                if (!(number > Integer.MIN_VALUE - 1.0
+                        && number < Integer.MAX_VALUE + 1.0)) {
+                    throw error("Number out of int range");
+                }
+                return (int) number;
+            }
+            if (value > (negative ? Integer.MAX_VALUE + 1L
+                    : Integer.MAX_VALUE)) {
+                throw error("Number out of int range");
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        private static boolean isNumberByte(byte c) {
+            return c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E'
+                    || c == '+' || c == '-';
+        }
+
+        private boolean parseBoolean() throws IOException {
+            switch (peek()) {
+                case 't':
+                    expectLiteral("true");
+                    return true;
+                case 'f':
+                    expectLiteral("false");
+                    return false;
+                case 'n':
+                    expectLiteral("null");
+                    return false;
+                default:
+                    throw error("Expected a boolean");
+            }
+        }
+
+        private void skipValue() throws IOException {
+            byte c = peek();
+            if (c == '"') {
+                parseString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"') {
+                        parseString();
+                        continue;
+                    }
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                    p++;
+                } while (depth > 0);
+            } else {
+                while (p < b.length && b[p] != ',' && b[p] != '}'
+                        && b[p] != ']' && !isWhitespace(b[p])) {
+                    p++;
+                }
+            }
+        }
+
+        /**
+         * @return False at the end of the chunk.
+         */
+        private boolean skipWhitespace() {
+            while (p < b.length && isWhitespace(b[p])) {
+                p++;
+            }
+            return p < b.length;
+        }
+
+        private static boolean isWhitespace(byte c) {
+            return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+        }
+
+        private void expectLiteral(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                expect(literal.charAt(i));
+            }
+        }
+
+        private void expect(char c) throws IOException {
+            if (next() != c) {
+                p--;
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private byte peek() throws IOException {
+            if (p >= b.length) {
+                throw error("Unexpected end of input");
+            }
+            return b[p];
+        }
+
+        private byte next() throws IOException {
+            byte c = peek();
+            p++;
+            return c;
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at byte " + (offset + p));
+        }
+    }
+}
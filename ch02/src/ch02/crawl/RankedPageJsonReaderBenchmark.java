@@ -0,0 +1,112 @@
+package ch02.crawl;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compare reading ranked pages from JSON lines with {@code Files.lines} and
+ * jackson-jr beans, the way the chapter 3 and 4 readers did, with
+ * {@link RankedPageJsonReader}, into columns and into beans.  The pages read
+ * both ways are checked to be the same.  The file is written in batches of
+ * a million pages, so ten millions pages don't have to fit in the heap as
+ * beans, except for the jackson-jr rounds.  Usage:
+ * {@code RankedPageJsonReaderBenchmark [numberOfPages] [rounds]}.
+ */
+public class RankedPageJsonReaderBenchmark {
+
+    private static final int BATCH = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int numberOfPages = args.length > 0 ? Integer.parseInt(args[0])
+                : 10_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File dir = Files.createTempDirectory("ranked-pages").toFile();
+        try {
+            Path json = new File(dir, "ranked-pages.json").toPath();
+            Path batch = new File(dir, "batch.json").toPath();
+            Files.createFile(json);
+            for (int written = 0; written < numberOfPages; written += BATCH) {
+                RankedPageWriter.write(batch, RankedPageWriterBenchmark
+                        .createPages(Math.min(BATCH,
+                                numberOfPages - written)), true);
+                Files.write(json, Files.readAllBytes(batch),
+                        StandardOpenOption.APPEND);
+            }
+            System.out.printf("JSON %d bytes, %d processors%n",
+                    Files.size(json),
+                    Runtime.getRuntime().availableProcessors());
+
+            System.out.println("Same pages: " + check(readBeans(json),
+                    RankedPageJsonReader.read(json)));
+            for (int r = 0; r < rounds; r++) {
+                run("json beans", () -> readBeans(json).size());
+                run("reader", () -> RankedPageJsonReader.read(json).size());
+                run("reader beans", () -> RankedPageJsonReader.read(json)
+                        .toRankedPages().size());
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static List<RankedPage> readBeans(Path json) throws IOException {
+        try (Stream<String> lines = Files.lines(json)) {
+            return lines.map(line -> {
+                try {
+                    return JSON.std.beanFrom(RankedPage.class, line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        }
+    }
+
+    private static boolean check(List<RankedPage> beans,
+                                 RankedPageJsonReader.Pages pages) {
+        if (pages.size() != beans.size()) {
+            return false;
+        }
+        for (int i = 0; i < beans.size(); i++) {
+            RankedPage page = beans.get(i);
+            if (!page.getUrl().equals(pages.getUrls()[i])
+                    || page.getPosition() != pages.getPositions()[i]
+                    || page.getPage() != pages.getPages()[i]
+                    || page.getTitleLength() != pages.getTitleLengths()[i]
+                    || page.getBodyContentLength()
+                    != pages.getBodyContentLengths()[i]
+                    || page.isQueryInTitle() != pages.getQueryInTitle()[i]
+                    || page.getNumberOfHeaders()
+                    != pages.getNumberOfHeaders()[i]
+                    || page.getNumberOfLinks()
+                    != pages.getNumberOfLinks()[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void run(String name, Benchmark benchmark)
+            throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int rows = benchmark.run();
+        long millis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        System.out.printf("%-12s %8d rows in %6d ms%n", name, rows, millis);
+    }
+
+    private interface Benchmark {
+        int run() throws Exception;
+    }
+}
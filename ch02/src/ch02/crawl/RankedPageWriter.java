@@ -0,0 +1,413 @@
+package ch02.crawl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Writes ranked pages as JSON lines, one object per page with the keys in
+ * alphabetical order, byte for byte as {@code JSON.std.asString} writes a
+ * {@link RankedPage} bean.  The lines are formatted on the worker threads of
+ * a parallel stream, a chunk of pages at a time, straight into a UTF-8 byte
+ * buffer, and each chunk is written to a {@link FileChannel} with a single
+ * call.  Ordered output keeps the pages in input order, so the file is
+ * identical across runs; unordered output writes each chunk as soon as it is
+ * ready.
+ */
+public final class RankedPageWriter {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int WINDOW_CHUNKS =
+            4 * ForkJoinPool.getCommonPoolParallelism();
+
+    private static final byte[] BODY_CONTENT_LENGTH =
+            ascii("{\"bodyContentLength\":");
+    private static final byte[] NUMBER_OF_HEADERS =
+            ascii(",\"numberOfHeaders\":");
+    private static final byte[] NUMBER_OF_LINKS = ascii(",\"numberOfLinks\":");
+    private static final byte[] PAGE = ascii(",\"page\":");
+    private static final byte[] POSITION = ascii(",\"position\":");
+    private static final byte[] QUERY_IN_TITLE = ascii(",\"queryInTitle\":");
+    private static final byte[] TITLE_LENGTH = ascii(",\"titleLength\":");
+    private static final byte[] URL = ascii(",\"url\":");
+
+    private RankedPageWriter() {
+    }
+
+    /**
+     * Write the pages.
+     *
+     * @param path    file to write, replaced if it exists.
+     * @param pages   pages to write.
+     * @param ordered whether to keep the pages in order.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Path path, List<RankedPage> pages,
+                             boolean ordered) throws IOException {
+        writeLines(path, pages.size(), ordered,
+                (i, buffer) -> appendJson(pages.get(i), buffer));
+    }
+
+    /**
+     * Write the rows of the table.  With the default features, the lines
+     * are the same as those of the equivalent {@link RankedPage} beans.
+     *
+     * @param path    file to write, replaced if it exists.
+     * @param table   rows to write.
+     * @param ordered whether to keep the rows in order.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(Path path, FeatureTable table, boolean ordered)
+            throws IOException {
+        RowFormat format = new RowFormat(table.getFeatures());
+        writeLines(path, table.size(), ordered,
+                (i, buffer) -> format.append(table, i, buffer));
+    }
+
+    private static void writeLines(Path path, int size, boolean ordered,
+                                   LineFormatter formatter)
+            throws IOException {
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (!ordered) {
+                ChunkWriter writer = new ChunkWriter(channel);
+                IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> format(c, size, formatter))
+                        .forEach(writer::write);
+                if (writer.error != null) {
+                    throw writer.error;
+                }
+                return;
+            }
+
+            // Format a window of chunks in parallel, then write them in
+            // order, so at most a window of chunks is held in memory
+            ByteBuffer[] window = new ByteBuffer[WINDOW_CHUNKS];
+            for (int start = 0; start < chunks; start += window.length) {
+                int first = start;
+                int count = Math.min(window.length, chunks - start);
+                IntStream.range(0, count).parallel().forEach(i ->
+                        window[i] = format(first + i, size, formatter));
+                for (int i = 0; i < count; i++) {
+                    write(channel, window[i]);
+                    window[i] = null;
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer format(int chunk, int size,
+                                     LineFormatter formatter) {
+        LineBuffer buffer = new LineBuffer(256 * CHUNK_SIZE);
+        int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            formatter.append(i, buffer);
+            buffer.append((byte) '\n');
+        }
+        return buffer.toByteBuffer();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer chunk)
+            throws IOException {
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+    }
+
+    /**
+     * Append the JSON object of the page, with the keys of its bean
+     * properties in alphabetical order.  Like jackson-jr, a null URL is left
+     * out.
+     *
+     * @param page   page to format.
+     * @param buffer where to append it.
+     */
+    static void appendJson(RankedPage page, LineBuffer buffer) {
+        buffer.append(BODY_CONTENT_LENGTH)
+                .appendInt(page.getBodyContentLength())
+                .append(NUMBER_OF_HEADERS).appendInt(page.getNumberOfHeaders())
+                .append(NUMBER_OF_LINKS).appendInt(page.getNumberOfLinks())
+                .append(PAGE).appendInt(page.getPage())
+                .append(POSITION).appendInt(page.getPosition())
+                .append(QUERY_IN_TITLE).appendBoolean(page.isQueryInTitle())
+                .append(TITLE_LENGTH).appendInt(page.getTitleLength());
+        if (page.getUrl() != null) {
+            buffer.append(URL).appendString(page.getUrl());
+        }
+        buffer.append((byte) '}');
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable buffer of UTF-8 bytes with the JSON values the writer needs.
+     */
+    static final class LineBuffer {
+        private static final byte[] HEX = ascii("0123456789ABCDEF");
+        private static final byte[] TRUE = ascii("true");
+        private static final byte[] FALSE = ascii("false");
+
+        private byte[] bytes;
+        private int length;
+
+        LineBuffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void clear() {
+            length = 0;
+        }
+
+        LineBuffer append(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+            return this;
+        }
+
+        LineBuffer append(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+            return this;
+        }
+
+        LineBuffer appendBoolean(boolean b) {
+            return append(b ? TRUE : FALSE);
+        }
+
+        LineBuffer appendInt(int n) {
+            if (n == Integer.MIN_VALUE) {
+                return append(ascii(Integer.toString(n)));
+            }
+            ensure(11);
+            if (n < 0) {
+                bytes[length++] = '-';
+                n = -n;
+            }
+            int digits = 1;
+            for (int m = n; m >= 10; m /= 10) {
+                digits++;
+            }
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte) ('0' + n % 10);
+                n /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        /**
+         * Append a JSON string, escaped the way jackson-jr does: quotes,
+         * backslashes and control characters only.  Unpaired surrogates
+         * become {@code ?}, as with {@link String#getBytes}.
+         */
+        LineBuffer appendString(String s) {
+            // At most 6 bytes per char, for an escaped control character
+            ensure(6 * s.length() + 2);
+            byte[] b = bytes;
+            int n = length;
+            b[n++] = '"';
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= ' ' && c < 0x80) {
+                    if (c == '"' || c == '\\') {
+                        b[n++] = '\\';
+                    }
+                    b[n++] = (byte) c;
+                } else if (c < ' ') {
+                    b[n++] = '\\';
+                    if (c == '\b') {
+                        b[n++] = 'b';
+                    } else if (c == '\t') {
+                        b[n++] = 't';
+                    } else if (c == '\n') {
+                        b[n++] = 'n';
+                    } else if (c == '\f') {
+                        b[n++] = 'f';
+                    } else if (c == '\r') {
+                        b[n++] = 'r';
+                    } else {
+                        b[n++] = 'u';
+                        b[n++] = '0';
+                        b[n++] = '0';
+                        b[n++] = HEX[c >> 4];
+                        b[n++] = HEX[c & 0xf];
+                    }
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xc0 | c >> 6);
+                    b[n++] = (byte) (0x80 | c & 0x3f);
+                } else if (!Character.isSurrogate(c)) {
+                    b[n++] = (byte) (0xe0 | c >> 12);
+                    b[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    b[n++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c)
+                        && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[n++] = (byte) (0xf0 | cp >> 18);
+                    b[n++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    b[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    b[n++] = (byte) (0x80 | cp & 0x3f);
+                } else {
+                    b[n++] = '?';
+                }
+            }
+            b[n++] = '"';
+            length = n;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes,
+                        Math.max(2 * bytes.length, length + extra));
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Formats rows of features with the keys in alphabetical order, leaving
+     * out a null URL.  The order and the quoted keys are worked out once per
+     * table.
+     */
+    static class RowFormat {
+        private static final int URL_SLOT = -1;
+        private static final int POSITION_SLOT = -2;
+        private static final int PAGE_SLOT = -3;
+
+        private final byte[][] keys;
+        private final int[] slots;
+        private final boolean[] flags;
+
+        RowFormat(List<FeatureExtractor> features) {
+            List<String> names = new ArrayList<>();
+            names.add("url");
+            names.add("position");
+            names.add("page");
+            for (FeatureExtractor feature : features) {
+                names.add(feature.getName());
+            }
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparing(names::get));
+
+            keys = new byte[order.size()][];
+            slots = new int[order.size()];
+            flags = new boolean[order.size()];
+            for (int k = 0; k < order.size(); k++) {
+                int i = order.get(k);
+                LineBuffer key = new LineBuffer(64)
+                        .appendString(names.get(i))
+                        .append((byte) ':');
+                keys[k] = Arrays.copyOf(key.bytes, key.length);
+                slots[k] = i < 3 ? -1 - i : i - 3;
+                flags[k] = i >= 3 && features.get(i - 3).isFlag();
+            }
+        }
+
+        void append(FeatureTable table, int r, LineBuffer buffer) {
+            byte separator = '{';
+            for (int k = 0; k < keys.length; k++) {
+                int slot = slots[k];
+                if (slot == URL_SLOT && table.getUrl(r) == null) {
+                    continue;
+                }
+                buffer.append(separator).append(keys[k]);
+                separator = ',';
+                if (slot == URL_SLOT) {
+                    buffer.appendString(table.getUrl(r));
+                } else if (slot == POSITION_SLOT) {
+                    buffer.appendInt(table.getPosition(r));
+                } else if (slot == PAGE_SLOT) {
+                    buffer.appendInt(table.getPage(r));
+                } else if (flags[k]) {
+                    buffer.appendBoolean(table.getValue(slot, r) != 0);
+                } else {
+                    buffer.appendInt(table.getValue(slot, r));
+                }
+            }
+            buffer.append((byte) '}');
+        }
+
+        void append(FeatureTable.Row row, LineBuffer buffer) {
+            byte separator = '{';
+            for (int k = 0; k < keys.length; k++) {
+                int slot = slots[k];
+                if (slot == URL_SLOT && row.getUrl() == null) {
+                    continue;
+                }
+                buffer.append(separator).append(keys[k]);
+                separator = ',';
+                if (slot == URL_SLOT) {
+                    buffer.appendString(row.getUrl());
+                } else if (slot == POSITION_SLOT) {
+                    buffer.appendInt(row.getPosition());
+                } else if (slot == PAGE_SLOT) {
+                    buffer.appendInt(row.getPage());
+                } else if (flags[k]) {
+                    buffer.appendBoolean(row.getValues()[slot] != 0);
+                } else {
+                    buffer.appendInt(row.getValues()[slot]);
+                }
+            }
+            buffer.append((byte) '}');
+        }
+    }
+
+    private interface LineFormatter {
+        void append(int index, LineBuffer buffer);
+    }
+
+    /**
+     * Writes encoded chunks to the channel, one at a time.  The first error
+     * is kept and the remaining chunks are skipped.
+     */
+    private static class ChunkWriter {
+        private final FileChannel channel;
+        private IOException error;
+
+        ChunkWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void write(ByteBuffer chunk) {
+            if (error != null) {
+                return;
+            }
+            try {
+                RankedPageWriter.write(channel, chunk);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+}
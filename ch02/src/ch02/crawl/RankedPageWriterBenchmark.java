@@ -0,0 +1,110 @@
+package ch02.crawl;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare writing ranked pages the way the extractors used to, serializing
+ * each bean with jackson-jr into a shared {@link PrintWriter} from a
+ * parallel stream, with the {@link RankedPageWriter}.  The ordered output
+ * is checked against jackson-jr's, line by line.  Usage:
+ * {@code RankedPageWriterBenchmark [numberOfPages] [rounds]}.
+ */
+public class RankedPageWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numberOfPages = args.length > 0 ? Integer.parseInt(args[0])
+                : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<RankedPage> pages = createPages(numberOfPages);
+
+        File dir = Files.createTempDirectory("ranked-pages").toFile();
+        try {
+            File expected = new File(dir, "expected.json");
+            try (PrintWriter pw = new PrintWriter(expected, "UTF-8")) {
+                for (RankedPage page : pages) {
+                    pw.println(JSON.std.asString(page));
+                }
+            }
+            File actual = new File(dir, "actual.json");
+            RankedPageWriter.write(actual.toPath(), pages, true);
+            System.out.println("Same output as jackson-jr: " + Arrays.equals(
+                    Files.readAllBytes(expected.toPath()),
+                    Files.readAllBytes(actual.toPath())));
+
+            for (int r = 0; r < rounds; r++) {
+                run("print writer", numberOfPages, () -> {
+                    try (PrintWriter pw = new PrintWriter(actual, "UTF-8")) {
+                        pages.parallelStream().map(p -> toJson(p))
+                                .forEach(pw::println);
+                    }
+                });
+                run("writer, ordered", numberOfPages, () ->
+                        RankedPageWriter.write(actual.toPath(), pages, true));
+                run("writer, unordered", numberOfPages, () ->
+                        RankedPageWriter.write(actual.toPath(), pages, false));
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static String toJson(RankedPage page) {
+        try {
+            return JSON.std.asString(page);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void run(String name, int numberOfPages,
+                            Benchmark benchmark) throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        benchmark.run();
+        long millis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        System.out.printf("%-18s %7d ms, %10.0f pages/s%n", name, millis,
+                1000.0 * numberOfPages / millis);
+    }
+
+    /**
+     * Create pages with URLs that need escaping or aren't ASCII now and
+     * then, as some crawled URLs do.
+     */
+    static List<RankedPage> createPages(int count) {
+        String[] paths = {"shoes", "basketball-shoes", "running/men",
+                "sale?id=10&color=red", "search%20results", "caf\u00e9",
+                "\"quoted\"", "back\\slash", "\u65e5\u672c",
+                "ctrl\u0001"};
+        Random random = new Random(42);
+        List<RankedPage> pages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int position = 1 + random.nextInt(100);
+            RankedPage page = new RankedPage("http://www.example"
+                    + random.nextInt(1000) + ".com/"
+                    + paths[random.nextInt(100) < 95
+                    ? random.nextInt(5) : 5 + random.nextInt(5)] + "/" + i,
+                    position, 1 + (position - 1) / 10);
+            page.setTitleLength(random.nextInt(120));
+            page.setBodyContentLength(random.nextInt(100_000));
+            page.setQueryInTitle(random.nextBoolean());
+            page.setNumberOfHeaders(random.nextInt(30));
+            page.setNumberOfLinks(random.nextInt(500));
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+}
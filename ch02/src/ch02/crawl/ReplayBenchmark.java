@@ -0,0 +1,122 @@
+package ch02.crawl;
+
+import ch02.RecordingFetcher;
+import ch02.ReplayFetcher;
+import ch02.ResponseArchive;
+import ch02.UrlUtils;
+import com.google.common.base.Stopwatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Record pages from a local stub server into a response archive, stop the
+ * server, then replay the archive through the crawlers with simulated
+ * network conditions.  Every run of the replay sees the same pages with the
+ * same delays, so crawler changes can be compared without the network.
+ * Usage: {@code ReplayBenchmark [numberOfUrls] [latencyMillis]
+ * [bytesPerSecond]}, e.g. 2000 URLs, 100 ms and 1000000 bytes/s.
+ */
+public class ReplayBenchmark {
+
+    private static final int TIMEOUT = 10;
+
+    public static void main(String[] args) throws Exception {
+        int numberOfUrls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        long bytesPerSecond = args.length > 2 ? Long.parseLong(args[2])
+                : 1_000_000;
+
+        File file = File.createTempFile("replay", ".warc");
+        file.deleteOnExit();
+        List<String> urls;
+        try (StubHttpServer server = new StubHttpServer(0, 20_000);
+             ResponseArchive archive = ResponseArchive.open(file)) {
+            urls = IntStream.range(0, numberOfUrls)
+                    .mapToObj(server::url)
+                    .collect(Collectors.toList());
+            UrlUtils.setFetcher(new RecordingFetcher(UrlUtils.LIVE, archive));
+            try (Crawler crawler = new Crawler(TIMEOUT, 16)) {
+                run("record", () -> crawlBlocking(crawler, urls, 16));
+            }
+        } finally {
+            UrlUtils.setFetcher(UrlUtils.LIVE);
+        }
+        System.out.printf("Recorded %d bytes%n", file.length());
+
+        try (ReplayFetcher fetcher = new ReplayFetcher(
+                ResponseArchive.open(file), latency, bytesPerSecond)) {
+            UrlUtils.setFetcher(fetcher);
+            for (int maxConcurrency : new int[]{16, 64, 256}) {
+                try (Crawler crawler = new Crawler(TIMEOUT, maxConcurrency)) {
+                    run("replay thread per task, max " + maxConcurrency,
+                            () -> crawlBlocking(crawler, urls,
+                                    maxConcurrency));
+                }
+            }
+            for (int maxInFlight : new int[]{16, 64, 256}) {
+                try (AsyncCrawler crawler = new AsyncCrawler(TIMEOUT,
+                        maxInFlight)) {
+                    run("replay async, max in-flight " + maxInFlight, () -> {
+                        AtomicInteger crawled = new AtomicInteger();
+                        crawler.crawlAll(urls.stream(),
+                                (url, html) -> count(crawled, html));
+                        return crawled.get();
+                    });
+                }
+            }
+            System.out.println(fetcher);
+        } finally {
+            UrlUtils.setFetcher(UrlUtils.LIVE);
+        }
+    }
+
+    private static int crawlBlocking(Crawler crawler, List<String> urls,
+                                     int threads) throws Exception {
+        AtomicInteger crawled = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        try {
+            for (String url : urls) {
+                callers.execute(() -> {
+                    try {
+                        count(crawled, crawler.crawl(url));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } finally {
+            callers.shutdown();
+            callers.awaitTermination(1, TimeUnit.HOURS);
+        }
+        return crawled.get();
+    }
+
+    private static void count(AtomicInteger crawled, Optional<String> html) {
+        if (html.isPresent()) {
+            crawled.incrementAndGet();
+        }
+    }
+
+    private static void run(String name, Benchmark benchmark)
+            throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int crawled = benchmark.run();
+        long millis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        System.out.printf("%-36s crawled %6d in %7d ms, %8.1f pages/s%n",
+                name, crawled, millis, 1000.0 * crawled / millis);
+    }
+
+    private interface Benchmark {
+        int run() throws Exception;
+    }
+}
@@ -0,0 +1,112 @@
+package ch02.crawl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scrape a list of queries with a {@link SearchScraper}, skipping the result
+ * pages already in the {@link SearchResultStore}, then write the search
+ * results file from the store.  Pages that fail are logged and left out of
+ * the store, so the next run retries them; queries with a missing page are
+ * left out of the results file until they are complete.
+ */
+public final class ScrapeRunner {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ScrapeRunner.class);
+
+    private ScrapeRunner() {
+    }
+
+    /**
+     * @param scraper scraper of the search engine.
+     * @param queries queries to scrape, in the order of the output.
+     * @param store   scraped pages of previous runs; new pages are added.
+     * @param output  search results file to write.
+     * @throws IOException if the results file could not be written.
+     */
+    public static void run(SearchScraper scraper, List<String> queries,
+                           SearchResultStore store, Path output)
+            throws IOException {
+        String engine = scraper.getEngine();
+        AtomicInteger scraped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int skipped = 0;
+        for (String query : queries) {
+            for (int page = 0; page < scraper.getPages(); page++) {
+                if (store.contains(engine, query, page)) {
+                    skipped++;
+                    continue;
+                }
+                int number = page;
+                futures.add(scraper.scrapePage(query, page)
+                        .thenAccept(links -> {
+                            try {
+                                store.append(engine, query, number, links);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            scraped.incrementAndGet();
+                        })
+                        .exceptionally(e -> {
+                            failed.incrementAndGet();
+                            LOGGER.error("Could not scrape page {} of {}",
+                                    number, query, unwrap(e));
+                            return null;
+                        }));
+            }
+        }
+        LOGGER.info("Scraping {} {} pages, {} already scraped",
+                futures.size(), engine, skipped);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .join();
+        LOGGER.info("Scraped {} {} pages, {} failed", scraped, engine, failed);
+
+        int incomplete = 0;
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(output,
+                StandardCharsets.UTF_8))) {
+            for (String query : queries) {
+                List<List<String>> pages = new ArrayList<>();
+                for (int page = 0; page < scraper.getPages(); page++) {
+                    Optional<List<String>> links =
+                            store.get(engine, query, page);
+                    if (!links.isPresent()) {
+                        break;
+                    }
+                    pages.add(links.get());
+                }
+                if (pages.size() < scraper.getPages()) {
+                    incomplete++;
+                    continue;
+                }
+                scraper.writeResults(query, pages, pw);
+            }
+        }
+        if (incomplete > 0) {
+            LOGGER.warn("{} queries are incomplete, run again to finish them",
+                    incomplete);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException
+                || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
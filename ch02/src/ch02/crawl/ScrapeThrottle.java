@@ -0,0 +1,75 @@
+package ch02.crawl;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.lang3.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Politeness policy shared by the search scrapers: a global rate limit on
+ * requests, plus a random delay before each request so they don't arrive
+ * on a fixed beat.  One throttle can be shared by several threads and
+ * scrapers; the rate limit applies to all their requests together, while
+ * the random delay only holds back the request it's drawn for.
+ */
+public class ScrapeThrottle {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ScrapeThrottle.class);
+
+    private final RateLimiter rateLimiter;
+    private final int minJitter;
+    private final int maxJitter;
+
+    /**
+     * @param requestsPerSecond maximum rate of requests.
+     * @param minJitter         minimum random delay before a request (ms).
+     * @param maxJitter         maximum random delay before a request (ms).
+     */
+    public ScrapeThrottle(double requestsPerSecond, int minJitter,
+                          int maxJitter) {
+        this.rateLimiter = RateLimiter.create(requestsPerSecond);
+        this.minJitter = minJitter;
+        this.maxJitter = maxJitter;
+    }
+
+    /**
+     * Create the throttle equivalent to sleeping a random grace period
+     * after each request: one request per minimum grace period, each
+     * delayed by up to the rest of the range.  A sequential scraper sees
+     * the same average pace as with the sleeps.
+     *
+     * @param minGracePeriod minimum time between requests (ms).
+     * @param maxGracePeriod maximum time between requests (ms).
+     * @return the throttle.
+     */
+    public static ScrapeThrottle gracePeriod(int minGracePeriod,
+                                             int maxGracePeriod) {
+        return new ScrapeThrottle(1000.0 / minGracePeriod, 0,
+                maxGracePeriod - minGracePeriod);
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        double waited = rateLimiter.acquire();
+        int jitter = RandomUtils.nextInt(minJitter, maxJitter);
+        LOGGER.debug("Throttled {} ms, jitter {} ms", (long) (waited * 1000),
+                jitter);
+        Thread.sleep(jitter);
+    }
+
+    public double getRequestsPerSecond() {
+        return rateLimiter.getRate();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScrapeThrottle [requestsPerSecond=%.2f, "
+                        + "jitter=%d-%d ms]", getRequestsPerSecond(),
+                minJitter, maxJitter);
+    }
+}
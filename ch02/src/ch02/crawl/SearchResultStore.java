@@ -0,0 +1,166 @@
+package ch02.crawl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of scraped search result pages, so an interrupted scrape
+ * can resume without requesting the pages it already has.  Each record is
+ * one line with the engine, the query, the page number and the links found
+ * on the page, and a CRC-32 of the line; every record is forced to disk
+ * before {@link #append} returns.  On open, the log is read up to the first
+ * torn or corrupt record, which can only be the tail of a crashed run, and
+ * truncated there.  Safe to use from several threads.
+ */
+public class SearchResultStore implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(SearchResultStore.class);
+
+    private final FileChannel channel;
+    // Guarded by this
+    private final Map<String, List<String>> pages = new HashMap<>();
+
+    /**
+     * Open the log, creating it if it doesn't exist.
+     *
+     * @param path of the log.
+     * @throws IOException if the log can't be read or opened.
+     */
+    public SearchResultStore(Path path) throws IOException {
+        long valid = 0;
+        if (Files.exists(path)) {
+            valid = load(path);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        if (channel.size() > valid) {
+            LOGGER.warn("Truncating {} bytes of torn records from {}",
+                    channel.size() - valid, path);
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+        LOGGER.info("Loaded {} scraped pages from {}", pages.size(), path);
+    }
+
+    /**
+     * Read the valid records.
+     *
+     * @return length of the valid prefix of the log.
+     */
+    private long load(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, start, i - start,
+                    StandardCharsets.UTF_8);
+            String[] split = line.split("\t", -1);
+            if (split.length < 4 || !split[0].equals(crc(line.substring(
+                    split[0].length() + 1)))) {
+                break;
+            }
+            pages.put(key(split[1], split[2], Integer.parseInt(split[3])),
+                    Collections.unmodifiableList(new ArrayList<>(
+                            Arrays.asList(split).subList(4, split.length))));
+            start = i + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Record a scraped page.
+     *
+     * @param engine name of the search engine.
+     * @param query  search query.
+     * @param page   result page number, starting from 0.
+     * @param links  links found on the page, in order.
+     * @throws IOException if the record could not be written.
+     */
+    public synchronized void append(String engine, String query, int page,
+                                    List<String> links) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(clean(engine)).append('\t').append(clean(query))
+                .append('\t').append(page);
+        for (String link : links) {
+            sb.append('\t').append(clean(link));
+        }
+        String record = crc(sb.toString()) + '\t' + sb + '\n';
+        ByteBuffer buffer = ByteBuffer.wrap(
+                record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        pages.put(key(clean(engine), clean(query), page),
+                Collections.unmodifiableList(new ArrayList<>(links)));
+    }
+
+    /**
+     * @param engine name of the search engine.
+     * @param query  search query.
+     * @param page   result page number, starting from 0.
+     * @return links of the page, if it was scraped.
+     */
+    public synchronized Optional<List<String>> get(String engine,
+                                                   String query, int page) {
+        return Optional.ofNullable(pages.get(key(clean(engine), clean(query),
+                page)));
+    }
+
+    /**
+     * @param engine name of the search engine.
+     * @param query  search query.
+     * @param page   result page number, starting from 0.
+     * @return True if the page was scraped.
+     */
+    public boolean contains(String engine, String query, int page) {
+        return get(engine, query, page).isPresent();
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    private static String key(String engine, String query, int page) {
+        return engine + '\t' + query + '\t' + page;
+    }
+
+    /**
+     * Tabs and line breaks would break the record; links and queries don't
+     * have them, but a stray one is replaced rather than trusted.
+     */
+    private static String clean(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String crc(String s) {
+        CRC32 crc = new CRC32();
+        crc.update(s.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,42 @@
+package ch02.crawl;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A search engine scraper, as used by {@link ScrapeRunner}: the results of
+ * a query are scraped one page at a time, so each page can be recorded in a
+ * {@link SearchResultStore} as soon as it arrives.
+ */
+public interface SearchScraper {
+
+    /**
+     * @return name of the search engine, used to key the stored pages.
+     */
+    String getEngine();
+
+    /**
+     * @return number of result pages scraped per query.
+     */
+    int getPages();
+
+    /**
+     * Scrape a result page, on the scraper's own executor and throttle.
+     *
+     * @param query search query.
+     * @param page  result page number, starting from 0.
+     * @return future links of the results on the page, in order; completes
+     * exceptionally if the page could not be scraped.
+     */
+    CompletableFuture<List<String>> scrapePage(String query, int page);
+
+    /**
+     * Write the results of a query as lines of the search results file.
+     *
+     * @param query search query.
+     * @param pages links of each result page of the query, in order.
+     * @param pw    where to write the lines.
+     */
+    void writeResults(String query, List<List<String>> pages, PrintWriter pw);
+}
@@ -0,0 +1,81 @@
+package ch02.crawl;
+
+/**
+ * 64-bit SimHash fingerprints of text, after Charikar: every shingle of
+ * three consecutive words votes on each bit with its hash, so texts that
+ * share most of their shingles get fingerprints that differ in a few bits.
+ * Words are maximal runs of letters and digits, compared ignoring case.
+ */
+public final class SimHash {
+
+    private static final int SHINGLE = 3;
+
+    private SimHash() {
+    }
+
+    /**
+     * @param text to fingerprint.
+     * @return fingerprint of the text; 0 if it has fewer than three words.
+     */
+    public static long of(CharSequence text) {
+        int[] votes = new int[64];
+        long[] window = new long[SHINGLE];
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            // FNV-1a of the lower case word
+            long hash = 0xcbf29ce484222325L;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                hash ^= Character.toLowerCase(text.charAt(i));
+                hash *= 0x100000001b3L;
+                i++;
+            }
+            window[words % SHINGLE] = hash;
+            words++;
+            if (words >= SHINGLE) {
+                long shingle = mix(window[(words - 3) % SHINGLE]
+                        ^ Long.rotateLeft(window[(words - 2) % SHINGLE], 21)
+                        ^ Long.rotateLeft(window[(words - 1) % SHINGLE], 42));
+                for (int bit = 0; bit < 64; bit++) {
+                    votes[bit] += (int) ((shingle >>> bit) & 1) * 2 - 1;
+                }
+            }
+        }
+        if (words < SHINGLE) {
+            return 0;
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return number of bits that differ between the fingerprints.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads the shingle hash over all the bits.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,113 @@
+package ch02.crawl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The features of {@link RankedPage}, and a few more that can be added to
+ * the output by name.
+ */
+public final class StandardFeatures {
+
+    public static final FeatureExtractor TITLE_LENGTH = FeatureExtractor.of(
+            "titleLength", EnumSet.of(PageArtifact.TITLE),
+            page -> page.getFeatures().getTitle().length());
+
+    public static final FeatureExtractor QUERY_IN_TITLE =
+            FeatureExtractor.flag("queryInTitle",
+                    EnumSet.of(PageArtifact.TITLE),
+                    page -> page.getFeatures().isQueryInTitle(
+                            page.getQuery()));
+
+    public static final FeatureExtractor BODY_CONTENT_LENGTH =
+            FeatureExtractor.of("bodyContentLength",
+                    EnumSet.of(PageArtifact.TITLE),
+                    page -> page.getFeatures().getBodyContentLength());
+
+    public static final FeatureExtractor NUMBER_OF_LINKS = FeatureExtractor.of(
+            "numberOfLinks", EnumSet.of(PageArtifact.TITLE),
+            page -> page.getFeatures().getNumberOfLinks());
+
+    public static final FeatureExtractor NUMBER_OF_HEADERS =
+            FeatureExtractor.of("numberOfHeaders",
+                    EnumSet.of(PageArtifact.TITLE),
+                    page -> page.getFeatures().getNumberOfHeaders());
+
+    public static final FeatureExtractor URL_LENGTH = FeatureExtractor.of(
+            "urlLength", EnumSet.of(PageArtifact.URL),
+            page -> page.getUrl().length());
+
+    public static final FeatureExtractor NUMBER_OF_IMAGES =
+            FeatureExtractor.of("numberOfImages",
+                    EnumSet.of(PageArtifact.ELEMENT_COUNTS),
+                    page -> page.getFeatures().getElementCount("img"));
+
+    public static final FeatureExtractor NUMBER_OF_PARAGRAPHS =
+            FeatureExtractor.of("numberOfParagraphs",
+                    EnumSet.of(PageArtifact.ELEMENT_COUNTS),
+                    page -> page.getFeatures().getElementCount("p"));
+
+    public static final FeatureExtractor NUMBER_OF_WORDS = FeatureExtractor.of(
+            "numberOfWords", EnumSet.of(PageArtifact.TEXT),
+            page -> countWords(page.getText()));
+
+    /**
+     * The features of {@link RankedPage}.
+     */
+    public static final List<FeatureExtractor> DEFAULT =
+            Collections.unmodifiableList(Arrays.asList(TITLE_LENGTH,
+                    QUERY_IN_TITLE, BODY_CONTENT_LENGTH, NUMBER_OF_LINKS,
+                    NUMBER_OF_HEADERS));
+
+    private static final List<FeatureExtractor> ALL =
+            Collections.unmodifiableList(Arrays.asList(TITLE_LENGTH,
+                    QUERY_IN_TITLE, BODY_CONTENT_LENGTH, NUMBER_OF_LINKS,
+                    NUMBER_OF_HEADERS, URL_LENGTH, NUMBER_OF_IMAGES,
+                    NUMBER_OF_PARAGRAPHS, NUMBER_OF_WORDS));
+
+    private StandardFeatures() {
+    }
+
+    /**
+     * @param name name of a feature.
+     * @return the standard feature with the name, if there is one.
+     */
+    public static Optional<FeatureExtractor> byName(String name) {
+        return ALL.stream().filter(f -> f.getName().equals(name)).findFirst();
+    }
+
+    /**
+     * The default features, followed by the named extra features.
+     *
+     * @param names names of extra features.
+     * @return the features.
+     * @throws IllegalArgumentException if a name is not a standard feature.
+     */
+    public static List<FeatureExtractor> withExtras(String... names) {
+        List<FeatureExtractor> features = new ArrayList<>(DEFAULT);
+        for (String name : names) {
+            FeatureExtractor feature = byName(name).orElseThrow(() ->
+                    new IllegalArgumentException("Unknown feature " + name));
+            if (!features.contains(feature)) {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+
+    private static int countWords(CharSequence text) {
+        // The text is whitespace-normalized, so words are separated by one
+        // space
+        int words = text.length() > 0 ? 1 : 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == ' ') {
+                words++;
+            }
+        }
+        return words;
+    }
+}
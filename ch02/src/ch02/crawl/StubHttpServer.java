@@ -0,0 +1,138 @@
+package ch02.crawl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in HTTP server used to measure crawler concurrency and timeout
+ * behaviour without network access.  Every path returns a generated HTML page
+ * after a fixed delay (milliseconds); the delay of a single request can be
+ * overridden with a {@code delay} query parameter, e.g.
+ * {@code /page/1?delay=5000}.
+ */
+public class StubHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int delay;
+    private final byte[] page;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Start a server on an ephemeral port of the loopback interface.
+     *
+     * @param delay    milliseconds to wait before responding.
+     * @param pageSize approximate size of the returned HTML in bytes.
+     * @throws IOException if the server socket could not be bound.
+     */
+    public StubHttpServer(int delay, int pageSize) throws IOException {
+        this.delay = delay;
+        this.page = createPage(pageSize);
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 1024);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Return the URL of the n-th generated page.
+     *
+     * @param n page number.
+     * @return URL of the page on this server.
+     */
+    public String url(int n) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort()
+                + "/page/" + n;
+    }
+
+    /**
+     * Return the number of requests served so far.
+     *
+     * @return number of requests.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Return the highest number of requests that were served concurrently.
+     *
+     * @return maximum number of concurrent requests.
+     */
+    public int getMaxActive() {
+        return maxActive.get();
+    }
+
+    /**
+     * Reset the maximum number of concurrent requests, e.g. between runs.
+     */
+    public void resetMaxActive() {
+        maxActive.set(active.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = active.incrementAndGet();
+        maxActive.accumulateAndGet(current, Math::max);
+        requests.incrementAndGet();
+        try {
+            Thread.sleep(requestDelay(exchange.getRequestURI().getQuery()));
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, page.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(page);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private int requestDelay(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("delay=")) {
+                    return Integer.parseInt(
+                            StringUtils.removeStart(param, "delay="));
+                }
+            }
+        }
+        return delay;
+    }
+
+    private static byte[] createPage(int pageSize) {
+        StringBuilder sb = new StringBuilder(pageSize + 128);
+        sb.append("<html><head><title>Stub page</title></head><body>");
+        sb.append("<h1>Stub page</h1>");
+        while (sb.length() < pageSize) {
+            sb.append("<p>Lorem ipsum dolor sit amet, <a href=\"/page/0\">")
+                    .append("consectetur</a> adipiscing elit.</p>\n");
+        }
+        sb.append("</body></html>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,200 @@
+package ch02.crawl;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory Bloom filter of the URLs stored in the {@link UrlRepository}.
+ * URLs the filter has never seen are definite misses and don't need a disk
+ * lookup; the rest are confirmed against the map.  The filter is saved next
+ * to the database on close and loaded on open, and rebuilt from the map's
+ * keys when the saved filter is missing or doesn't match the map.
+ */
+public class UrlBloomFilter {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(UrlBloomFilter.class);
+
+    private static final int MAGIC = 0x55524c42; // "URLB"
+    private static final Funnel<CharSequence> FUNNEL =
+            Funnels.stringFunnel(StandardCharsets.UTF_8);
+
+    private final BloomFilter<CharSequence> filter;
+    private final long expectedInsertions;
+    private final double fpp;
+
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private UrlBloomFilter(BloomFilter<CharSequence> filter,
+                           long expectedInsertions, double fpp) {
+        this.filter = filter;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+    }
+
+    /**
+     * Load the filter saved for the map, or build it from the map's keys if
+     * there is no saved filter, it was saved for a different number of keys,
+     * or with different settings.  The saved file is deleted once loaded, so
+     * a crash before {@link #save(File, long)} can't leave a stale filter
+     * behind.
+     *
+     * @param file               where the filter is saved.
+     * @param keys               keys of the map.
+     * @param size               number of keys of the map.
+     * @param expectedInsertions number of URLs the filter is sized for.
+     * @param fpp                desired false positive probability.
+     * @return the filter.
+     */
+    static UrlBloomFilter open(File file, Iterable<String> keys, long size,
+                               long expectedInsertions, double fpp) {
+        if (file.exists()) {
+            try {
+                UrlBloomFilter loaded = load(file, size, expectedInsertions,
+                        fpp);
+                Files.delete(file.toPath());
+                if (loaded != null) {
+                    return loaded;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not load Bloom filter {}", file, e);
+            }
+        }
+
+        LOGGER.info("Building Bloom filter of {} URLs", size);
+        BloomFilter<CharSequence> filter = BloomFilter.create(FUNNEL,
+                Math.max(expectedInsertions, 2 * size), fpp);
+        for (String key : keys) {
+            filter.put(key);
+        }
+        return new UrlBloomFilter(filter, expectedInsertions, fpp);
+    }
+
+    private static UrlBloomFilter load(File file, long size,
+                                       long expectedInsertions, double fpp)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readLong() != size
+                    || in.readLong() != expectedInsertions
+                    || in.readDouble() != fpp) {
+                LOGGER.info("Bloom filter {} is stale", file);
+                return null;
+            }
+            return new UrlBloomFilter(BloomFilter.readFrom(in, FUNNEL),
+                    expectedInsertions, fpp);
+        }
+    }
+
+    /**
+     * Save the filter, replacing the previous file atomically.
+     *
+     * @param file where to save the filter.
+     * @param size number of keys of the map.
+     * @throws IOException if the filter could not be written.
+     */
+    void save(File file, long size) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeLong(expectedInsertions);
+            out.writeDouble(fpp);
+            filter.writeTo(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add a URL; must happen before the URL becomes visible in the map.
+     *
+     * @param url to add.
+     */
+    void put(String url) {
+        filter.put(url);
+    }
+
+    /**
+     * Check the filter, counting definite misses.
+     *
+     * @param url to check.
+     * @return False if the URL is certainly not in the map.
+     */
+    boolean mightContain(String url) {
+        if (filter.mightContain(url)) {
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Record the map lookup of a URL that passed the filter.
+     *
+     * @param found whether the URL was in the map.
+     */
+    void confirm(boolean found) {
+        if (found) {
+            hits.increment();
+        } else {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * @return number of lookups answered by the filter alone.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of lookups that passed the filter and were found.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that passed the filter but weren't found.
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return estimated false positive probability at the current fill.
+     */
+    public double getExpectedFpp() {
+        return filter.expectedFpp();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UrlBloomFilter [misses=%d, hits=%d, "
+                        + "falsePositives=%d, expectedFpp=%.4f]",
+                getMisses(), getHits(), getFalsePositives(),
+                getExpectedFpp());
+    }
+}
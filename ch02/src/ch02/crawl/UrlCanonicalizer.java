@@ -0,0 +1,229 @@
+package ch02.crawl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Normalize URLs, so trivially different forms of the same page are crawled
+ * and stored once.  Two levels of normalization are provided:
+ * <ul>
+ * <li>{@link #canonicalize(String)} returns a URL that can still be
+ * downloaded: lower case scheme and host, no default port, no fragment, no
+ * tracking parameters, no dot segments, {@code /} for an empty path and
+ * upper case percent escapes;</li>
+ * <li>{@link #key(String)} identifies the page: the canonical URL without
+ * the scheme, a leading {@code www.} and a trailing slash, so the http and
+ * https, www and bare forms of a page share the same key.</li>
+ * </ul>
+ * URLs without a scheme, as in the search results file, are taken as http.
+ * Malformed URLs are normalized as far as possible, never rejected.
+ */
+public final class UrlCanonicalizer {
+
+    private static final Set<String> TRACKING_PARAMETERS = new HashSet<>(
+            Arrays.asList("gclid", "dclid", "fbclid", "msclkid", "yclid",
+                    "igshid", "mc_cid", "mc_eid", "_ga"));
+
+    private UrlCanonicalizer() {
+    }
+
+    /**
+     * @param url absolute URL, with or without scheme.
+     * @return the canonical URL.
+     */
+    public static String canonicalize(String url) {
+        String s = url.trim();
+        String scheme = "http";
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd > 0 && isScheme(s, schemeEnd)) {
+            scheme = s.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            s = s.substring(schemeEnd + 3);
+        }
+        int fragment = s.indexOf('#');
+        if (fragment >= 0) {
+            s = s.substring(0, fragment);
+        }
+
+        int authorityEnd = indexOfAny(s, '/', '?');
+        String authority = s.substring(0, authorityEnd);
+        String rest = s.substring(authorityEnd);
+        int query = rest.indexOf('?');
+        String path = query < 0 ? rest : rest.substring(0, query);
+        String parameters = query < 0 ? "" : rest.substring(query + 1);
+
+        StringBuilder sb = new StringBuilder(url.length() + 8);
+        sb.append(scheme).append("://");
+        appendAuthority(sb, scheme, authority);
+        sb.append(path.isEmpty() ? "/" : escapes(removeDotSegments(path)));
+        String kept = removeTrackingParameters(parameters);
+        if (!kept.isEmpty()) {
+            sb.append('?').append(escapes(kept));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param url absolute URL, with or without scheme.
+     * @return key identifying the page of the URL.
+     */
+    public static String key(String url) {
+        String canonical = canonicalize(url);
+        String s = canonical.substring(canonical.indexOf("://") + 3);
+        if (s.startsWith("www.")) {
+            s = s.substring(4);
+        }
+        int query = s.indexOf('?');
+        int pathEnd = query < 0 ? s.length() : query;
+        if (pathEnd > 0 && s.charAt(pathEnd - 1) == '/') {
+            s = s.substring(0, pathEnd - 1) + s.substring(pathEnd);
+        }
+        return s;
+    }
+
+    /**
+     * Remove the URLs of pages already in the list.
+     *
+     * @param urls absolute URLs, with or without scheme.
+     * @return canonical URL of the first URL of each page, in order.
+     */
+    public static List<String> distinct(Collection<String> urls) {
+        Set<String> seen = new HashSet<>();
+        List<String> result = new ArrayList<>();
+        for (String url : urls) {
+            if (seen.add(key(url))) {
+                result.add(canonicalize(url));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isScheme(String s, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = s.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                    || i > 0 && (c >= '0' && c <= '9' || c == '+' || c == '-'
+                    || c == '.'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfAny(String s, char a, char b) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static void appendAuthority(StringBuilder sb, String scheme,
+                                        String authority) {
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            sb.append(authority, 0, at + 1);
+        }
+        String host = authority.substring(at + 1);
+        String port = "";
+        int colon = host.lastIndexOf(':');
+        // An IPv6 host ends with ']', its colons aren't a port
+        if (colon >= 0 && host.indexOf(']', colon) < 0) {
+            port = host.substring(colon + 1);
+            host = host.substring(0, colon);
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        sb.append(host);
+        if (!port.isEmpty() && !("http".equals(scheme) && "80".equals(port))
+                && !("https".equals(scheme) && "443".equals(port))) {
+            sb.append(':').append(port);
+        }
+    }
+
+    /**
+     * Resolve the {@code .} and {@code ..} segments of the path, as in
+     * RFC 3986.
+     */
+    private static String removeDotSegments(String path) {
+        if (!path.contains("/.")) {
+            return path;
+        }
+        List<String> segments = new ArrayList<>();
+        String[] split = path.split("/", -1);
+        // split[0] is the empty string before the leading slash
+        for (int i = 1; i < split.length; i++) {
+            String segment = split[i];
+            boolean last = i == split.length - 1;
+            if (".".equals(segment)) {
+                if (last) {
+                    segments.add("");
+                }
+            } else if ("..".equals(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+                if (last) {
+                    segments.add("");
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    private static String removeTrackingParameters(String parameters) {
+        if (parameters.isEmpty()) {
+            return parameters;
+        }
+        StringBuilder sb = new StringBuilder(parameters.length());
+        for (String parameter : parameters.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            String name = (equals < 0 ? parameter
+                    : parameter.substring(0, equals)).toLowerCase(Locale.ROOT);
+            if (name.startsWith("utm_") || TRACKING_PARAMETERS.contains(name)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(parameter);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Upper case the hex digits of the percent escapes.
+     */
+    private static String escapes(String s) {
+        int percent = s.indexOf('%');
+        if (percent < 0) {
+            return s;
+        }
+        char[] chars = s.toCharArray();
+        for (int i = percent; i < chars.length - 2; i++) {
+            if (chars[i] == '%' && isHex(chars[i + 1]) && isHex(chars[i + 2])) {
+                chars[i + 1] = Character.toUpperCase(chars[i + 1]);
+                chars[i + 2] = Character.toUpperCase(chars[i + 2]);
+            }
+        }
+        return new String(chars);
+    }
+
+    private static boolean isHex(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f'
+                || c >= 'A' && c <= 'F';
+    }
+}
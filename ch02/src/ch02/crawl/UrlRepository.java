@@ -1,36 +1,322 @@
 package ch02.crawl;
 
+import com.google.common.hash.Hashing;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
 
 /**
  * This class is used to store crawled HTML pages in a key-value store using
  * MapDB, which is a pure Java key-value store that implements the Map
  * interface.
+ * <p>
+ * Pages are stored under the {@link UrlCanonicalizer#key(String)} of their
+ * URL, so every form of a URL finds the same page.  Databases written before
+ * keys were canonical store pages under the URL as crawled; those are still
+ * found when the key misses.
+ * <p>
+ * A hash of every page put is kept in a separate map, so callers can tell
+ * whether a page changed without loading and decompressing it.  Pages put
+ * before hashes were kept have none.
  */
 public class UrlRepository implements AutoCloseable {
 
-    private final DB db;
-    private final Map<String, String> map;
+    static final String DB_FILE = "urls.db";
+    static final String STRING_MAP = "urls";
+    static final String COMPRESSED_MAP = "pages";
+    static final String HASH_MAP = "hashes";
+
+    static final int DEFAULT_CONCURRENCY_SCALE = 32;
+    static final long DEFAULT_BLOOM_EXPECTED_INSERTIONS = 1_000_000;
+    static final double DEFAULT_BLOOM_FPP = 0.01;
+
+    // MapDB's default hash tree shape, only the segment count is tuned
+    private static final int HASH_DIR_SIZE = 16;
+    private static final int HASH_LEVELS = 4;
+
+    /**
+     * How the HTML pages are stored.
+     */
+    public enum Storage {
+        /**
+         * Pages stored as Java strings in the "urls" map (original format).
+         */
+        STRING,
+        /**
+         * Pages stored as {@link PageCodec} compressed byte arrays in the
+         * "pages" map.
+         */
+        COMPRESSED
+    }
+
+    /**
+     * MapDB settings of the repository.  The defaults are tuned for many
+     * concurrent readers and writers, as used by the parallel crawlers and
+     * feature extractors.
+     */
+    public static class Config {
+        private String path = DB_FILE;
+        private Storage storage;
+        private boolean mmap = true;
+        private int concurrencyScale = DEFAULT_CONCURRENCY_SCALE;
+        private long allocateIncrement = 64L * 1024 * 1024;
+        private int writeBehindCapacity;
+        private int writeBehindBatchSize;
+        private long writeBehindBatchBytes;
+        private boolean bloomFilter = true;
+        private long bloomExpectedInsertions =
+                DEFAULT_BLOOM_EXPECTED_INSERTIONS;
+        private double bloomFpp = DEFAULT_BLOOM_FPP;
+
+        /**
+         * Database file, {@value UrlRepository#DB_FILE} by default.
+         *
+         * @param path of the MapDB file.
+         * @return this config.
+         */
+        public Config path(String path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * How to store the pages; detected from the database by default.
+         *
+         * @param storage of the pages; null to detect it.
+         * @return this config.
+         */
+        public Config storage(Storage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * Whether to memory-map the database file when the platform
+         * supports it (64-bit JVMs), enabled by default.  Reads from mapped
+         * files avoid a system call and a copy per access.
+         *
+         * @param mmap True to memory-map the file.
+         * @return this config.
+         */
+        public Config mmap(boolean mmap) {
+            this.mmap = mmap;
+            return this;
+        }
+
+        /**
+         * Number of lock segments of the store and of the hash map, 32 by
+         * default.  Writers to different segments don't block each other.
+         * The map's segment count is fixed when the map is created.
+         *
+         * @param concurrencyScale number of segments, a power of two.
+         * @return this config.
+         */
+        public Config concurrencyScale(int concurrencyScale) {
+            this.concurrencyScale = concurrencyScale;
+            return this;
+        }
+
+        /**
+         * Bytes by which the database file grows, 64 MB by default.  Larger
+         * increments mean fewer (expensive) remappings of a growing file.
+         *
+         * @param allocateIncrement growth increment in bytes.
+         * @return this config.
+         */
+        public Config allocateIncrement(long allocateIncrement) {
+            this.allocateIncrement = allocateIncrement;
+            return this;
+        }
 
+        /**
+         * Enable write-behind: {@link #put(String, String)} queues the page
+         * and returns, and a single writer thread stores the queued pages in
+         * batches.  A batch is not atomic: the database isn't transactional,
+         * so its pages are put one after the other, and a failure can leave
+         * part of a batch stored; {@link UrlRepository#flush()} and
+         * {@link UrlRepository#close()} report it.  Disabled by default.
+         *
+         * @param capacity   maximum number of queued pages; put blocks when
+         *                   the queue is full.
+         * @param batchSize  maximum number of pages per batch.
+         * @param batchBytes maximum (encoded) size of a batch in bytes.
+         * @return this config.
+         */
+        public Config writeBehind(int capacity, int batchSize,
+                                  long batchBytes) {
+            this.writeBehindCapacity = capacity;
+            this.writeBehindBatchSize = batchSize;
+            this.writeBehindBatchBytes = batchBytes;
+            return this;
+        }
+
+        /**
+         * Size of the in-memory Bloom filter in front of the map, by default
+         * one million URLs at a false positive probability of 1%, about
+         * 1.2 MB.  Lookups of URLs that aren't in the map are answered
+         * without touching the disk, except for the false positives.
+         *
+         * @param expectedInsertions number of URLs the filter is sized for.
+         * @param fpp                desired false positive probability.
+         * @return this config.
+         */
+        public Config bloomFilter(long expectedInsertions, double fpp) {
+            this.bloomFilter = true;
+            this.bloomExpectedInsertions = expectedInsertions;
+            this.bloomFpp = fpp;
+            return this;
+        }
+
+        /**
+         * Disable the Bloom filter; every lookup goes to the map.
+         *
+         * @return this config.
+         */
+        public Config noBloomFilter() {
+            this.bloomFilter = false;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "Config [path=" + path + ", storage=" + storage
+                    + ", mmap=" + mmap + ", concurrencyScale="
+                    + concurrencyScale + ", allocateIncrement="
+                    + allocateIncrement + ", writeBehindCapacity="
+                    + writeBehindCapacity + ", bloomFilter=" + bloomFilter
+                    + ", bloomFpp=" + bloomFpp + "]";
+        }
+    }
+
+    private final DB db;
+    private final Storage storage;
+    private final HTreeMap<String, String> strings;
+    private final HTreeMap<String, byte[]> pages;
+    private final HTreeMap<String, Long> hashes;
+    private final WriteBehindQueue<Object> writeBehind;
+    private final UrlBloomFilter bloomFilter;
+    private final File bloomFile;
 
+    /**
+     * Open the repository, keeping the storage of an existing database.  New
+     * databases store compressed pages.
+     */
     public UrlRepository() {
-        this.db = makeDb();
-        this.map = createUrlMapDatabase(this.db);
+        this(new Config());
+    }
+
+    /**
+     * Open the repository with the specified storage.
+     *
+     * @param storage how to store pages; null to detect it from the database.
+     */
+    public UrlRepository(Storage storage) {
+        this(new Config().storage(storage));
+    }
+
+    /**
+     * Open the repository with the specified settings.
+     *
+     * @param config MapDB settings of the repository.
+     */
+    public UrlRepository(Config config) {
+        this.db = makeDb(config);
+        this.storage = config.storage != null ? config.storage
+                : detectStorage(this.db);
+        if (this.storage == Storage.STRING) {
+            this.strings = createUrlMapDatabase(this.db,
+                    config.concurrencyScale);
+            this.pages = null;
+        } else {
+            this.strings = null;
+            this.pages = createPageMapDatabase(this.db,
+                    config.concurrencyScale);
+        }
+        this.hashes = createHashMapDatabase(this.db, config.concurrencyScale);
+        this.bloomFile = new File(config.path + ".bloom");
+        if (config.bloomFilter) {
+            HTreeMap<String, ?> map = map();
+            this.bloomFilter = UrlBloomFilter.open(this.bloomFile,
+                    map.keySet(), map.sizeLong(),
+                    config.bloomExpectedInsertions, config.bloomFpp);
+        } else {
+            this.bloomFilter = null;
+        }
+        if (config.writeBehindCapacity > 0) {
+            this.writeBehind = new WriteBehindQueue<>(
+                    config.writeBehindCapacity, config.writeBehindBatchSize,
+                    config.writeBehindBatchBytes, UrlRepository::sizeOf,
+                    this::storeAll);
+        } else {
+            this.writeBehind = null;
+        }
+    }
+
+    /**
+     * Return how the pages are stored.
+     *
+     * @return storage of the pages.
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Return the Bloom filter in front of the map, for its hit and miss
+     * counts.
+     *
+     * @return Bloom filter; null if disabled.
+     */
+    public UrlBloomFilter getBloomFilter() {
+        return bloomFilter;
     }
 
     /**
-     * Put a url-html key-value pair into the map.
+     * Put a url-html key-value pair into the map, and the hash of the HTML
+     * into the hash map.  With write-behind enabled the page is queued and
+     * stored later by the writer thread, but it is visible to
+     * {@link #get(String)} and {@link #contains(String)} at once.
      *
      * @param url  corresponding to the HTML.
      * @param html document returned by the URL.
      */
     public void put(String url, String html) {
-        map.put(url, html);
+        String key = UrlCanonicalizer.key(url);
+        Object value = encode(html);
+        if (bloomFilter != null) {
+            bloomFilter.put(key);
+        }
+        if (writeBehind != null) {
+            try {
+                writeBehind.put(key, value);
+                putHash(key, html);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        store(key, value);
+        putHash(key, html);
+    }
+
+    private void putHash(String key, String html) {
+        hashes.put(key, contentHash(html));
     }
 
     /**
@@ -40,7 +326,35 @@ public class UrlRepository implements AutoCloseable {
      * @return True if the URL string is in the map; False otherwise.
      */
     public boolean contains(String url) {
-        return map.containsKey(url);
+        HTreeMap<String, ?> map = map();
+        String key = UrlCanonicalizer.key(url);
+        return contains(map, key) || !key.equals(url) && contains(map, url);
+    }
+
+    /**
+     * Return the subset of the URLs that are in the map.  The URLs are looked
+     * up in hash segment order, so consecutive lookups hit the same segment
+     * and the same parts of the store.
+     *
+     * @param urls to check.
+     * @return Set of the URLs that are in the map.
+     */
+    public Set<String> containsAll(Collection<String> urls) {
+        Map<String, List<String>> byKey = byKey(urls);
+        Set<String> result = new HashSet<>();
+        HTreeMap<String, ?> map = map();
+        for (String key : segmentOrder(map, byKey.keySet())) {
+            if (contains(map, key)) {
+                result.addAll(byKey.get(key));
+                continue;
+            }
+            for (String url : byKey.get(key)) {
+                if (!key.equals(url) && contains(map, url)) {
+                    result.add(url);
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -50,25 +364,283 @@ public class UrlRepository implements AutoCloseable {
      * @return String HTML if URL key exists; otherwise empty.
      */
     public Optional<String> get(String url) {
-        if (map.containsKey(url)) {
-            return Optional.of(map.get(url));
-        } else {
+        Object value = loadUrl(url);
+        if (value == null) {
             return Optional.empty();
         }
+        return Optional.of(decode(value));
+    }
+
+    /**
+     * Get the {@link #contentHash(String)} of the HTML of the URL without
+     * loading the page.
+     *
+     * @param url String key to look up the hash map.
+     * @return hash if the page was put with one; otherwise empty.
+     */
+    public OptionalLong getHash(String url) {
+        String key = UrlCanonicalizer.key(url);
+        Long hash = hashes.get(key);
+        if (hash == null && !key.equals(url)) {
+            hash = hashes.get(url);
+        }
+        return hash == null ? OptionalLong.empty() : OptionalLong.of(hash);
+    }
+
+    /**
+     * Hash HTML the way the hashes of the pages are computed.
+     *
+     * @param html document to hash.
+     * @return 64 bits of the Murmur3 hash of the UTF-8 bytes of the HTML.
+     */
+    public static long contentHash(String html) {
+        return Hashing.murmur3_128().hashString(html, StandardCharsets.UTF_8)
+                .asLong();
+    }
+
+    /**
+     * Get the HTML strings of all URLs that are in the map, looking them up
+     * in hash segment order.
+     *
+     * @param urls String keys to look up the map.
+     * @return Map from URL to HTML for the URLs that exist, in the order of
+     * the input.
+     */
+    public Map<String, String> getAll(Collection<String> urls) {
+        Map<String, List<String>> byKey = byKey(urls);
+        Map<String, Object> values = new HashMap<>();
+        for (String key : segmentOrder(map(), byKey.keySet())) {
+            Object value = load(key);
+            for (String url : byKey.get(key)) {
+                Object found = value != null || key.equals(url) ? value
+                        : load(url);
+                if (found != null) {
+                    values.put(url, found);
+                }
+            }
+        }
+
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String url : urls) {
+            Object value = values.get(url);
+            if (value != null) {
+                result.put(url, decode(value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wait until all pages queued for write-behind are stored.  Does nothing
+     * when write-behind is disabled.
+     *
+     * @throws InterruptedException  if interrupted while waiting.
+     * @throws IllegalStateException if pages could not be stored.
+     */
+    public void flush() throws InterruptedException {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /**
+     * Group the URLs by key, keeping their order within a key.
+     */
+    private static Map<String, List<String>> byKey(Collection<String> urls) {
+        Map<String, List<String>> byKey = new HashMap<>();
+        for (String url : urls) {
+            byKey.computeIfAbsent(UrlCanonicalizer.key(url),
+                    k -> new ArrayList<>(1)).add(url);
+        }
+        return byKey;
+    }
+
+    private HTreeMap<String, ?> map() {
+        if (storage == Storage.STRING) {
+            return strings;
+        } else {
+            return pages;
+        }
+    }
+
+    private boolean contains(HTreeMap<String, ?> map, String url) {
+        if (writeBehind != null && writeBehind.get(url) != null) {
+            return true;
+        }
+        if (bloomFilter == null) {
+            return map.containsKey(url);
+        }
+        if (!bloomFilter.mightContain(url)) {
+            return false;
+        }
+        boolean found = map.containsKey(url);
+        bloomFilter.confirm(found);
+        return found;
+    }
+
+    /**
+     * Look the URL up by its key, then as crawled for older databases.
+     */
+    private Object loadUrl(String url) {
+        String key = UrlCanonicalizer.key(url);
+        Object value = load(key);
+        if (value == null && !key.equals(url)) {
+            value = load(url);
+        }
+        return value;
+    }
+
+    /**
+     * Look the URL up with a single map access; the pending writes are
+     * checked first, and the map is skipped for Bloom filter misses.
+     */
+    private Object load(String url) {
+        if (writeBehind != null) {
+            Object value = writeBehind.get(url);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (bloomFilter == null) {
+            return map().get(url);
+        }
+        if (!bloomFilter.mightContain(url)) {
+            return null;
+        }
+        Object value = map().get(url);
+        bloomFilter.confirm(value != null);
+        return value;
     }
 
-    private static DB makeDb() {
-        return DBMaker.fileDB("urls.db").closeOnJvmShutdown().make();
+    /**
+     * Sort the keys by the hash segment of the map they belong to, the same
+     * way HTreeMap assigns them.
+     */
+    private static List<String> segmentOrder(HTreeMap<String, ?> map,
+                                             Collection<String> keys) {
+        Serializer<String> serializer = map.getKeySerializer();
+        int shift = map.getLevels() * map.getDirShift();
+        int mask = (1 << map.getConcShift()) - 1;
+
+        int[] segments = new int[keys.size()];
+        String[] sorted = keys.toArray(new String[0]);
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            segments[i] = (serializer.hashCode(sorted[i], 0) >>> shift) & mask;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> segments[i]));
+
+        List<String> result = new ArrayList<>(sorted.length);
+        for (Integer i : order) {
+            result.add(sorted[i]);
+        }
+        return result;
+    }
+
+    private Object encode(String html) {
+        if (storage == Storage.STRING) {
+            return html;
+        } else {
+            return PageCodec.encode(html);
+        }
+    }
+
+    private String decode(Object value) {
+        if (storage == Storage.STRING) {
+            return (String) value;
+        } else {
+            return PageCodec.decode((byte[]) value);
+        }
+    }
+
+    private void store(String url, Object value) {
+        if (storage == Storage.STRING) {
+            strings.put(url, (String) value);
+        } else {
+            pages.put(url, (byte[]) value);
+        }
+    }
+
+    private void storeAll(List<Map.Entry<String, Object>> batch) {
+        for (Map.Entry<String, Object> entry : batch) {
+            store(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof String) {
+            return 2L * ((String) value).length();
+        } else {
+            return ((byte[]) value).length;
+        }
+    }
+
+    private static DB makeDb(Config config) {
+        DBMaker.Maker maker = DBMaker.fileDB(config.path)
+                .concurrencyScale(config.concurrencyScale)
+                .allocateIncrement(config.allocateIncrement)
+                .closeOnJvmShutdown();
+        if (config.mmap) {
+            maker = maker.fileMmapEnableIfSupported()
+                    .fileMmapPreclearDisable();
+        }
+        return maker.make();
+    }
+
+    private static Storage detectStorage(DB db) {
+        if (db.exists(STRING_MAP) && !db.exists(COMPRESSED_MAP)) {
+            return Storage.STRING;
+        }
+        return Storage.COMPRESSED;
     }
 
-    private static Map<String, String> createUrlMapDatabase(DB db) {
-        HTreeMap<?, ?> hTreeMap = db.hashMap("urls").createOrOpen();
-        Map<String, String> map = (Map<String, String>) hTreeMap;
+    static HTreeMap<String, String> createUrlMapDatabase(DB db,
+                                                        int concurrency) {
+        if (!db.exists(STRING_MAP)) {
+            return db.hashMap(STRING_MAP, Serializer.STRING,
+                    Serializer.STRING)
+                    .layout(concurrency, HASH_DIR_SIZE, HASH_LEVELS)
+                    .create();
+        }
+        // Databases created before explicit serializers use the defaults
+        HTreeMap<?, ?> hTreeMap = db.hashMap(STRING_MAP).open();
+        HTreeMap<String, String> map = (HTreeMap<String, String>) hTreeMap;
         return map;
     }
 
+    static HTreeMap<String, Long> createHashMapDatabase(DB db,
+                                                       int concurrency) {
+        return db.hashMap(HASH_MAP, Serializer.STRING, Serializer.LONG)
+                .layout(concurrency, HASH_DIR_SIZE, HASH_LEVELS)
+                .createOrOpen();
+    }
+
+    static HTreeMap<String, byte[]> createPageMapDatabase(DB db,
+                                                         int concurrency) {
+        return db.hashMap(COMPRESSED_MAP, Serializer.STRING,
+                Serializer.BYTE_ARRAY)
+                .layout(concurrency, HASH_DIR_SIZE, HASH_LEVELS)
+                .createOrOpen();
+    }
+
+    /**
+     * Store all pages queued for write-behind, save the Bloom filter and
+     * close the database.
+     *
+     * @throws Exception if the database could not be closed.
+     */
     @Override
     public void close() throws Exception {
-        db.close();
+        try {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+            if (bloomFilter != null) {
+                bloomFilter.save(bloomFile, map().sizeLong());
+            }
+        } finally {
+            db.close();
+        }
     }
 }
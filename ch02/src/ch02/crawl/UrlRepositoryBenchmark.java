@@ -0,0 +1,99 @@
+package ch02.crawl;
+
+import com.google.common.base.Stopwatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure put and get throughput of the URL repository at 1, 8 and 32
+ * threads, with plain file access, memory mapping, and memory mapping with
+ * write-behind (puts include the final flush).  Every configuration writes a
+ * fresh database in a temporary directory.  Usage:
+ * {@code UrlRepositoryBenchmark [numberOfPages] [pageSize]}.
+ */
+public class UrlRepositoryBenchmark {
+
+    private static final int[] THREADS = {1, 8, 32};
+
+    public static void main(String[] args) throws Exception {
+        int numberOfPages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        String[] pages = createPages(64, pageSize);
+
+        File dir = Files.createTempDirectory("url-repository").toFile();
+        try {
+            for (String mode : new String[]{"file", "mmap", "write-behind"}) {
+                for (int threads : THREADS) {
+                    String path = new File(dir, "urls-" + mode + "-" + threads
+                            + ".db").getPath();
+                    UrlRepository.Config config = new UrlRepository.Config()
+                            .path(path).mmap(!"file".equals(mode));
+                    if ("write-behind".equals(mode)) {
+                        config.writeBehind(1000, 100, 8 * 1024 * 1024);
+                    }
+                    try (UrlRepository urls = new UrlRepository(config)) {
+                        run("put", mode, threads, numberOfPages, i ->
+                                urls.put(url(i), pages[i % pages.length]),
+                                urls);
+                        run("get", mode, threads, numberOfPages, i ->
+                                urls.get(url(i)).get(), urls);
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static void run(String name, String mode, int threads,
+                            int numberOfPages, Operation operation,
+                            UrlRepository urls) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            executor.execute(() -> {
+                for (int i = offset; i < numberOfPages; i += threads) {
+                    operation.apply(i);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        urls.flush();
+        long millis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        System.out.printf("%s %-12s threads=%2d: %9.0f ops/s%n",
+                name, mode, threads, 1000.0 * numberOfPages / millis);
+    }
+
+    private static String url(int i) {
+        return "http://www.example.com/page/" + i;
+    }
+
+    private static String[] createPages(int count, int pageSize) {
+        String[] pages = new String[count];
+        for (int p = 0; p < count; p++) {
+            StringBuilder sb = new StringBuilder(pageSize + 128);
+            sb.append("<html><head><title>Page ").append(p)
+                    .append("</title></head><body>");
+            int i = 0;
+            while (sb.length() < pageSize) {
+                sb.append("<p>Paragraph ").append(p * 31 + i++)
+                        .append(" with <a href=\"/link/").append(i)
+                        .append("\">a link</a> and some text.</p>\n");
+            }
+            sb.append("</body></html>");
+            pages[p] = sb.toString();
+        }
+        return pages;
+    }
+
+    private interface Operation {
+        void apply(int i);
+    }
+}
@@ -0,0 +1,83 @@
+package ch02.crawl;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Migrate a URL repository that stores pages as strings to compressed page
+ * storage.  The pages and their hashes are copied into a new database file,
+ * which then replaces the original; the original is kept with a .bak
+ * suffix.
+ */
+public class UrlRepositoryMigration {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(UrlRepositoryMigration.class);
+
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0] : UrlRepository.DB_FILE;
+        migrate(Paths.get(filename));
+    }
+
+    /**
+     * Migrate the database file to compressed page storage.
+     *
+     * @param source MapDB file of the repository.
+     * @throws IOException if the database files could not be replaced.
+     */
+    public static void migrate(Path source) throws IOException {
+        Path target = source.resolveSibling(source.getFileName() + ".tmp");
+        Path backup = source.resolveSibling(source.getFileName() + ".bak");
+        Files.deleteIfExists(target);
+
+        long count = 0;
+        DB sourceDb = DBMaker.fileDB(source.toFile()).readOnly().make();
+        try {
+            if (!sourceDb.exists(UrlRepository.STRING_MAP)) {
+                LOGGER.info("{} has no string pages to migrate", source);
+                return;
+            }
+            Map<String, String> strings =
+                    UrlRepository.createUrlMapDatabase(sourceDb,
+                            UrlRepository.DEFAULT_CONCURRENCY_SCALE);
+
+            DB targetDb = DBMaker.fileDB(target.toFile()).make();
+            try {
+                Map<String, byte[]> pages =
+                        UrlRepository.createPageMapDatabase(targetDb,
+                                UrlRepository.DEFAULT_CONCURRENCY_SCALE);
+                Map<String, Long> hashes =
+                        UrlRepository.createHashMapDatabase(targetDb,
+                                UrlRepository.DEFAULT_CONCURRENCY_SCALE);
+                for (Map.Entry<String, String> e : strings.entrySet()) {
+                    pages.put(e.getKey(), PageCodec.encode(e.getValue()));
+                    hashes.put(e.getKey(),
+                            UrlRepository.contentHash(e.getValue()));
+                    if (++count % 1000 == 0) {
+                        LOGGER.info("Migrated {} pages", count);
+                    }
+                }
+            } finally {
+                targetDb.close();
+            }
+        } finally {
+            sourceDb.close();
+        }
+
+        long before = Files.size(source);
+        long after = Files.size(target);
+        Files.move(source, backup, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(target, source);
+        LOGGER.info("Migrated {} pages, {} bytes -> {} bytes ({} kept as {})",
+                count, before, after, source, backup);
+    }
+}
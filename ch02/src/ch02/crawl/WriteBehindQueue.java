@@ -0,0 +1,233 @@
+package ch02.crawl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded write-behind buffer with a single writer thread.  Producers hand
+ * over key-value pairs without waiting for the store (unless the queue is
+ * full); the writer thread drains the queue in batches limited by count and
+ * by size in bytes.  Values that are queued but not written yet can be read
+ * back with {@link #get(String)}.
+ * <p>
+ * When the writer fails on a batch, its values are not counted as written
+ * and stay readable with {@link #get(String)}; the first failure is rethrown
+ * by {@link #flush()} and {@link #close()}, so a lost write is never
+ * reported as drained.  Once {@link #close()} is called, every value put
+ * before is written and later puts throw {@link IllegalStateException}.
+ *
+ * @param <V> type of the values.
+ */
+public class WriteBehindQueue<V> implements AutoCloseable {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final long POLL_INTERVAL = 100; // milliseconds
+
+    private final BlockingQueue<Map.Entry<String, V>> queue;
+    private final Map<String, V> pending = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final long batchBytes;
+    private final ToLongFunction<V> sizeOf;
+    private final Consumer<List<Map.Entry<String, V>>> writer;
+    private final Thread thread;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    // Guarded by this: writes done, successfully or not, and the first error
+    private long processed;
+    private long failed;
+    private RuntimeException failure;
+    // Guarded by this: the writer stops once closed with no put in progress
+    private boolean closed;
+    private int putting;
+
+    /**
+     * Create the queue and start its writer thread.
+     *
+     * @param capacity   maximum number of queued writes; producers block
+     *                   when the queue is full.
+     * @param batchSize  maximum number of writes per batch.
+     * @param batchBytes maximum size of the values of a batch in bytes.
+     * @param sizeOf     returns the size of a value in bytes.
+     * @param writer     writes a batch to the store.
+     */
+    public WriteBehindQueue(int capacity, int batchSize, long batchBytes,
+                            ToLongFunction<V> sizeOf,
+                            Consumer<List<Map.Entry<String, V>>> writer) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.sizeOf = sizeOf;
+        this.writer = writer;
+        this.thread = new Thread(this::run, "write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a write, blocking while the queue is full.
+     *
+     * @param key   to write.
+     * @param value to write.
+     * @throws InterruptedException  if interrupted while waiting for room.
+     * @throws IllegalStateException if the queue is closed.
+     */
+    public void put(String key, V value) throws InterruptedException {
+        // Registered under the lock, but not held while waiting for room, as
+        // the writer takes it to decide to stop
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException(
+                        "Write-behind queue is closed");
+            }
+            putting++;
+        }
+        try {
+            pending.put(key, value);
+            try {
+                queue.put(Map.entry(key, value));
+            } catch (InterruptedException e) {
+                // Not queued: the caller gets the exception and keeps the
+                // value
+                pending.remove(key, value);
+                throw e;
+            }
+            enqueued.incrementAndGet();
+        } finally {
+            synchronized (this) {
+                putting--;
+            }
+        }
+    }
+
+    /**
+     * Return the value of a write that is queued but not written yet.
+     *
+     * @param key to look up.
+     * @return pending value; null if there is none.
+     */
+    public V get(String key) {
+        return pending.get(key);
+    }
+
+    /**
+     * Wait until every write queued before this call has been written.
+     *
+     * @throws InterruptedException  if interrupted while waiting.
+     * @throws IllegalStateException if a batch could not be written, with
+     *                               the first failure as cause.
+     */
+    public void flush() throws InterruptedException {
+        long target = enqueued.get();
+        synchronized (this) {
+            while (processed < target) {
+                wait();
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * @return number of values the writer failed to write.
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    private synchronized void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Could not write " + failed
+                    + " values", failure);
+        }
+    }
+
+    private void run() {
+        List<Map.Entry<String, V>> batch = new ArrayList<>(batchSize);
+        while (true) {
+            Map.Entry<String, V> first;
+            try {
+                first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = queue.poll();
+            }
+            if (first == null) {
+                if (isDrained()) {
+                    return;
+                }
+                continue;
+            }
+
+            batch.add(first);
+            long bytes = sizeOf.applyAsLong(first.getValue());
+            while (batch.size() < batchSize && bytes < batchBytes) {
+                Map.Entry<String, V> next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                bytes += sizeOf.applyAsLong(next.getValue());
+            }
+
+            try {
+                writer.accept(batch);
+                for (Map.Entry<String, V> entry : batch) {
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+                markProcessed(batch.size(), null);
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not write batch of {} values",
+                        batch.size(), e);
+                markProcessed(batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return true once closed, with nothing queued and no put that could
+     * still queue a value.
+     */
+    private synchronized boolean isDrained() {
+        return closed && putting == 0 && queue.isEmpty();
+    }
+
+    private synchronized void markProcessed(int count,
+                                            RuntimeException error) {
+        processed += count;
+        if (error != null) {
+            failed += count;
+            if (failure == null) {
+                failure = error;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Write all queued values and stop the writer thread.
+     *
+     * @throws InterruptedException  if interrupted while waiting.
+     * @throws IllegalStateException if a batch could not be written, with
+     *                               the first failure as cause.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+        }
+        thread.join();
+        checkFailure();
+    }
+}
@@ -0,0 +1,38 @@
+package ch03;
+
+import ch02.ColumnFrame;
+import ch02.crawl.RankedPage;
+import ch02.crawl.RankedPageColumns;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Display ranked page data summary statistics, like {@link JoineryStats},
+ * with a {@link ColumnFrame} instead of a Joinery DataFrame.  Reads
+ * {@code data/ranked-pages.json}, or the JSON lines or columns
+ * ({@code .cols}) file given as argument.
+ */
+public class ColumnFrameStats {
+
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0]
+                : "data/ranked-pages.json";
+        ColumnFrame df;
+        if (filename.endsWith(".cols")) {
+            df = ColumnFrame.from(RankedPageColumns.open(Paths.get(filename)));
+        } else {
+            df = ColumnFrame.fromBeans(Data.readRankedPages(filename),
+                    RankedPage.class, true);
+        }
+
+        ColumnFrame describe = df.retain("bodyContentLength", "titleLength",
+                "numberOfHeaders").describe();
+        System.out.println(describe);
+
+        ColumnFrame.Grouping byPage = df.drop("position").groupBy("page");
+        System.out.println(byPage.count());
+        System.out.println(byPage.mean());
+        System.out.println(byPage.percentile(50));
+    }
+}
@@ -1,16 +1,13 @@
 package ch03;
 
 import ch02.crawl.RankedPage;
+import ch02.crawl.RankedPageJsonReader;
 import com.fasterxml.jackson.jr.ob.JSON;
 import com.google.common.base.Throwables;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Parse a file with search engine ranked pages in JSON format.
@@ -18,7 +15,9 @@ import java.util.stream.Stream;
 public class Data {
 
     /**
-     * Return a list of ranked pages from the specified file.
+     * Return a list of ranked pages from the specified file.  The file is
+     * parsed in parallel by {@link RankedPageJsonReader}, straight from its
+     * bytes into columns that are then copied into the beans.
      *
      * @param filename search engine ranked pages JSON file.
      * @return List of RankedPage objects.
@@ -26,11 +25,7 @@ public class Data {
      */
     public static List<RankedPage> readRankedPages(String filename) throws
             IOException {
-        Path path = Paths.get(filename);
-        try (Stream<String> lines = Files.lines(path)) {
-            return lines.map(line ->
-                    parseJson(line)).collect(Collectors.toList());
-        }
+        return RankedPageJsonReader.read(Paths.get(filename)).toRankedPages();
     }
 
     /**
@@ -2,51 +2,63 @@ package ch03;
 
 import ch02.crawl.RankedPage;
 import com.google.common.collect.Maps;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.function.Function;
-import java.util.function.ToDoubleFunction;
-import java.util.stream.Collectors;
+import java.util.stream.Collector;
 
 /**
- * Calculate summary statistics of ranked page results.
+ * Calculate summary statistics of ranked page results.  The statistics are
+ * computed in a single parallel pass over the pages, with
+ * {@link StreamingStats} for all the pages and for each result page, so the
+ * memory used doesn't grow with the number of pages.  Percentiles are
+ * estimates; {@link RankedPageStatsAccuracy} compares them with the exact
+ * ones.
  */
 public class RankedPageStats {
 
     public static void main(String[] args) throws IOException {
         List<RankedPage> data = Data.readRankedPages("data/ranked-pages.json");
-        summaryStats(data);
-        descStats(data);
-        proportion(data);
-        groupByDescStats(data);
+        Summary summary = summarize(data);
+        summaryStats(summary);
+        descStats(summary);
+        proportion(summary);
+        groupByDescStats(summary);
     }
 
     /**
-     * Display summary statistics of body content length of the crawled pages.
+     * Summarize the body content length of the crawled pages in one pass.
      *
      * @param data List of RankedPage data to summarise.
+     * @return statistics of all the pages, and by page of the pages with
+     * content.
      */
-    private static void summaryStats(List<RankedPage> data) {
-        SummaryStatistics summary = new SummaryStatistics();
-        data.stream().mapToDouble(RankedPage::getBodyContentLength)
-                .forEach(summary::addValue);
-        System.out.println(summary.getSummary());
+    static Summary summarize(List<RankedPage> data) {
+        return data.parallelStream().collect(Collector.of(Summary::new,
+                Summary::add, Summary::merge));
+    }
+
+    /**
+     * Display summary statistics of body content length of the crawled pages.
+     *
+     * @param summary statistics of the pages.
+     */
+    private static void summaryStats(Summary summary) {
+        System.out.println(summary.all.getSummary());
     }
 
     /**
      * Display descriptive statistics of body content length of the crawled
      * pages.
      *
-     * @param data List of RankedPage data to summarise.
+     * @param summary statistics of the pages.
      */
-    private static void descStats(List<RankedPage> data) {
-        double[] dataArray = data.stream()
-                .mapToDouble(RankedPage::getBodyContentLength).toArray();
-        DescriptiveStatistics desc = new DescriptiveStatistics(dataArray);
+    private static void descStats(Summary summary) {
+        StreamingStats desc = summary.all;
         System.out.printf("min: %9.1f%n", desc.getMin());
         System.out.printf("p05: %9.1f%n", desc.getPercentile(5));
         System.out.printf("p25: %9.1f%n", desc.getPercentile(25));
@@ -59,12 +71,10 @@ public class RankedPageStats {
     /**
      * Display the proportion of data with zero body content length.
      *
-     * @param data List of RankedPage data to analyse.
+     * @param summary statistics of the pages.
      */
-    private static void proportion(List<RankedPage> data) {
-        double proportion = data.stream()
-                .mapToInt(p -> p.getBodyContentLength() == 0 ? 1 : 0)
-                .average().getAsDouble();
+    private static void proportion(Summary summary) {
+        double proportion = (double) summary.zeros / summary.all.getN();
         System.out.printf("Proportion of zero content length: %.5f%n",
                 proportion);
     }
@@ -73,22 +83,12 @@ public class RankedPageStats {
      * Group URLs by page and calculate the mean content length to see whether
      * the value for content length is similar across different pages.
      *
-     * @param data List of RankedPage.
+     * @param summary statistics of the pages.
      */
-    private static void groupByDescStats(List<RankedPage> data) {
+    private static void groupByDescStats(Summary summary) {
         System.out.println();
 
-        Map<Integer, List<RankedPage>> byPage = data.stream()
-                .filter(p -> p.getBodyContentLength() != 0)
-                .collect(Collectors.groupingBy(RankedPage::getPage));
-
-        List<DescriptiveStatistics> stats = byPage.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(e -> calculate(e.getValue(),
-                        RankedPage::getBodyContentLength))
-                .collect(Collectors.toList());
-
-        Map<String, Function<DescriptiveStatistics, Double>> functions =
+        Map<String, Function<StreamingStats, Double>> functions =
                 Maps.newLinkedHashMap();
         functions.put("min", d -> d.getMin());
         functions.put("p05", d -> d.getPercentile(5));
@@ -100,18 +100,18 @@ public class RankedPageStats {
 
         System.out.print("page");
         for (Integer page :
-                byPage.keySet()) {
+                summary.byPage.keySet()) {
             System.out.printf("%9d ", page);
         }
         System.out.println();
 
-        for (Map.Entry<String, Function<DescriptiveStatistics, Double>> pair :
+        for (Map.Entry<String, Function<StreamingStats, Double>> pair :
                 functions.entrySet()) {
             System.out.print(pair.getKey());
-            Function<DescriptiveStatistics, Double> function = pair.getValue();
+            Function<StreamingStats, Double> function = pair.getValue();
             System.out.print(" ");
-            for (DescriptiveStatistics ds :
-                    stats) {
+            for (StreamingStats ds :
+                    summary.byPage.values()) {
                 System.out.printf("%9.1f ", function.apply(ds));
             }
             System.out.println();
@@ -119,19 +119,31 @@ public class RankedPageStats {
     }
 
     /**
-     * Compute the provided function on every element and return a
-     * DescriptiveStatistics object from it.
-     *
-     * @param data   List of RankedPage data.
-     * @param getter RankedPage method that returns the desired quantity for
-     *               calculation.
-     * @return DescriptiveStatistics object.
+     * Statistics of the body content length of all the pages, and by page
+     * of the pages with content.
      */
-    private static DescriptiveStatistics calculate(
-            List<RankedPage> data, ToDoubleFunction<RankedPage> getter) {
-        double[] dataArray = data.stream().mapToDouble(getter).toArray();
-        return new DescriptiveStatistics(dataArray);
-    }
-
+    static class Summary {
+        final StreamingStats all = new StreamingStats();
+        final SortedMap<Integer, StreamingStats> byPage = new TreeMap<>();
+        long zeros;
+
+        void add(RankedPage page) {
+            int length = page.getBodyContentLength();
+            all.add(length);
+            if (length == 0) {
+                zeros++;
+            } else {
+                byPage.computeIfAbsent(page.getPage(),
+                        p -> new StreamingStats()).add(length);
+            }
+        }
 
+        Summary merge(Summary other) {
+            all.merge(other.all);
+            zeros += other.zeros;
+            other.byPage.forEach((page, stats) -> byPage.merge(page, stats,
+                    StreamingStats::merge));
+            return this;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package ch03;
+
+import ch02.crawl.RankedPage;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Compare the streaming statistics of {@link RankedPageStats} with the
+ * exact ones of {@code DescriptiveStatistics}, on all the pages and by page.
+ * For each percentile, the rank error is the distance between the requested
+ * fraction and the fraction of the values below the estimate, which is
+ * what the {@link KllSketch} bounds; the estimate itself can be farther
+ * from the exact value where the values are sparse.  Reads
+ * {@code data/ranked-pages.json}, or the file given as argument.
+ */
+public class RankedPageStatsAccuracy {
+
+    private static final double[] PERCENTILES = {5, 25, 50, 75, 95};
+
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0]
+                : "data/ranked-pages.json";
+        List<RankedPage> data = Data.readRankedPages(filename);
+        RankedPageStats.Summary summary = RankedPageStats.summarize(data);
+
+        compare("all", lengths(data), summary.all);
+        Map<Integer, List<RankedPage>> byPage = data.stream()
+                .filter(p -> p.getBodyContentLength() != 0)
+                .collect(Collectors.groupingBy(RankedPage::getPage,
+                        TreeMap::new, Collectors.toList()));
+        for (Map.Entry<Integer, List<RankedPage>> e : byPage.entrySet()) {
+            compare("page " + e.getKey(), lengths(e.getValue()),
+                    summary.byPage.get(e.getKey()));
+        }
+    }
+
+    private static double[] lengths(List<RankedPage> pages) {
+        return pages.stream().mapToDouble(RankedPage::getBodyContentLength)
+                .toArray();
+    }
+
+    private static void compare(String name, double[] values,
+                                StreamingStats stats) {
+        DescriptiveStatistics exact = new DescriptiveStatistics(values);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: %d values%n", name, values.length);
+        System.out.printf("mean %12.3f %12.3f%n", exact.getMean(),
+                stats.getMean());
+        System.out.printf("std  %12.3f %12.3f%n",
+                exact.getStandardDeviation(), stats.getStandardDeviation());
+        double maxRankError = 0;
+        for (double p : PERCENTILES) {
+            double estimate = stats.getPercentile(p);
+            double rankError = rankError(sorted, estimate, p / 100);
+            maxRankError = Math.max(maxRankError, rankError);
+            System.out.printf("p%02.0f  %12.1f %12.1f  rank error %.4f%n", p,
+                    exact.getPercentile(p), estimate, rankError);
+        }
+        System.out.printf("max rank error %.4f%n%n", maxRankError);
+    }
+
+    /**
+     * @return distance from the fraction to the range of fractions of the
+     * values below and at or below the estimate.
+     */
+    private static double rankError(double[] sorted, double estimate,
+                                    double fraction) {
+        int below = 0;
+        while (below < sorted.length && sorted[below] < estimate) {
+            below++;
+        }
+        int atOrBelow = below;
+        while (atOrBelow < sorted.length && sorted[atOrBelow] == estimate) {
+            atOrBelow++;
+        }
+        double low = (double) below / sorted.length;
+        double high = (double) atOrBelow / sorted.length;
+        return Math.max(0, Math.max(low - fraction, fraction - high));
+    }
+}
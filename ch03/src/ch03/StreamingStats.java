@@ -0,0 +1,134 @@
+package ch03;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * Summary statistics of a stream of doubles in one pass and bounded memory,
+ * unlike {@code DescriptiveStatistics}, which keeps and sorts every value.
+ * The mean and the variance are updated with Welford's method, and the
+ * percentiles are estimated with a {@link KllSketch}.  Two summaries of
+ * parts of a stream merge into the summary of the whole, so a stream can be
+ * summarized in parallel with {@link #collector(ToDoubleFunction)}.
+ */
+public class StreamingStats {
+
+    private final KllSketch sketch = new KllSketch();
+    private long n;
+    private double mean;
+    // Sum of the squared differences from the mean
+    private double m2;
+    private double sum;
+
+    /**
+     * Add a value; NaN is ignored, as by the sketch, so that it doesn't
+     * turn the mean and the variance into NaN.
+     *
+     * @param value to add.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        n++;
+        double delta = value - mean;
+        mean += delta / n;
+        m2 += delta * (value - mean);
+        sum += value;
+        sketch.update(value);
+    }
+
+    /**
+     * Add the values of another summary, with Chan et al.'s update of the
+     * moments.
+     *
+     * @param other summary to merge into this one.
+     * @return this summary.
+     */
+    public StreamingStats merge(StreamingStats other) {
+        if (other.n == 0) {
+            return this;
+        }
+        long total = n + other.n;
+        double delta = other.mean - mean;
+        mean += delta * other.n / total;
+        m2 += other.m2 + delta * delta * n * other.n / total;
+        n = total;
+        sum += other.sum;
+        sketch.merge(other.sketch);
+        return this;
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    /**
+     * @return mean, NaN if empty.
+     */
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return sample variance, as by commons-math; NaN if empty.
+     */
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return n == 1 ? 0 : m2 / (n - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return sketch.getMin();
+    }
+
+    public double getMax() {
+        return sketch.getMax();
+    }
+
+    /**
+     * Estimate a percentile; see {@link KllSketch} for the accuracy.
+     *
+     * @param p percentile, from 0 to 100.
+     * @return estimated percentile, NaN if empty.
+     */
+    public double getPercentile(double p) {
+        return sketch.getQuantile(p / 100);
+    }
+
+    /**
+     * @return the summary in the form of {@code SummaryStatistics}.
+     */
+    public StatisticalSummary getSummary() {
+        return new StatisticalSummaryValues(getMean(), getVariance(), n,
+                getMax(), getMin(), sum);
+    }
+
+    /**
+     * Return a collector that summarizes a property of the elements of a
+     * stream; parallel streams summarize each part then merge.
+     *
+     * @param getter property to summarize.
+     * @param <T>    type of the elements.
+     * @return collector of the summary.
+     */
+    public static <T> Collector<T, StreamingStats, StreamingStats> collector(
+            ToDoubleFunction<T> getter) {
+        return Collector.of(StreamingStats::new,
+                (stats, t) -> stats.add(getter.applyAsDouble(t)),
+                StreamingStats::merge);
+    }
+}
@@ -0,0 +1,110 @@
+package ch04;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Build a model matrix from a list of objects, with one column per declared
+ * feature, in declaration order.  The features are read with typed
+ * accessors, usually method references, and written straight into primitive
+ * rows: nothing is boxed, unlike converting the objects to a Joinery
+ * DataFrame and calling {@code toModelMatrix}.  Booleans are 1.0 or 0.0, as
+ * in Joinery.
+ *
+ * @param <E> type of the objects.
+ */
+public class ModelMatrixBuilder<E> {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<ToDoubleFunction<E>> features = new ArrayList<>();
+
+    /**
+     * Add a column of doubles.
+     *
+     * @param name    column name.
+     * @param feature value of the column for an object.
+     * @return this builder.
+     */
+    public ModelMatrixBuilder<E> addDouble(String name,
+                                           ToDoubleFunction<E> feature) {
+        names.add(name);
+        features.add(feature);
+        return this;
+    }
+
+    /**
+     * Add a column of ints.
+     *
+     * @param name    column name.
+     * @param feature value of the column for an object.
+     * @return this builder.
+     */
+    public ModelMatrixBuilder<E> addInt(String name, ToIntFunction<E> feature) {
+        return addDouble(name, e -> feature.applyAsInt(e));
+    }
+
+    /**
+     * Add a column of booleans, 1.0 for true and 0.0 for false.
+     *
+     * @param name    column name.
+     * @param feature value of the column for an object.
+     * @return this builder.
+     */
+    public ModelMatrixBuilder<E> addBoolean(String name,
+                                            Predicate<E> feature) {
+        return addDouble(name, e -> feature.test(e) ? 1.0 : 0.0);
+    }
+
+    /**
+     * Return the column names, in order.
+     *
+     * @return column names.
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Return the model matrix of the objects, one row per object.
+     *
+     * @param rows objects to convert.
+     * @return model matrix.
+     */
+    public double[][] build(List<E> rows) {
+        int columns = features.size();
+        double[][] matrix = new double[rows.size()][];
+        for (int i = 0; i < matrix.length; i++) {
+            E row = rows.get(i);
+            double[] values = new double[columns];
+            for (int j = 0; j < columns; j++) {
+                values[j] = features.get(j).applyAsDouble(row);
+            }
+            matrix[i] = values;
+        }
+        return matrix;
+    }
+
+    /**
+     * Return the model matrix of the objects in one contiguous array, row
+     * after row.  The value of column j of row i is at
+     * {@code i * columns + j}.
+     *
+     * @param rows objects to convert.
+     * @return model matrix in row-major order.
+     */
+    public double[] buildRowMajor(List<E> rows) {
+        int columns = features.size();
+        double[] matrix = new double[rows.size() * columns];
+        for (int i = 0, k = 0; i < rows.size(); i++) {
+            E row = rows.get(i);
+            for (int j = 0; j < columns; j++) {
+                matrix[k++] = features.get(j).applyAsDouble(row);
+            }
+        }
+        return matrix;
+    }
+}
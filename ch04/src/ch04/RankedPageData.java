@@ -1,27 +1,27 @@
 package ch04;
 
-import ch02.BeanToJoinery;
+import ch02.crawl.RankedPageJsonReader;
 import ch04.cv.Dataset;
 import ch04.cv.Split;
 import com.fasterxml.jackson.jr.ob.JSON;
 import com.google.common.base.Throwables;
-import joinery.DataFrame;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Utility class used to parse search engine ranked page data.
  */
 public class RankedPageData {
 
+    private static final ModelMatrixBuilder<RankedPage> FEATURES = features();
+
     /**
-     * Return a list of RankedPage objects from the specified file.
+     * Return a list of RankedPage objects from the specified file.  The file
+     * is parsed in parallel by {@link RankedPageJsonReader}, straight from
+     * its bytes into columns that are then copied into the beans.
      *
      * @param filename JSON file to parse.
      * @return List of RankedPage objects.
@@ -29,11 +29,22 @@ public class RankedPageData {
      */
     public static List<RankedPage> readRankedPages(String filename) throws
             IOException {
-        Path path = Paths.get(filename);
-        try (Stream<String> lines = Files.lines(path)) {
-            return lines.map(line -> parseJson(line))
-                    .collect(Collectors.toList());
+        RankedPageJsonReader.Pages pages =
+                RankedPageJsonReader.read(Paths.get(filename));
+        List<RankedPage> result = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            RankedPage page = new RankedPage();
+            page.setUrl(pages.getUrls()[i]);
+            page.setPosition(pages.getPositions()[i]);
+            page.setPage(pages.getPages()[i]);
+            page.setTitleLength(pages.getTitleLengths()[i]);
+            page.setBodyContentLength(pages.getBodyContentLengths()[i]);
+            page.setQueryInTitle(pages.getQueryInTitle()[i]);
+            page.setNumberOfHeaders(pages.getNumberOfHeaders()[i]);
+            page.setNumberOfLinks(pages.getNumberOfLinks()[i]);
+            result.add(page);
         }
+        return result;
     }
 
     /**
@@ -62,17 +73,34 @@ public class RankedPageData {
                                               double testRatio) throws
             IOException {
         List<RankedPage> pages = RankedPageData.readRankedPages(filename);
-        DataFrame<Object> dataFrame = BeanToJoinery.convert(pages,
-                RankedPage.class);
-
-        List<Object> page = dataFrame.col("page");
-        double[] target = page.stream().mapToInt(o -> (int) o)
-                .mapToDouble(p -> (p == 0) ? 1.0 : 0.0).toArray();
-
-        dataFrame = dataFrame.drop("page", "url", "position");
-        double[][] X = dataFrame.toModelMatrix(0.0);
+        double[] target = pages.stream()
+                .mapToDouble(p -> (p.getPage() == 0) ? 1.0 : 0.0).toArray();
+        double[][] X = FEATURES.build(pages);
 
         Dataset dataset = new Dataset(X, target);
         return dataset.trainTestSplit(testRatio);
     }
+
+    /**
+     * Return the features of ranked pages, in the order they had when
+     * {@link #readRankedPagesMatrix(String, double)} went through
+     * {@link ch02.BeanToJoinery}: the bean properties but page, url and
+     * position, sorted by name.
+     *
+     * @return features of ranked pages.
+     */
+    public static ModelMatrixBuilder<RankedPage> features() {
+        return new ModelMatrixBuilder<RankedPage>()
+                .addInt("bodyContentLength", RankedPage::getBodyContentLength)
+                .addBoolean("domainCom", RankedPage::isDomainCom)
+                .addBoolean("domainNet", RankedPage::isDomainNet)
+                .addBoolean("domainOrg", RankedPage::isDomainOrg)
+                .addBoolean("https", RankedPage::isHttps)
+                .addInt("numberOfHeaders", RankedPage::getNumberOfHeaders)
+                .addInt("numberOfLinks", RankedPage::getNumberOfLinks)
+                .addInt("numberOfSlashes", RankedPage::getNumberOfSlashes)
+                .addBoolean("queryInTitle", RankedPage::isQueryInTitle)
+                .addInt("titleLength", RankedPage::getTitleLength)
+                .addInt("urlLength", RankedPage::getUrlLength);
+    }
 }